@@ -0,0 +1,54 @@
+package net.archigny.cas.persondir.ldap;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Search filter build from a compiled template, compared to the regex replacement previously used
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LdapFilterTemplateBenchmark {
+
+    @Param({ "(uid={0})", "(&(objectClass=inetOrgPerson)(|(uid={0})(mail={0})))" })
+    private String             filter;
+
+    @Param({ "jdupont", "jean.dupont*(admin)" })
+    private String             uid;
+
+    private LdapFilterTemplate template;
+
+    @Setup
+    public void setUp() {
+
+        template = LdapFilterTemplate.compile(filter, "uid");
+    }
+
+    @Benchmark
+    public String format() {
+
+        return template.format(uid);
+    }
+
+    @Benchmark
+    public String regexReplace() {
+
+        return filter.replaceAll("\\{0\\}", LdapFilterTemplate.escape(uid));
+    }
+
+}
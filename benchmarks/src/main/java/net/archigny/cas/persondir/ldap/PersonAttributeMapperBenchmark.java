@@ -0,0 +1,83 @@
+package net.archigny.cas.persondir.ldap;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.ldap.core.DirContextAdapter;
+import org.springframework.ldap.core.DistinguishedName;
+import org.springframework.ldap.core.support.LdapContextSource;
+
+/**
+ * Mapping of a directory entry to person attributes (PersonAttributeMapper), and lock of the result
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PersonAttributeMapperBenchmark {
+
+    @Param({ "5", "20" })
+    private int                                         attributeCount;
+
+    @Param({ "50", "500", "2000" })
+    private int                                         memberOfCount;
+
+    @Param({ "true", "false" })
+    private boolean                                     shareDirectoryValues;
+
+    private LdapPersonAttributeDao                      dao;
+
+    private LdapPersonAttributeDao.PersonAttributeMapper mapper;
+
+    private DirContextAdapter                           context;
+
+    @Setup
+    public void setUp() throws Exception {
+
+        dao = new LdapPersonAttributeDao();
+        dao.setContextSource(new LdapContextSource());
+        dao.setBaseDN("ou=people,dc=archigny,dc=net");
+        dao.setQueriedAttributes(SyntheticEntries.attributeNames(attributeCount, memberOfCount));
+        dao.setDnAttributeName("dn");
+        dao.setShareDirectoryValues(shareDirectoryValues);
+        dao.afterPropertiesSet();
+
+        mapper = dao.new PersonAttributeMapper("jdupont");
+        context = new DirContextAdapter(SyntheticEntries.toBasicAttributes(SyntheticEntries.attributes(attributeCount,
+                memberOfCount, 42)), new DistinguishedName("uid=jdupont,ou=people"));
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+
+        dao.destroy();
+    }
+
+    @Benchmark
+    public Object map() {
+
+        return mapper.mapFromContext(context);
+    }
+
+    @Benchmark
+    public Object mapAndLock() {
+
+        final ILockablePersonAttributes person = (ILockablePersonAttributes) mapper.mapFromContext(context);
+        person.lock();
+        return person;
+    }
+
+}
@@ -0,0 +1,68 @@
+package net.archigny.cas.persondir.ldap;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * PersonAttributesImpl.lock(), which makes every value list unmodifiable, against CompactPersonAttributes.freeze. The copy
+ * baseline measures the cost of building a fresh, unlocked instance.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PersonAttributesLockBenchmark {
+
+    @Param({ "5", "20" })
+    private int                       attributeCount;
+
+    @Param({ "50", "500", "2000" })
+    private int                       memberOfCount;
+
+    private Map<String, List<Object>> attributes;
+
+    private AttributeSchema           schema;
+
+    @Setup
+    public void setUp() {
+
+        attributes = SyntheticEntries.attributes(attributeCount, memberOfCount, 42);
+        schema = new AttributeSchema(attributes.keySet());
+    }
+
+    @Benchmark
+    public Object copyBaseline() {
+
+        return new PersonAttributesImpl("jdupont", SyntheticEntries.copy(attributes));
+    }
+
+    @Benchmark
+    public Object copyAndLock() {
+
+        final PersonAttributesImpl person = new PersonAttributesImpl("jdupont", SyntheticEntries.copy(attributes));
+        person.lock();
+        return person;
+    }
+
+    @Benchmark
+    public Object copyAndFreeze() {
+
+        return CompactPersonAttributes.freeze("jdupont", schema, SyntheticEntries.copy(attributes));
+    }
+
+}
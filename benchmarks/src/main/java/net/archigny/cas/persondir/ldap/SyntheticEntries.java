@@ -0,0 +1,126 @@
+package net.archigny.cas.persondir.ldap;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import javax.naming.directory.BasicAttribute;
+import javax.naming.directory.BasicAttributes;
+
+/**
+ * Realistic synthetic directory entries : a fixed set of single valued identity attributes, a binary objectGUID, and a large
+ * multi valued memberOf attribute whose values mix several group prefixes.
+ */
+public final class SyntheticEntries {
+
+    /**
+     * Single valued attributes, the first attributeCount ones are used
+     */
+    public static final String[] ATTRIBUTE_NAMES = { "uid", "cn", "sn", "givenName", "displayName", "mail", "telephoneNumber",
+            "title", "departmentNumber", "employeeNumber", "employeeType", "eduPersonAffiliation", "eduPersonPrincipalName",
+            "ou", "l", "postalCode", "street", "preferredLanguage", "supannEtablissement", "supannCivilite" };
+
+    public static final String   MEMBER_OF       = "memberOf";
+
+    public static final String   OBJECT_GUID     = "objectGUID";
+
+    public static final String[] GROUP_PREFIXES  = { "cn=app-", "cn=role-", "cn=staff-", "cn=list-" };
+
+    public static final String   GROUP_SUFFIX    = ",ou=groups,dc=archigny,dc=net";
+
+    private SyntheticEntries() {
+
+    }
+
+    /**
+     * @param attributeCount
+     *            number of single valued attributes (5 to 20)
+     * @param memberOfCount
+     *            number of memberOf values
+     * @return names of every generated attribute
+     */
+    public static List<String> attributeNames(final int attributeCount, final int memberOfCount) {
+
+        final List<String> names = new ArrayList<String>(attributeCount + 2);
+        for (int i = 0; i < attributeCount; i++) {
+            names.add(ATTRIBUTE_NAMES[i]);
+        }
+        names.add(OBJECT_GUID);
+        if (memberOfCount > 0) {
+            names.add(MEMBER_OF);
+        }
+        return names;
+    }
+
+    /**
+     * Generate the attributes of an entry, as mapped by LdapPersonAttributeDao
+     *
+     * @param attributeCount
+     *            number of single valued attributes (5 to 20)
+     * @param memberOfCount
+     *            number of memberOf values
+     * @param seed
+     *            random seed, the same seed giving the same entry
+     * @return attributes map
+     */
+    public static Map<String, List<Object>> attributes(final int attributeCount, final int memberOfCount, final long seed) {
+
+        if ((attributeCount < 1) || (attributeCount > ATTRIBUTE_NAMES.length)) {
+            throw new IllegalArgumentException("attributeCount must be between 1 and " + ATTRIBUTE_NAMES.length);
+        }
+        final Random random = new Random(seed);
+        final Map<String, List<Object>> attributes = new HashMap<String, List<Object>>();
+        for (int i = 0; i < attributeCount; i++) {
+            final List<Object> values = new ArrayList<Object>(1);
+            values.add(ATTRIBUTE_NAMES[i] + "-value-" + Long.toHexString(random.nextLong()));
+            attributes.put(ATTRIBUTE_NAMES[i], values);
+        }
+
+        final byte[] guid = new byte[16];
+        random.nextBytes(guid);
+        final List<Object> guidValues = new ArrayList<Object>(1);
+        guidValues.add(guid);
+        attributes.put(OBJECT_GUID, guidValues);
+
+        if (memberOfCount > 0) {
+            final List<Object> groups = new ArrayList<Object>(memberOfCount);
+            for (int i = 0; i < memberOfCount; i++) {
+                groups.add(GROUP_PREFIXES[random.nextInt(GROUP_PREFIXES.length)] + "group" + random.nextInt(100000)
+                        + GROUP_SUFFIX);
+            }
+            attributes.put(MEMBER_OF, groups);
+        }
+        return attributes;
+    }
+
+    /**
+     * Convert generated attributes to JNDI attributes, as returned by the directory
+     */
+    public static BasicAttributes toBasicAttributes(final Map<String, List<Object>> attributes) {
+
+        final BasicAttributes basicAttributes = new BasicAttributes(true);
+        for (final Map.Entry<String, List<Object>> entry : attributes.entrySet()) {
+            final BasicAttribute attribute = new BasicAttribute(entry.getKey());
+            for (final Object value : entry.getValue()) {
+                attribute.add(value);
+            }
+            basicAttributes.put(attribute);
+        }
+        return basicAttributes;
+    }
+
+    /**
+     * Copy attributes (map and value lists), as processors modify them in place
+     */
+    public static Map<String, List<Object>> copy(final Map<String, List<Object>> attributes) {
+
+        final Map<String, List<Object>> copy = new HashMap<String, List<Object>>(attributes.size() * 2);
+        for (final Map.Entry<String, List<Object>> entry : attributes.entrySet()) {
+            copy.put(entry.getKey(), new ArrayList<Object>(entry.getValue()));
+        }
+        return copy;
+    }
+
+}
@@ -0,0 +1,93 @@
+package net.archigny.cas.persondir.load;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.unboundid.ldap.listener.InMemoryDirectoryServer;
+import com.unboundid.ldap.listener.InMemoryDirectoryServerConfig;
+import com.unboundid.ldap.listener.InMemoryListenerConfig;
+import com.unboundid.ldap.sdk.Attribute;
+import com.unboundid.ldap.sdk.Entry;
+import com.unboundid.ldap.sdk.LDAPException;
+import com.unboundid.ldap.sdk.schema.Schema;
+
+/**
+ * In-process LDAP server seeded with synthetic users and groups. Users are named <code>user0</code> to
+ * <code>user(n-1)</code>, and are members of groupsPerUser random groups (memberOf is stored as a plain attribute, allowed by
+ * extensibleObject).
+ */
+public class EmbeddedDirectory {
+
+    public static final String            BASE_DN   = "dc=archigny,dc=net";
+
+    public static final String            PEOPLE_DN = "ou=people," + BASE_DN;
+
+    public static final String            GROUPS_DN = "ou=groups," + BASE_DN;
+
+    private final InMemoryDirectoryServer server;
+
+    public EmbeddedDirectory(final int userCount, final int groupCount, final int groupsPerUser, final long seed)
+            throws LDAPException {
+
+        final InMemoryDirectoryServerConfig config = new InMemoryDirectoryServerConfig(BASE_DN);
+        config.setListenerConfigs(InMemoryListenerConfig.createLDAPConfig("ldap", 0));
+        // Standard schema, plus the Active Directory attributes read by processors
+        config.setSchema(Schema.mergeSchemas(Schema.getDefaultStandardSchema(), new Schema(new Entry("cn=schema",
+                new Attribute("attributeTypes",
+                        "( 1.2.840.113556.1.2.102 NAME 'memberOf' SYNTAX 1.3.6.1.4.1.1466.115.121.1.12 )",
+                        "( 1.2.840.113556.1.4.2 NAME 'objectGUID' SYNTAX 1.3.6.1.4.1.1466.115.121.1.40 SINGLE-VALUE )")))));
+        config.setEqualityIndexAttributes("uid");
+        server = new InMemoryDirectoryServer(config);
+
+        final Random random = new Random(seed);
+        final List<Entry> entries = new ArrayList<Entry>(userCount + groupCount + 3);
+        entries.add(new Entry(BASE_DN, new Attribute("objectClass", "top", "domain"), new Attribute("dc", "archigny")));
+        entries.add(new Entry(PEOPLE_DN, new Attribute("objectClass", "top", "organizationalUnit"), new Attribute("ou",
+                "people")));
+        entries.add(new Entry(GROUPS_DN, new Attribute("objectClass", "top", "organizationalUnit"), new Attribute("ou",
+                "groups")));
+        for (int i = 0; i < groupCount; i++) {
+            entries.add(new Entry("cn=group" + i + "," + GROUPS_DN, new Attribute("objectClass", "top", "groupOfNames"),
+                    new Attribute("cn", "group" + i)));
+        }
+        for (int i = 0; i < userCount; i++) {
+            final String uid = "user" + i;
+            final String[] groups = new String[Math.min(groupsPerUser, groupCount)];
+            for (int j = 0; j < groups.length; j++) {
+                groups[j] = "cn=group" + random.nextInt(groupCount) + "," + GROUPS_DN;
+            }
+            final byte[] guid = new byte[16];
+            random.nextBytes(guid);
+            final Entry entry = new Entry("uid=" + uid + "," + PEOPLE_DN, new Attribute("objectClass", "top", "person",
+                    "organizationalPerson", "inetOrgPerson", "extensibleObject"), new Attribute("uid", uid), new Attribute("cn", "User " + i),
+                    new Attribute("sn", "User"), new Attribute("givenName", "Number " + i), new Attribute("mail", uid
+                            + "@archigny.net"), new Attribute("employeeNumber", Integer.toString(100000 + i)),
+                    new Attribute("objectGUID", guid));
+            if (groups.length > 0) {
+                entry.addAttribute("memberOf", groups);
+            }
+            entries.add(entry);
+        }
+        server.addEntries(entries);
+    }
+
+    public void start() throws LDAPException {
+
+        server.startListening();
+    }
+
+    public void stop() {
+
+        server.shutDown(true);
+    }
+
+    /**
+     * @return URL of the listening server
+     */
+    public String getUrl() {
+
+        return "ldap://localhost:" + server.getListenPort();
+    }
+
+}
@@ -0,0 +1,218 @@
+package net.archigny.cas.persondir.load;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.archigny.cas.persondir.ldap.LatencyHistogram;
+import net.archigny.cas.persondir.ldap.LdapPersonAttributeDao;
+import net.archigny.cas.persondir.ldap.PersonAttributesCache;
+import net.archigny.cas.persondir.ldap.PooledContextSource;
+
+import org.springframework.ldap.core.support.LdapContextSource;
+
+/**
+ * End-to-end load harness : starts an embedded LDAP server seeded with synthetic users, then drives
+ * LdapPersonAttributeDao.getPerson from several threads and reports throughput and latency percentiles.<br />
+ * Options (all optional, <code>-name value</code>) :
+ * <ul>
+ * <li>users (10000), groups (500), groupsPerUser (20) : directory content</li>
+ * <li>threads (16), warmup (5) and duration (20) in seconds</li>
+ * <li>distribution (zipf or uniform), zipfExponent (1.0), unknownRatio (0.05) : uid popularity mix</li>
+ * <li>pool (true), poolSize (16) : use a PooledContextSource</li>
+ * <li>cache (false), cacheSize (10000), cacheTtl (300000 ms) : use a PersonAttributesCache</li>
+ * <li>lazy (none) : comma separated lazy attributes, eg : memberOf</li>
+ * </ul>
+ * Run with : <code>java -cp target/benchmarks.jar net.archigny.cas.persondir.load.LoadHarness -threads 32</code>
+ */
+public class LoadHarness {
+
+    private static final double[] PERCENTILES = { 0.5, 0.9, 0.95, 0.99, 0.999 };
+
+    private final Map<String, String> options;
+
+    public LoadHarness(final Map<String, String> options) {
+
+        this.options = options;
+    }
+
+    public static void main(final String[] args) throws Exception {
+
+        if (args.length % 2 != 0) {
+            throw new IllegalArgumentException("Options must be given as -name value pairs : " + Arrays.toString(args));
+        }
+        final Map<String, String> options = new HashMap<String, String>();
+        for (int i = 0; i < args.length; i += 2) {
+            options.put(args[i].replaceFirst("^-+", ""), args[i + 1]);
+        }
+        new LoadHarness(options).run();
+    }
+
+    private String option(final String name, final String defaultValue) {
+
+        final String value = options.get(name);
+        return (value == null ? defaultValue : value);
+    }
+
+    private int intOption(final String name, final int defaultValue) {
+
+        return Integer.parseInt(option(name, Integer.toString(defaultValue)));
+    }
+
+    private double doubleOption(final String name, final double defaultValue) {
+
+        return Double.parseDouble(option(name, Double.toString(defaultValue)));
+    }
+
+    private boolean booleanOption(final String name, final boolean defaultValue) {
+
+        return Boolean.parseBoolean(option(name, Boolean.toString(defaultValue)));
+    }
+
+    public void run() throws Exception {
+
+        final int users = intOption("users", 10000);
+        final int groups = intOption("groups", 500);
+        final int groupsPerUser = intOption("groupsPerUser", 20);
+        final int threads = intOption("threads", 16);
+        final int warmup = intOption("warmup", 5);
+        final int duration = intOption("duration", 20);
+        final UidGenerator.Distribution distribution = UidGenerator.Distribution.valueOf(option("distribution", "zipf")
+                .toUpperCase(Locale.ROOT));
+        final UidGenerator uids = new UidGenerator(users, distribution, doubleOption("zipfExponent", 1.0), doubleOption(
+                "unknownRatio", 0.05));
+
+        System.out.println("Seeding embedded directory with " + users + " users and " + groups + " groups...");
+        final EmbeddedDirectory directory = new EmbeddedDirectory(users, groups, groupsPerUser, 42);
+        directory.start();
+
+        final LdapContextSource contextSource = new LdapContextSource();
+        contextSource.setUrl(directory.getUrl());
+        contextSource.setAnonymousReadOnly(true);
+        contextSource.setPooled(false);
+        contextSource.afterPropertiesSet();
+
+        final LdapPersonAttributeDao dao = new LdapPersonAttributeDao();
+        PooledContextSource pool = null;
+        if (booleanOption("pool", true)) {
+            pool = new PooledContextSource();
+            pool.setContextSource(contextSource);
+            pool.setMaxActive(intOption("poolSize", 16));
+            pool.setMaxIdle(intOption("poolSize", 16));
+            pool.afterPropertiesSet();
+            dao.setContextSource(pool);
+        } else {
+            dao.setContextSource(contextSource);
+        }
+        dao.setBaseDN(EmbeddedDirectory.PEOPLE_DN);
+        dao.setQueriedAttributes(Arrays.asList("uid", "cn", "sn", "givenName", "mail", "employeeNumber", "memberOf",
+                "objectGUID"));
+        if (options.containsKey("lazy")) {
+            dao.setLazyAttributes(Arrays.asList(option("lazy", "").split(",")));
+        }
+        if (booleanOption("cache", false)) {
+            final PersonAttributesCache cache = new PersonAttributesCache();
+            cache.setMaxSize(intOption("cacheSize", 10000));
+            cache.setTimeToLive(intOption("cacheTtl", 300000));
+            cache.afterPropertiesSet();
+            dao.setCache(cache);
+        }
+        dao.afterPropertiesSet();
+
+        try {
+            System.out.println("Warming up for " + warmup + "s with " + threads + " threads...");
+            drive(dao, uids, threads, warmup);
+            dao.getStatistics().reset();
+            System.out.println("Measuring for " + duration + "s with " + threads + " threads (" + distribution + ", "
+                    + option("unknownRatio", "0.05") + " unknown)...");
+            final Result result = drive(dao, uids, threads, duration);
+            report(result, duration);
+            if (pool != null) {
+                System.out.println(pool);
+            }
+        } finally {
+            dao.destroy();
+            if (pool != null) {
+                pool.destroy();
+            }
+            directory.stop();
+        }
+    }
+
+    private static class Result {
+
+        private final LatencyHistogram latency = new LatencyHistogram("getPerson");
+
+        private final AtomicLong       found   = new AtomicLong();
+
+        private final AtomicLong       missing = new AtomicLong();
+
+        private final AtomicLong       errors  = new AtomicLong();
+    }
+
+    private Result drive(final LdapPersonAttributeDao dao, final UidGenerator uids, final int threads, final int seconds)
+            throws InterruptedException {
+
+        final Result result = new Result();
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        final CountDownLatch done = new CountDownLatch(threads);
+        final List<Thread> workers = new ArrayList<Thread>(threads);
+        for (int i = 0; i < threads; i++) {
+            final long seed = i;
+            final Thread worker = new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+
+                    final Random random = new Random(seed);
+                    try {
+                        while (System.nanoTime() < deadline) {
+                            final String uid = uids.next(random);
+                            final long start = System.nanoTime();
+                            try {
+                                if (dao.getPerson(uid) == null) {
+                                    result.missing.incrementAndGet();
+                                } else {
+                                    result.found.incrementAndGet();
+                                }
+                            } catch (RuntimeException e) {
+                                result.errors.incrementAndGet();
+                            }
+                            result.latency.record(System.nanoTime() - start);
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }, "load-" + i);
+            workers.add(worker);
+            worker.start();
+        }
+        done.await();
+        return result;
+    }
+
+    private static void report(final Result result, final int seconds) {
+
+        final long total = result.latency.getCount();
+        System.out.println(String.format(Locale.ROOT, "Lookups : %d (%d found, %d unknown, %d errors)", total,
+                result.found.get(), result.missing.get(), result.errors.get()));
+        System.out.println(String.format(Locale.ROOT, "Throughput : %.1f lookups/s", (double) total / seconds));
+        final StringBuilder sb = new StringBuilder("Latency (ms) : mean=");
+        sb.append(String.format(Locale.ROOT, "%.3f", result.latency.getMean() / 1e6));
+        for (final double percentile : PERCENTILES) {
+            sb.append(String.format(Locale.ROOT, " p%s=%.3f", Double.toString(percentile * 100).replaceFirst("\\.0$", ""),
+                    result.latency.getPercentile(percentile) / 1e6));
+        }
+        sb.append(String.format(Locale.ROOT, " max=%.3f", result.latency.getMax() / 1e6));
+        System.out.println(sb);
+    }
+
+}
@@ -0,0 +1,81 @@
+package net.archigny.cas.persondir.load;
+
+import java.util.Random;
+
+/**
+ * Picks the uid of each lookup, following a popularity mix : a fraction of lookups for unknown users, the others for
+ * existing users, drawn either uniformly or with a Zipf distribution (a few users account for most logins).
+ */
+public class UidGenerator {
+
+    public enum Distribution {
+        UNIFORM, ZIPF
+    }
+
+    private final int          userCount;
+
+    private final Distribution distribution;
+
+    private final double       unknownRatio;
+
+    /**
+     * Cumulative Zipf probabilities, by popularity rank (null if uniform)
+     */
+    private final double[]     zipfCdf;
+
+    public UidGenerator(final int userCount, final Distribution distribution, final double zipfExponent,
+            final double unknownRatio) {
+
+        if (userCount <= 0) {
+            throw new IllegalArgumentException("userCount must be greater than 0");
+        }
+        if ((unknownRatio < 0) || (unknownRatio > 1)) {
+            throw new IllegalArgumentException("unknownRatio must be in [0, 1]");
+        }
+        this.userCount = userCount;
+        this.distribution = distribution;
+        this.unknownRatio = unknownRatio;
+
+        if (distribution == Distribution.ZIPF) {
+            zipfCdf = new double[userCount];
+            double sum = 0;
+            for (int rank = 0; rank < userCount; rank++) {
+                sum += 1.0 / Math.pow(rank + 1, zipfExponent);
+                zipfCdf[rank] = sum;
+            }
+            for (int rank = 0; rank < userCount; rank++) {
+                zipfCdf[rank] /= sum;
+            }
+        } else {
+            zipfCdf = null;
+        }
+    }
+
+    /**
+     * @param random
+     *            random source of the calling thread
+     * @return uid to look up
+     */
+    public String next(final Random random) {
+
+        if ((unknownRatio > 0) && (random.nextDouble() < unknownRatio)) {
+            return "unknown" + random.nextInt(Integer.MAX_VALUE);
+        }
+        if (zipfCdf == null) {
+            return "user" + random.nextInt(userCount);
+        }
+        final double p = random.nextDouble();
+        int low = 0;
+        int high = userCount - 1;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (zipfCdf[middle] < p) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return "user" + low;
+    }
+
+}
@@ -0,0 +1,202 @@
+package net.archigny.cas.persondir.processors;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import net.archigny.cas.persondir.ldap.SyntheticEntries;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Attributes processors applied to a synthetic entry. Processors modify attributes in place, so each invocation works on a
+ * fresh copy : copyBaseline measures the cost of that copy alone.<br />
+ * Processors are grouped in states by parameter, so that each benchmark only runs over its own parameters.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProcessorsBenchmark {
+
+    /**
+     * Synthetic entry, processed by every benchmark
+     */
+    @State(Scope.Benchmark)
+    public static class Entry {
+
+        @Param({ "5", "20" })
+        private int                       attributeCount;
+
+        @Param({ "50", "500", "2000" })
+        private int                       memberOfCount;
+
+        private Map<String, List<Object>> attributes;
+
+        @Setup
+        public void setUp() {
+
+            attributes = SyntheticEntries.attributes(attributeCount, memberOfCount, 42);
+        }
+
+        private Object process(final IAttributesProcessor processor) {
+
+            final Map<String, List<Object>> copy = SyntheticEntries.copy(attributes);
+            processor.processAttributes(copy);
+            return copy;
+        }
+    }
+
+    /**
+     * Regular expression processors, with or without memoization of their results
+     */
+    @State(Scope.Benchmark)
+    public static class RegexProcessors {
+
+        @Param({ "0", "4096" })
+        private int               memoSize;
+
+        private RegexReplace      regexReplace;
+
+        private RegexValueReplace regexValueReplace;
+
+        private RegexValueDelete  regexValueDelete;
+
+        @Setup
+        public void setUp() throws Exception {
+
+            // Strip the groups branch from every memberOf value
+            regexReplace = new RegexReplace();
+            regexReplace.setKeyMatch("^memberOf$");
+            regexReplace.setValueMatch(",ou=groups,dc=archigny,dc=net$");
+            regexReplace.setValueReplace("");
+            regexReplace.setMemoSize(memoSize);
+            regexReplace.afterPropertiesSet();
+
+            // Keep only the group name
+            regexValueReplace = new RegexValueReplace();
+            regexValueReplace.setKey(SyntheticEntries.MEMBER_OF);
+            regexValueReplace.setValueMatch("^cn=([^,]+),.*$");
+            regexValueReplace.setValueReplace("$1");
+            regexValueReplace.setCaseSensitive(false);
+            regexValueReplace.setMemoSize(memoSize);
+            regexValueReplace.afterPropertiesSet();
+
+            // Drop mailing lists
+            regexValueDelete = new RegexValueDelete();
+            regexValueDelete.setKey(SyntheticEntries.MEMBER_OF);
+            regexValueDelete.setValueMatch("^cn=list-");
+            regexValueDelete.setMemoSize(memoSize);
+            regexValueDelete.afterPropertiesSet();
+        }
+    }
+
+    /**
+     * Dispatch of groups by prefix, over a growing number of prefixes
+     */
+    @State(Scope.Benchmark)
+    public static class PrefixProcessor {
+
+        @Param({ "3", "200" })
+        private int                       prefixCount;
+
+        private AttributeValueToAttribute attributeValueToAttribute;
+
+        @Setup
+        public void setUp() throws Exception {
+
+            final Map<String, String> prefixes = new HashMap<String, String>();
+            prefixes.put("cn=app-", "applications");
+            prefixes.put("cn=role-", "roles");
+            prefixes.put("cn=staff-", "staff");
+            for (int i = prefixes.size(); i < prefixCount; i++) {
+                prefixes.put("cn=dept" + i + "-", "departments");
+            }
+            attributeValueToAttribute = new AttributeValueToAttribute();
+            attributeValueToAttribute.setAttributeName(SyntheticEntries.MEMBER_OF);
+            attributeValueToAttribute.setPrefixToAttributeName(prefixes);
+            attributeValueToAttribute.afterPropertiesSet();
+        }
+    }
+
+    /**
+     * Processors without parameters
+     */
+    @State(Scope.Benchmark)
+    public static class PlainProcessors {
+
+        private DnComponentExtractor        dnComponentExtractor;
+
+        private UuidBinaryToStringProcessor uuidBinaryToString;
+
+        @Setup
+        public void setUp() throws Exception {
+
+            // Keep only the group name, without regular expressions
+            dnComponentExtractor = new DnComponentExtractor();
+            dnComponentExtractor.setKey(SyntheticEntries.MEMBER_OF);
+            dnComponentExtractor.setRdnType("cn");
+            dnComponentExtractor.afterPropertiesSet();
+
+            uuidBinaryToString = new UuidBinaryToStringProcessor();
+            uuidBinaryToString.setSourceAttribute(SyntheticEntries.OBJECT_GUID);
+            uuidBinaryToString.setTargetAttribute("guid");
+            uuidBinaryToString.afterPropertiesSet();
+        }
+    }
+
+    @Benchmark
+    public Object copyBaseline(final Entry entry) {
+
+        return SyntheticEntries.copy(entry.attributes);
+    }
+
+    @Benchmark
+    public Object regexReplace(final Entry entry, final RegexProcessors processors) {
+
+        return entry.process(processors.regexReplace);
+    }
+
+    @Benchmark
+    public Object regexValueReplace(final Entry entry, final RegexProcessors processors) {
+
+        return entry.process(processors.regexValueReplace);
+    }
+
+    @Benchmark
+    public Object regexValueDelete(final Entry entry, final RegexProcessors processors) {
+
+        return entry.process(processors.regexValueDelete);
+    }
+
+    @Benchmark
+    public Object dnComponentExtractor(final Entry entry, final PlainProcessors processors) {
+
+        return entry.process(processors.dnComponentExtractor);
+    }
+
+    @Benchmark
+    public Object attributeValueToAttribute(final Entry entry, final PrefixProcessor processor) {
+
+        return entry.process(processor.attributeValueToAttribute);
+    }
+
+    @Benchmark
+    public Object uuidBinaryToString(final Entry entry, final PlainProcessors processors) {
+
+        return entry.process(processors.uuidBinaryToString);
+    }
+
+}
@@ -0,0 +1,102 @@
+package net.archigny.cas.persondir.ldap;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Ordered set of the attribute names a DAO may return, each name owning a slot position. Shared by every
+ * CompactPersonAttributes built by the same DAO, so that entries only store their values. Names are compared ignoring case.
+ */
+public final class AttributeSchema implements Serializable {
+
+    private static final long serialVersionUID = 4671520918473308129L;
+
+    /**
+     * Attribute names, in slot order
+     */
+    private final String[]    names;
+
+    /**
+     * Open addressing table : slot + 1, 0 for an empty entry. Its length is a power of two, at least twice the number of names.
+     */
+    private final int[]       table;
+
+    /**
+     * @param attributeNames
+     *            attribute names. Names only differing by case share the same slot, the first one naming it.
+     */
+    public AttributeSchema(final Collection<String> attributeNames) {
+
+        final String[] uniqueNames = new String[attributeNames.size()];
+        int count = 0;
+        table = new int[Math.max(Integer.highestOneBit(Math.max(attributeNames.size(), 1) * 2 - 1) << 1, 4)];
+        for (final String name : attributeNames) {
+            if (name == null) {
+                throw new IllegalArgumentException("Attribute names cannot be null");
+            }
+            if (lookup(name, uniqueNames) < 0) {
+                uniqueNames[count++] = name;
+                final int mask = table.length - 1;
+                int index = CaseInsensitiveAttributeMap.foldedHash(name) & mask;
+                while (table[index] != 0) {
+                    index = (index + 1) & mask;
+                }
+                table[index] = count;
+            }
+        }
+        names = Arrays.copyOf(uniqueNames, count);
+    }
+
+    private int lookup(final String name, final String[] slotNames) {
+
+        final int mask = table.length - 1;
+        int index = CaseInsensitiveAttributeMap.foldedHash(name) & mask;
+        int slot;
+        while ((slot = table[index]) != 0) {
+            if (slotNames[slot - 1].equalsIgnoreCase(name)) {
+                return slot - 1;
+            }
+            index = (index + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * @param name
+     *            attribute name, in any case
+     * @return slot of the attribute, or -1 if it is not part of the schema
+     */
+    public int indexOf(final String name) {
+
+        if (name == null) {
+            return -1;
+        }
+        return lookup(name, names);
+    }
+
+    /**
+     * @return number of slots
+     */
+    public int size() {
+
+        return names.length;
+    }
+
+    /**
+     * @param slot
+     *            slot position
+     * @return name of the attribute stored in the slot
+     */
+    public String getName(final int slot) {
+
+        return names[slot];
+    }
+
+    @Override
+    public String toString() {
+
+        return "AttributeSchema " + Arrays.toString(names);
+    }
+
+}
@@ -0,0 +1,423 @@
+package net.archigny.cas.persondir.ldap;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Attribute map whose keys are compared ignoring case, as LDAP attribute names are : <code>get("MemberOf")</code> finds the
+ * values stored under <code>memberOf</code>. Keys keep the case they were first stored with, and are iterated in insertion
+ * order.<br />
+ * Entries live in parallel arrays (keys, values, case folded hashes), and an open addressing table (linear probing) holds
+ * entry positions : no node object is allocated per attribute, and a lookup costs a hash computed without building a lower
+ * case copy of the key. Removed entries leave a hole, reclaimed when the arrays grow.<br />
+ * Null keys are not supported. Like HashMap, this class is not thread safe.
+ */
+public class CaseInsensitiveAttributeMap extends AbstractMap<String, List<Object>> implements Serializable {
+
+    private static final long             serialVersionUID = -3425938611420564171L;
+
+    private static final int              DEFAULT_CAPACITY = 8;
+
+    /**
+     * Keys, in insertion order (null for removed entries)
+     */
+    private String[]                      keys;
+
+    /**
+     * Values, at the same position as their key
+     */
+    private Object[]                      values;
+
+    /**
+     * Case folded hash of each key
+     */
+    private int[]                         hashes;
+
+    /**
+     * Open addressing table : position of an entry + 1, 0 for an empty slot. Its length is a power of two, at least twice the
+     * length of entry arrays.
+     */
+    private int[]                         table;
+
+    /**
+     * Number of used entry positions (including holes left by removals)
+     */
+    private int                           used;
+
+    private int                           size;
+
+    /**
+     * Incremented on each structural change, to detect concurrent modifications while iterating
+     */
+    private transient int                 modCount;
+
+    private transient EntrySet            entrySet;
+
+    public CaseInsensitiveAttributeMap() {
+
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param expectedSize
+     *            number of attributes expected, the map grows beyond it if needed
+     */
+    public CaseInsensitiveAttributeMap(final int expectedSize) {
+
+        if (expectedSize < 0) {
+            throw new IllegalArgumentException("expectedSize cannot be negative");
+        }
+        allocate(Math.max(expectedSize, 2));
+    }
+
+    /**
+     * @param attributes
+     *            attributes to copy. If several keys only differ by case, the last one iterated wins.
+     */
+    public CaseInsensitiveAttributeMap(final Map<String, List<Object>> attributes) {
+
+        this(attributes.size());
+        putAll(attributes);
+    }
+
+    private void allocate(final int capacity) {
+
+        keys = new String[capacity];
+        values = new Object[capacity];
+        hashes = new int[capacity];
+        int tableLength = Integer.highestOneBit(capacity * 2 - 1) << 1;
+        table = new int[Math.max(tableLength, 4)];
+    }
+
+    /**
+     * Hash of a key, ignoring case. Characters are folded as String.equalsIgnoreCase does, so that keys equal ignoring case
+     * always share the same hash.
+     *
+     * @param key
+     *            attribute name
+     * @return case folded hash
+     */
+    static int foldedHash(final String key) {
+
+        int h = 0;
+        final int length = key.length();
+        for (int i = 0; i < length; i++) {
+            h = 31 * h + Character.toLowerCase(Character.toUpperCase(key.charAt(i)));
+        }
+        // Spread high bits, as table index only uses low bits
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * @return position of the key in entry arrays, or -1
+     */
+    private int indexOf(final Object key) {
+
+        if (!(key instanceof String)) {
+            return -1;
+        }
+        final String name = (String) key;
+        final int hash = foldedHash(name);
+        final int mask = table.length - 1;
+        int slot = hash & mask;
+        int position;
+        while ((position = table[slot]) != 0) {
+            position--;
+            final String candidate = keys[position];
+            if ((candidate != null) && (hashes[position] == hash)
+                    && ((candidate == name) || candidate.equalsIgnoreCase(name))) {
+                return position;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void insert(final int position, final int hash) {
+
+        final int mask = table.length - 1;
+        int slot = hash & mask;
+        while (table[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = position + 1;
+    }
+
+    /**
+     * Rebuild arrays, dropping holes left by removals, and doubling capacity if the map is more than half full
+     */
+    private void rebuild() {
+
+        final String[] oldKeys = keys;
+        final Object[] oldValues = values;
+        final int[] oldHashes = hashes;
+        final int oldUsed = used;
+
+        allocate(size * 2 > oldKeys.length ? oldKeys.length * 2 : oldKeys.length);
+        int position = 0;
+        for (int i = 0; i < oldUsed; i++) {
+            if (oldKeys[i] != null) {
+                keys[position] = oldKeys[i];
+                values[position] = oldValues[i];
+                hashes[position] = oldHashes[i];
+                insert(position, oldHashes[i]);
+                position++;
+            }
+        }
+        used = position;
+    }
+
+    /**
+     * Find the key as stored in the map
+     *
+     * @param key
+     *            attribute name, in any case
+     * @return attribute name with the case it was stored with, or null if absent
+     */
+    public String getStoredKey(final String key) {
+
+        final int position = indexOf(key);
+        return (position < 0 ? null : keys[position]);
+    }
+
+    @Override
+    public int size() {
+
+        return size;
+    }
+
+    @Override
+    public boolean containsKey(final Object key) {
+
+        return indexOf(key) >= 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public List<Object> get(final Object key) {
+
+        final int position = indexOf(key);
+        return (position < 0 ? null : (List<Object>) values[position]);
+    }
+
+    /**
+     * Store values under an attribute name. If the attribute is already present with another case, its values are replaced but
+     * its name keeps its original case.
+     */
+    @SuppressWarnings("unchecked")
+    @Override
+    public List<Object> put(final String key, final List<Object> value) {
+
+        if (key == null) {
+            throw new NullPointerException("key cannot be null");
+        }
+        final int position = indexOf(key);
+        if (position >= 0) {
+            final List<Object> previous = (List<Object>) values[position];
+            values[position] = value;
+            return previous;
+        }
+        if (used == keys.length) {
+            rebuild();
+        }
+        final int hash = foldedHash(key);
+        keys[used] = key;
+        values[used] = value;
+        hashes[used] = hash;
+        insert(used, hash);
+        used++;
+        size++;
+        modCount++;
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public List<Object> remove(final Object key) {
+
+        final int position = indexOf(key);
+        if (position < 0) {
+            return null;
+        }
+        final List<Object> previous = (List<Object>) values[position];
+        removeAt(position);
+        return previous;
+    }
+
+    /**
+     * Remove an entry. Its table slot is kept, pointing to a null key, so that probe sequences going through it stay intact.
+     */
+    private void removeAt(final int position) {
+
+        keys[position] = null;
+        values[position] = null;
+        size--;
+        modCount++;
+    }
+
+    @Override
+    public void clear() {
+
+        allocate(keys.length);
+        used = 0;
+        size = 0;
+        modCount++;
+    }
+
+    @Override
+    public Set<Map.Entry<String, List<Object>>> entrySet() {
+
+        if (entrySet == null) {
+            entrySet = new EntrySet();
+        }
+        return entrySet;
+    }
+
+    private final class EntrySet extends AbstractSet<Map.Entry<String, List<Object>>> {
+
+        @Override
+        public Iterator<Map.Entry<String, List<Object>>> iterator() {
+
+            return new EntryIterator();
+        }
+
+        @Override
+        public int size() {
+
+            return size;
+        }
+
+        @Override
+        public void clear() {
+
+            CaseInsensitiveAttributeMap.this.clear();
+        }
+
+    }
+
+    private final class EntryIterator implements Iterator<Map.Entry<String, List<Object>>> {
+
+        private int next = advance(0);
+
+        private int current = -1;
+
+        private int expectedModCount = modCount;
+
+        private int advance(int position) {
+
+            while ((position < used) && (keys[position] == null)) {
+                position++;
+            }
+            return position;
+        }
+
+        @Override
+        public boolean hasNext() {
+
+            return next < used;
+        }
+
+        @Override
+        public Map.Entry<String, List<Object>> next() {
+
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (next >= used) {
+                throw new NoSuchElementException();
+            }
+            current = next;
+            next = advance(next + 1);
+            return new Entry(current);
+        }
+
+        @Override
+        public void remove() {
+
+            if (current < 0) {
+                throw new IllegalStateException();
+            }
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            removeAt(current);
+            current = -1;
+            expectedModCount = modCount;
+        }
+
+    }
+
+    /**
+     * Entry view, reading and writing through to the map arrays
+     */
+    private final class Entry implements Map.Entry<String, List<Object>> {
+
+        private final int    position;
+
+        private final String key;
+
+        public Entry(final int position) {
+
+            this.position = position;
+            this.key = keys[position];
+        }
+
+        @Override
+        public String getKey() {
+
+            return key;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public List<Object> getValue() {
+
+            return (List<Object>) values[position];
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public List<Object> setValue(final List<Object> value) {
+
+            if (keys[position] != key) {
+                throw new IllegalStateException("Entry was removed");
+            }
+            final List<Object> previous = (List<Object>) values[position];
+            values[position] = value;
+            return previous;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            final Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+            final Object value = getValue();
+            return key.equals(e.getKey()) && (value == null ? e.getValue() == null : value.equals(e.getValue()));
+        }
+
+        @Override
+        public int hashCode() {
+
+            final Object value = getValue();
+            return key.hashCode() ^ (value == null ? 0 : value.hashCode());
+        }
+
+        @Override
+        public String toString() {
+
+            return key + "=" + getValue();
+        }
+
+    }
+
+}
@@ -0,0 +1,192 @@
+package net.archigny.cas.persondir.ldap;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Circuit breaker protecting callers from a failing directory.<br />
+ * The breaker opens after failureThreshold consecutive failures (an operation slower than slowCallThreshold counts as a
+ * failure). While open, operations are refused without reaching the directory. Once openDuration has elapsed, a single probe
+ * operation is let through (half-open state) : the breaker closes if it succeeds, and opens again otherwise.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    /**
+     * Number of consecutive failures opening the breaker
+     */
+    private int              failureThreshold   = 5;
+
+    /**
+     * Duration over which a successful operation counts as a failure, in milliseconds (0 to disable)
+     */
+    private long             slowCallThreshold  = 0;
+
+    /**
+     * Time the breaker stays open before a probe is let through, in milliseconds
+     */
+    private long             openDuration       = 30000;
+
+    private volatile State   state              = State.CLOSED;
+
+    /**
+     * Consecutive failures, guarded by this
+     */
+    private int              consecutiveFailures;
+
+    /**
+     * Time the breaker was opened, in milliseconds, guarded by this
+     */
+    private long             openedAt;
+
+    private final AtomicLong rejectedCount      = new AtomicLong();
+
+    private final AtomicLong openCount          = new AtomicLong();
+
+    /**
+     * Ask the breaker whether an operation may be run. When true is returned, the caller must report the outcome by calling
+     * onSuccess, onFailure or onCancel.
+     *
+     * @return true if the operation may reach the directory
+     */
+    public boolean allowRequest() {
+
+        if (state == State.CLOSED) {
+            return true;
+        }
+        synchronized (this) {
+            if ((state == State.OPEN) && (currentTimeMillis() - openedAt >= openDuration)) {
+                state = State.HALF_OPEN;
+                return true;
+            }
+            if (state == State.CLOSED) {
+                return true;
+            }
+        }
+        rejectedCount.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Report a successful operation. While the breaker is not closed, only a success of the half-open probe counts.
+     *
+     * @param elapsedNanos
+     *            duration of the operation, in nanoseconds
+     */
+    public void onSuccess(final long elapsedNanos) {
+
+        if ((slowCallThreshold > 0) && (elapsedNanos >= TimeUnit.MILLISECONDS.toNanos(slowCallThreshold))) {
+            onFailure();
+            return;
+        }
+        synchronized (this) {
+            if (state == State.CLOSED) {
+                consecutiveFailures = 0;
+            } else if ((state == State.HALF_OPEN)
+                    && (currentTimeMillis() - TimeUnit.NANOSECONDS.toMillis(elapsedNanos) >= openedAt)) {
+                // Only the probe closes the breaker, not an operation started before it opened
+                consecutiveFailures = 0;
+                state = State.CLOSED;
+            }
+        }
+    }
+
+    /**
+     * Report a failed operation
+     */
+    public synchronized void onFailure() {
+
+        consecutiveFailures++;
+        if ((state == State.HALF_OPEN) || ((state == State.CLOSED) && (consecutiveFailures >= failureThreshold))) {
+            state = State.OPEN;
+            openedAt = currentTimeMillis();
+            openCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Report an operation abandoned before its outcome was known (eg : the slower lookup of a hedged pair). It counts neither as
+     * a success nor as a failure, an abandoned probe lets another probe through.
+     */
+    public synchronized void onCancel() {
+
+        if (state == State.HALF_OPEN) {
+            state = State.OPEN;
+            openedAt = currentTimeMillis() - openDuration;
+        }
+    }
+
+    /**
+     * Time source, overridden by tests
+     *
+     * @return current time, in milliseconds
+     */
+    protected long currentTimeMillis() {
+
+        return System.currentTimeMillis();
+    }
+
+    public State getState() {
+
+        return state;
+    }
+
+    /**
+     * @return number of operations refused while the breaker was open
+     */
+    public long getRejectedCount() {
+
+        return rejectedCount.get();
+    }
+
+    /**
+     * @return number of times the breaker opened
+     */
+    public long getOpenCount() {
+
+        return openCount.get();
+    }
+
+    public int getFailureThreshold() {
+
+        return failureThreshold;
+    }
+
+    public void setFailureThreshold(final int failureThreshold) {
+
+        if (failureThreshold <= 0) {
+            throw new IllegalArgumentException("failureThreshold must be greater than 0");
+        }
+        this.failureThreshold = failureThreshold;
+    }
+
+    public long getSlowCallThreshold() {
+
+        return slowCallThreshold;
+    }
+
+    public void setSlowCallThreshold(final long slowCallThreshold) {
+
+        if (slowCallThreshold < 0) {
+            throw new IllegalArgumentException("slowCallThreshold cannot be negative");
+        }
+        this.slowCallThreshold = slowCallThreshold;
+    }
+
+    public long getOpenDuration() {
+
+        return openDuration;
+    }
+
+    public void setOpenDuration(final long openDuration) {
+
+        if (openDuration < 0) {
+            throw new IllegalArgumentException("openDuration cannot be negative");
+        }
+        this.openDuration = openDuration;
+    }
+
+}
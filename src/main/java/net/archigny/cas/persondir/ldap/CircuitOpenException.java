@@ -0,0 +1,17 @@
+package net.archigny.cas.persondir.ldap;
+
+import org.springframework.ldap.UncategorizedLdapException;
+
+/**
+ * Thrown when a directory operation is refused because the circuit breaker is open
+ */
+public class CircuitOpenException extends UncategorizedLdapException {
+
+    private static final long serialVersionUID = 1L;
+
+    public CircuitOpenException(final String msg) {
+
+        super(msg);
+    }
+
+}
@@ -0,0 +1,283 @@
+package net.archigny.cas.persondir.ldap;
+
+import java.io.ObjectStreamException;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Immutable person attributes, built once processing is over. Values are stored in a slot array laid out by an
+ * AttributeSchema shared by every entry of a DAO, each value list being frozen in a compact immutable list. Attributes unknown
+ * to the schema (eg : renamed by a processor) are kept in a small overflow array.<br />
+ * Compared to a locked PersonAttributesImpl, an entry holds neither a HashMap nor its nodes nor unmodifiable wrappers, and
+ * lock() has nothing left to do. Attribute names are compared ignoring case.
+ */
+public final class CompactPersonAttributes implements ILockablePersonAttributes {
+
+    private static final long     serialVersionUID = -2263409316578417712L;
+
+    private static final Object[] NO_EXTRA         = new Object[0];
+
+    private final String          name;
+
+    private final AttributeSchema schema;
+
+    /**
+     * Frozen values of each schema attribute (null if absent)
+     */
+    private final Object[]        slots;
+
+    /**
+     * Attributes outside of the schema : names at even positions, frozen values at odd positions
+     */
+    private final Object[]        extra;
+
+    private final int             size;
+
+    /**
+     * True if some attribute holds lazy values, whose attribute may be absent from the entry
+     */
+    private final boolean         lazy;
+
+    private CompactPersonAttributes(final String name, final AttributeSchema schema, final Object[] slots,
+            final Object[] extra, final int size, final boolean lazy) {
+
+        this.name = name;
+        this.schema = schema;
+        this.slots = slots;
+        this.extra = extra;
+        this.size = size;
+        this.lazy = lazy;
+    }
+
+    /**
+     * Freeze processed attributes, in one pass
+     *
+     * @param name
+     *            name of the person (uid)
+     * @param schema
+     *            schema of the DAO
+     * @param attributes
+     *            processed attributes. Attributes with a null value are dropped.
+     * @return locked attributes
+     */
+    public static CompactPersonAttributes freeze(final String name, final AttributeSchema schema,
+            final Map<String, List<Object>> attributes) {
+
+        final Object[] slots = new Object[schema.size()];
+        Object[] extra = NO_EXTRA;
+        int extraCount = 0;
+        int size = 0;
+        boolean lazy = false;
+        for (final Map.Entry<String, List<Object>> attribute : attributes.entrySet()) {
+            final List<Object> values = FrozenValueList.freeze(attribute.getValue());
+            if (values == null) {
+                continue;
+            }
+            lazy |= (values instanceof LazyValueList);
+            final int slot = schema.indexOf(attribute.getKey());
+            if ((slot >= 0) && (slots[slot] == null)) {
+                slots[slot] = values;
+            } else {
+                if (extra.length == extraCount * 2) {
+                    final Object[] grown = new Object[extraCount * 2 + 4];
+                    System.arraycopy(extra, 0, grown, 0, extraCount * 2);
+                    extra = grown;
+                }
+                extra[extraCount * 2] = attribute.getKey();
+                extra[extraCount * 2 + 1] = values;
+                extraCount++;
+            }
+            size++;
+        }
+        if (extra.length > extraCount * 2) {
+            final Object[] trimmed = new Object[extraCount * 2];
+            System.arraycopy(extra, 0, trimmed, 0, extraCount * 2);
+            extra = trimmed;
+        }
+        return new CompactPersonAttributes(name, schema, slots, extra, size, lazy);
+    }
+
+    /**
+     * Serialized without absent lazy attributes, lazy values being loaded
+     */
+    private Object writeReplace() throws ObjectStreamException {
+
+        if (!lazy) {
+            return this;
+        }
+        final Map<String, List<Object>> loaded = new CaseInsensitiveAttributeMap(size);
+        for (final Map.Entry<String, List<Object>> attribute : getAttributes().entrySet()) {
+            final List<Object> values = attribute.getValue();
+            loaded.put(attribute.getKey(), (values instanceof LazyValueList ? new ArrayList<Object>(values) : values));
+        }
+        return freeze(name, schema, loaded);
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Object> lookup(final Object attributeName) {
+
+        if (!(attributeName instanceof String)) {
+            return null;
+        }
+        final String key = (String) attributeName;
+        final int slot = schema.indexOf(key);
+        if ((slot >= 0) && (slots[slot] != null)) {
+            return (List<Object>) slots[slot];
+        }
+        for (int i = 0; i < extra.length; i += 2) {
+            if (key.equalsIgnoreCase((String) extra[i])) {
+                return (List<Object>) extra[i + 1];
+            }
+        }
+        return null;
+    }
+
+    // Implementation of ILockablePersonAttributes
+
+    /**
+     * Already immutable : nothing to do
+     */
+    @Override
+    public void lock() {
+
+    }
+
+    @Override
+    public boolean isLocked() {
+
+        return true;
+    }
+
+    @Override
+    public String getName() {
+
+        return name;
+    }
+
+    /**
+     * @return read only view of the attributes, without lazy attributes absent from the entry
+     */
+    @Override
+    public Map<String, List<Object>> getAttributes() {
+
+        return (lazy ? new LazyAttributesView(new AttributesView()) : new AttributesView());
+    }
+
+    @Override
+    public Object getAttributeValue(final String name) {
+
+        final List<Object> values = lookup(name);
+        if ((values != null) && (values.size() > 0)) {
+            return values.get(0);
+        }
+        return null;
+    }
+
+    @Override
+    public List<Object> getAttributeValues(final String name) {
+
+        final List<Object> values = lookup(name);
+        return (LazyAttributesView.isAbsent(values) ? null : values);
+    }
+
+    @Override
+    public String toString() {
+
+        return "PersonAttributes [name=" + name + ", attributes=" + getAttributes() + "]";
+    }
+
+    /**
+     * Read only map view over slots and overflow attributes
+     */
+    private final class AttributesView extends AbstractMap<String, List<Object>> {
+
+        @Override
+        public List<Object> get(final Object key) {
+
+            return lookup(key);
+        }
+
+        @Override
+        public boolean containsKey(final Object key) {
+
+            return lookup(key) != null;
+        }
+
+        @Override
+        public int size() {
+
+            return size;
+        }
+
+        @Override
+        public Set<Map.Entry<String, List<Object>>> entrySet() {
+
+            return new AbstractSet<Map.Entry<String, List<Object>>>() {
+
+                @Override
+                public Iterator<Map.Entry<String, List<Object>>> iterator() {
+
+                    return new EntryIterator();
+                }
+
+                @Override
+                public int size() {
+
+                    return size;
+                }
+            };
+        }
+
+    }
+
+    /**
+     * Iterates over filled slots, then over overflow attributes
+     */
+    private final class EntryIterator implements Iterator<Map.Entry<String, List<Object>>> {
+
+        private int position = -1;
+
+        private int returned = 0;
+
+        @Override
+        public boolean hasNext() {
+
+            return returned < size;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public Map.Entry<String, List<Object>> next() {
+
+            if (returned >= size) {
+                throw new NoSuchElementException();
+            }
+            returned++;
+            position++;
+            while ((position < slots.length) && (slots[position] == null)) {
+                position++;
+            }
+            if (position < slots.length) {
+                return new AbstractMap.SimpleImmutableEntry<String, List<Object>>(schema.getName(position),
+                        (List<Object>) slots[position]);
+            }
+            final int extraIndex = (position - slots.length) * 2;
+            return new AbstractMap.SimpleImmutableEntry<String, List<Object>>((String) extra[extraIndex],
+                    (List<Object>) extra[extraIndex + 1]);
+        }
+
+        @Override
+        public void remove() {
+
+            throw new UnsupportedOperationException("Attributes are locked");
+        }
+
+    }
+
+}
@@ -0,0 +1,51 @@
+package net.archigny.cas.persondir.ldap;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Future of an already known value, such as a cache hit
+ *
+ * @param <V>
+ *            type of the value
+ */
+final class CompletedFuture<V> implements Future<V> {
+
+    private final V value;
+
+    CompletedFuture(final V value) {
+
+        this.value = value;
+    }
+
+    @Override
+    public boolean cancel(final boolean mayInterruptIfRunning) {
+
+        return false;
+    }
+
+    @Override
+    public boolean isCancelled() {
+
+        return false;
+    }
+
+    @Override
+    public boolean isDone() {
+
+        return true;
+    }
+
+    @Override
+    public V get() {
+
+        return value;
+    }
+
+    @Override
+    public V get(final long timeout, final TimeUnit unit) {
+
+        return value;
+    }
+
+}
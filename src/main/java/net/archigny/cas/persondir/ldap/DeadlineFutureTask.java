@@ -0,0 +1,89 @@
+package net.archigny.cas.persondir.ldap;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * FutureTask which can be expired : once its deadline is reached, the task completes with a TimeoutException and the thread
+ * running it (if any) is interrupted so that the underlying operation is abandoned.
+ *
+ * @param <V>
+ *            type of the result
+ */
+public class DeadlineFutureTask<V> extends FutureTask<V> {
+
+    private final String       description;
+
+    /**
+     * Thread currently running the task, guarded by this
+     */
+    private Thread             runner;
+
+    /**
+     * Timer task which expires this task, cancelled as soon as this task completes
+     */
+    private volatile Future<?> expiration;
+
+    public DeadlineFutureTask(final Callable<V> callable, final String description) {
+
+        super(callable);
+        this.description = description;
+    }
+
+    @Override
+    public void run() {
+
+        synchronized (this) {
+            runner = Thread.currentThread();
+        }
+        try {
+            super.run();
+        } finally {
+            synchronized (this) {
+                runner = null;
+            }
+            // Clear a possible interrupt sent by expire, so that it does not leak to the next task of the pool thread
+            Thread.interrupted();
+        }
+    }
+
+    /**
+     * Complete the task with a TimeoutException, and interrupt the thread running it
+     */
+    public void expire() {
+
+        if (isDone()) {
+            return;
+        }
+        setException(new TimeoutException("Deadline reached for " + description));
+        synchronized (this) {
+            if (runner != null) {
+                runner.interrupt();
+            }
+        }
+    }
+
+    /**
+     * @param expiration
+     *            timer task expiring this task, cancelled when this task completes
+     */
+    public void setExpiration(final Future<?> expiration) {
+
+        this.expiration = expiration;
+        if (isDone()) {
+            expiration.cancel(false);
+        }
+    }
+
+    @Override
+    protected void done() {
+
+        final Future<?> currentExpiration = expiration;
+        if (currentExpiration != null) {
+            currentExpiration.cancel(false);
+        }
+    }
+
+}
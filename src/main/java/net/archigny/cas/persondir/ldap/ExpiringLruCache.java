@@ -0,0 +1,301 @@
+package net.archigny.cas.persondir.ldap;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.BeanCreationException;
+import org.springframework.beans.factory.InitializingBean;
+
+/**
+ * Size bounded, TTL based cache keyed by uid, base of the caches used by LdapPersonAttributeDao.<br />
+ * The cache is split in segments, each one being a LRU map guarded by its own lock, so concurrent lookups on different keys
+ * rarely contend. Segment capacities add up to maxSize : as keys are spread by hash, a segment may evict entries while the
+ * whole cache holds fewer than maxSize entries, but the cache never holds more.
+ *
+ * @param <V>
+ *            type of cached values
+ */
+public abstract class ExpiringLruCache<V> implements InitializingBean {
+
+    private final Logger     log              = LoggerFactory.getLogger(getClass());
+
+    /**
+     * Maximum number of entries kept in the cache
+     */
+    private int              maxSize          = 10000;
+
+    /**
+     * Default time to live of entries, in milliseconds
+     */
+    private long             timeToLive       = 300000;
+
+    /**
+     * Number of lock stripes, rounded up to a power of two
+     */
+    private int              concurrencyLevel = 16;
+
+    /**
+     * Segments of the cache, created by afterPropertiesSet
+     */
+    private Segment<V>[]     segments;
+
+    /**
+     * Mask used to select a segment from a key hash
+     */
+    private int              segmentMask;
+
+    private final AtomicLong hitCount         = new AtomicLong();
+
+    private final AtomicLong missCount        = new AtomicLong();
+
+    private final AtomicLong evictionCount    = new AtomicLong();
+
+    private final AtomicLong expirationCount  = new AtomicLong();
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+
+        if (maxSize <= 0) {
+            throw new BeanCreationException("maxSize must be greater than 0");
+        }
+        if (timeToLive <= 0) {
+            throw new BeanCreationException("timeToLive must be greater than 0");
+        }
+        if (concurrencyLevel <= 0) {
+            throw new BeanCreationException("concurrencyLevel must be greater than 0");
+        }
+
+        int segmentCount = 1;
+        while (segmentCount < concurrencyLevel && segmentCount < maxSize) {
+            segmentCount <<= 1;
+        }
+        // The remainder of maxSize is spread over the first segments, so that capacities add up to maxSize
+        final int segmentSize = maxSize / segmentCount;
+        final int remainder = maxSize % segmentCount;
+
+        @SuppressWarnings("unchecked")
+        final Segment<V>[] newSegments = (Segment<V>[]) new Segment<?>[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            newSegments[i] = new Segment<V>(i < remainder ? segmentSize + 1 : segmentSize, evictionCount);
+        }
+        segmentMask = segmentCount - 1;
+        segments = newSegments;
+
+        log.debug("Cache configured : {} segments of {} to {} entries, ttl {} ms", new Object[] { segmentCount, segmentSize,
+                (remainder == 0 ? segmentSize : segmentSize + 1), timeToLive });
+    }
+
+    /**
+     * Look up a key in the cache.
+     *
+     * @param key
+     *            key of the value
+     * @return the cached value, or null if key is not cached (or entry expired)
+     */
+    protected V getValue(final String key) {
+
+        final Segment<V> segment = segmentFor(key);
+        final long now = currentTimeMillis();
+        synchronized (segment) {
+            final Node<V> node = segment.get(key);
+            if (node != null) {
+                if (node.expiresAt > now) {
+                    hitCount.incrementAndGet();
+                    return node.value;
+                }
+                segment.remove(key);
+                expirationCount.incrementAndGet();
+            }
+        }
+        missCount.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Store a value in the cache.
+     *
+     * @param key
+     *            key of the value
+     * @param value
+     *            value to store (not null)
+     * @param ttl
+     *            time to live of the entry in milliseconds, nothing is stored if not positive
+     */
+    protected void putValue(final String key, final V value, final long ttl) {
+
+        if (ttl <= 0) {
+            return;
+        }
+        final Segment<V> segment = segmentFor(key);
+        final Node<V> node = new Node<V>(value, currentTimeMillis() + ttl);
+        synchronized (segment) {
+            segment.put(key, node);
+        }
+    }
+
+    /**
+     * Remove a key from the cache
+     *
+     * @param key
+     *            key to remove
+     */
+    public void invalidate(final String key) {
+
+        final Segment<V> segment = segmentFor(key);
+        synchronized (segment) {
+            segment.remove(key);
+        }
+    }
+
+    /**
+     * Remove every entry from the cache (statistics are preserved)
+     */
+    public void clear() {
+
+        for (final Segment<V> segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    /**
+     * @return number of entries currently stored (including expired entries not yet purged)
+     */
+    public int size() {
+
+        int size = 0;
+        for (final Segment<V> segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Time source, may be overridden for testing purposes
+     *
+     * @return current time in milliseconds
+     */
+    protected long currentTimeMillis() {
+
+        return System.currentTimeMillis();
+    }
+
+    private Segment<V> segmentFor(final String key) {
+
+        if (segments == null) {
+            throw new IllegalStateException("Cache is not initialized, afterPropertiesSet must be called first");
+        }
+        int h = key.hashCode();
+        // Spread bits so that close hashes do not land on the same segment
+        h ^= (h >>> 20) ^ (h >>> 12);
+        h ^= (h >>> 7) ^ (h >>> 4);
+        return segments[h & segmentMask];
+    }
+
+    // Statistics
+
+    public long getHitCount() {
+
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+
+        return missCount.get();
+    }
+
+    public long getEvictionCount() {
+
+        return evictionCount.get();
+    }
+
+    public long getExpirationCount() {
+
+        return expirationCount.get();
+    }
+
+    // Getters and setters
+
+    public int getMaxSize() {
+
+        return maxSize;
+    }
+
+    public void setMaxSize(final int maxSize) {
+
+        this.maxSize = maxSize;
+    }
+
+    public long getTimeToLive() {
+
+        return timeToLive;
+    }
+
+    public void setTimeToLive(final long timeToLive) {
+
+        this.timeToLive = timeToLive;
+    }
+
+    public int getConcurrencyLevel() {
+
+        return concurrencyLevel;
+    }
+
+    public void setConcurrencyLevel(final int concurrencyLevel) {
+
+        this.concurrencyLevel = concurrencyLevel;
+    }
+
+    /**
+     * Cached value with its expiration time
+     */
+    private static final class Node<V> {
+
+        private final V    value;
+
+        private final long expiresAt;
+
+        Node(final V value, final long expiresAt) {
+
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * LRU map of one lock stripe, must be used while holding its monitor.
+     */
+    private static final class Segment<V> extends LinkedHashMap<String, Node<V>> {
+
+        private static final long serialVersionUID = -3940591725403254087L;
+
+        private final int         capacity;
+
+        private final AtomicLong  evictionCount;
+
+        Segment(final int capacity, final AtomicLong evictionCount) {
+
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+            this.evictionCount = evictionCount;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, Node<V>> eldest) {
+
+            if (size() > capacity) {
+                evictionCount.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+
+    }
+
+}
@@ -0,0 +1,72 @@
+package net.archigny.cas.persondir.ldap;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Immutable list of attribute values, backed by a single array : one object per attribute instead of a list plus its
+ * unmodifiable wrapper.
+ */
+final class FrozenValueList extends AbstractList<Object> implements RandomAccess, Serializable {
+
+    private static final long serialVersionUID = -6130846017513946617L;
+
+    private final Object[]    values;
+
+    private FrozenValueList(final Object[] values) {
+
+        this.values = values;
+    }
+
+    /**
+     * Freeze attribute values in an immutable list, sized to its content
+     *
+     * @param values
+     *            values to freeze (may be null)
+     * @return immutable list, values itself if it is already frozen (or lazy), or null if values is null
+     */
+    static List<Object> freeze(final List<Object> values) {
+
+        if ((values == null) || (values instanceof FrozenValueList) || (values instanceof LazyValueList)) {
+            // Lazy values are immutable, and must not be loaded here
+            return values;
+        }
+        if (values instanceof SharedValueList) {
+            // Values no processor modified : adopt the directory array instead of copying it
+            final Object[] shared = ((SharedValueList) values).getSharedValues();
+            if ((shared != null) && (shared.length > 1)) {
+                return new FrozenValueList(shared);
+            }
+        }
+        switch (values.size()) {
+            case 0:
+                return Collections.emptyList();
+            case 1:
+                return Collections.singletonList(values.get(0));
+            default:
+                return new FrozenValueList(values.toArray());
+        }
+    }
+
+    @Override
+    public Object get(final int index) {
+
+        return values[index];
+    }
+
+    @Override
+    public int size() {
+
+        return values.length;
+    }
+
+    @Override
+    public Object[] toArray() {
+
+        return values.clone();
+    }
+
+}
@@ -0,0 +1,137 @@
+package net.archigny.cas.persondir.ldap;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free, allocation-free latency histogram.<br />
+ * Latencies (in nanoseconds) are counted in log-linear buckets : each power of two is split in 8 buckets, so that percentiles
+ * are known within 12.5%, whatever their magnitude. Recording only increments counters, and can stay enabled in production.
+ */
+public class LatencyHistogram {
+
+    private static final int  SUB_BUCKET_BITS  = 3;
+
+    private static final int  SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    private static final int  BUCKET_COUNT     = (64 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+    private final String      name;
+
+    private final AtomicLongArray buckets      = new AtomicLongArray(BUCKET_COUNT);
+
+    private final AtomicLong  count            = new AtomicLong();
+
+    private final AtomicLong  sum              = new AtomicLong();
+
+    private final AtomicLong  max              = new AtomicLong();
+
+    public LatencyHistogram(final String name) {
+
+        this.name = name;
+    }
+
+    /**
+     * Record one latency
+     *
+     * @param elapsedNanos
+     *            latency, in nanoseconds (negative values are counted as 0)
+     */
+    public void record(final long elapsedNanos) {
+
+        final long value = (elapsedNanos < 0 ? 0 : elapsedNanos);
+        buckets.incrementAndGet(bucketIndex(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        long currentMax = max.get();
+        while ((value > currentMax) && !max.compareAndSet(currentMax, value)) {
+            currentMax = max.get();
+        }
+    }
+
+    static int bucketIndex(final long value) {
+
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        final int subBucket = (int) ((value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1));
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    static long bucketLowerBound(final int index) {
+
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        final int exponent = index / SUB_BUCKET_COUNT + SUB_BUCKET_BITS - 1;
+        final long subBucket = index % SUB_BUCKET_COUNT;
+        return (SUB_BUCKET_COUNT + subBucket) << (exponent - SUB_BUCKET_BITS);
+    }
+
+    /**
+     * Estimate a percentile : the upper bound of the bucket holding it, capped by the maximum recorded latency
+     *
+     * @param percentile
+     *            percentile, between 0 and 1 (eg : 0.999)
+     * @return latency, in nanoseconds (0 if nothing was recorded)
+     */
+    public long getPercentile(final double percentile) {
+
+        final long total = count.get();
+        if (total == 0) {
+            return 0;
+        }
+        final long target = Math.max(1, (long) Math.ceil(percentile * total));
+        long cumulated = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            cumulated += buckets.get(i);
+            if (cumulated >= target) {
+                final long upperBound = (i + 1 < BUCKET_COUNT ? bucketLowerBound(i + 1) - 1 : Long.MAX_VALUE);
+                return Math.min(upperBound, max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * @return mean latency, in nanoseconds
+     */
+    public double getMean() {
+
+        final long total = count.get();
+        return (total == 0 ? 0 : (double) sum.get() / total);
+    }
+
+    public long getCount() {
+
+        return count.get();
+    }
+
+    /**
+     * @return highest latency recorded, in nanoseconds
+     */
+    public long getMax() {
+
+        return max.get();
+    }
+
+    public String getName() {
+
+        return name;
+    }
+
+    /**
+     * Forget every recorded latency
+     */
+    public void reset() {
+
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+}
@@ -0,0 +1,100 @@
+package net.archigny.cas.persondir.ldap;
+
+import java.util.Arrays;
+
+/**
+ * Estimates a latency percentile over a sliding window of the last observed latencies. The estimate is refreshed every
+ * window / 8 observations, so that reading it costs nothing on the lookup path.
+ */
+public class LatencyPercentileEstimator {
+
+    /**
+     * Last latencies, in nanoseconds (ring buffer), guarded by this
+     */
+    private final long[]   samples;
+
+    /**
+     * Percentile estimated (0 < percentile < 1)
+     */
+    private final double   percentile;
+
+    /**
+     * Number of samples needed before an estimate is available
+     */
+    private final int      minSamples;
+
+    /**
+     * Number of observations recorded, guarded by this
+     */
+    private long           count;
+
+    /**
+     * Last estimate, in nanoseconds (-1 while not enough samples are available)
+     */
+    private volatile long  estimate = -1;
+
+    /**
+     * @param windowSize
+     *            number of latencies kept
+     * @param percentile
+     *            percentile estimated (eg : 0.95)
+     * @param minSamples
+     *            number of samples needed before an estimate is available
+     */
+    public LatencyPercentileEstimator(final int windowSize, final double percentile, final int minSamples) {
+
+        if (windowSize < 8) {
+            throw new IllegalArgumentException("windowSize must be at least 8");
+        }
+        if ((percentile <= 0) || (percentile >= 1)) {
+            throw new IllegalArgumentException("percentile must be in ]0, 1[");
+        }
+        if ((minSamples <= 0) || (minSamples > windowSize)) {
+            throw new IllegalArgumentException("minSamples must be in [1, windowSize]");
+        }
+        this.samples = new long[windowSize];
+        this.percentile = percentile;
+        this.minSamples = minSamples;
+    }
+
+    /**
+     * Record one observed latency
+     *
+     * @param elapsedNanos
+     *            latency, in nanoseconds
+     */
+    public void record(final long elapsedNanos) {
+
+        long[] snapshot = null;
+        int snapshotSize = 0;
+        synchronized (this) {
+            samples[(int) (count % samples.length)] = elapsedNanos;
+            count++;
+            if ((count >= minSamples) && ((count == minSamples) || (count % (samples.length / 8) == 0))) {
+                snapshotSize = (int) Math.min(count, samples.length);
+                snapshot = Arrays.copyOf(samples, snapshotSize);
+            }
+        }
+        if (snapshot != null) {
+            Arrays.sort(snapshot);
+            estimate = snapshot[Math.min(snapshotSize - 1, (int) Math.ceil(percentile * snapshotSize) - 1)];
+        }
+    }
+
+    /**
+     * @return estimated percentile, in nanoseconds, or -1 if not enough latencies have been observed yet
+     */
+    public long getEstimate() {
+
+        return estimate;
+    }
+
+    /**
+     * @return number of latencies observed
+     */
+    public synchronized long getCount() {
+
+        return count;
+    }
+
+}
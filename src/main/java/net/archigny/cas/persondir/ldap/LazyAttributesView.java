@@ -0,0 +1,174 @@
+package net.archigny.cas.persondir.ldap;
+
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Read only view of locked attributes holding lazy values : lazy attributes absent from the entry are left out, as absent
+ * attributes returned by the query are. Telling them apart loads lazy values, so only lookups of lazy attributes, size and
+ * iteration do.
+ */
+final class LazyAttributesView extends AbstractMap<String, List<Object>> implements Serializable {
+
+    private static final long               serialVersionUID = 4113870512794925874L;
+
+    private final Map<String, List<Object>> attributes;
+
+    /**
+     * @param attributes
+     *            locked attributes
+     */
+    LazyAttributesView(final Map<String, List<Object>> attributes) {
+
+        this.attributes = attributes;
+    }
+
+    /**
+     * @param values
+     *            values of an attribute
+     * @return true if values are lazy values of an attribute absent from the entry
+     */
+    static boolean isAbsent(final List<Object> values) {
+
+        return (values instanceof LazyValueList) && values.isEmpty();
+    }
+
+    /**
+     * @param attributes
+     *            attributes
+     * @return true if some attribute holds lazy values
+     */
+    static boolean hasLazyValues(final Map<String, List<Object>> attributes) {
+
+        for (final List<Object> values : attributes.values()) {
+            if (values instanceof LazyValueList) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return copy of the attributes holding loaded values only : lazy attributes not loaded yet are left out, so that the copy
+     *         never reaches the directory
+     */
+    Map<String, List<Object>> copyLoadedValues() {
+
+        final Map<String, List<Object>> copy = new CaseInsensitiveAttributeMap(attributes.size());
+        for (final Map.Entry<String, List<Object>> attribute : attributes.entrySet()) {
+            final List<Object> values = attribute.getValue();
+            if (!(values instanceof LazyValueList)) {
+                copy.put(attribute.getKey(), values);
+            } else if (((LazyValueList) values).isLoaded() && !values.isEmpty()) {
+                copy.put(attribute.getKey(), new ArrayList<Object>(values));
+            }
+        }
+        return copy;
+    }
+
+    @Override
+    public List<Object> get(final Object key) {
+
+        final List<Object> values = attributes.get(key);
+        return (isAbsent(values) ? null : values);
+    }
+
+    @Override
+    public boolean containsKey(final Object key) {
+
+        return attributes.containsKey(key) && !isAbsent(attributes.get(key));
+    }
+
+    @Override
+    public int size() {
+
+        int size = 0;
+        for (final List<Object> values : attributes.values()) {
+            if (!isAbsent(values)) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public Set<Map.Entry<String, List<Object>>> entrySet() {
+
+        return new AbstractSet<Map.Entry<String, List<Object>>>() {
+
+            @Override
+            public Iterator<Map.Entry<String, List<Object>>> iterator() {
+
+                return new PresentIterator(attributes.entrySet().iterator());
+            }
+
+            @Override
+            public int size() {
+
+                return LazyAttributesView.this.size();
+            }
+        };
+    }
+
+    /**
+     * Serialized without absent lazy attributes, lazy values being serialized as frozen values
+     */
+    private Object writeReplace() throws ObjectStreamException {
+
+        return Collections.unmodifiableMap(new CaseInsensitiveAttributeMap(this));
+    }
+
+    /**
+     * Iterates over attributes, skipping absent lazy attributes
+     */
+    private static final class PresentIterator implements Iterator<Map.Entry<String, List<Object>>> {
+
+        private final Iterator<Map.Entry<String, List<Object>>> iterator;
+
+        private Map.Entry<String, List<Object>>                 next;
+
+        PresentIterator(final Iterator<Map.Entry<String, List<Object>>> iterator) {
+
+            this.iterator = iterator;
+        }
+
+        @Override
+        public boolean hasNext() {
+
+            while ((next == null) && iterator.hasNext()) {
+                final Map.Entry<String, List<Object>> entry = iterator.next();
+                if (!isAbsent(entry.getValue())) {
+                    next = entry;
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public Map.Entry<String, List<Object>> next() {
+
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final Map.Entry<String, List<Object>> entry = next;
+            next = null;
+            return entry;
+        }
+
+        @Override
+        public void remove() {
+
+            throw new UnsupportedOperationException("Attributes are locked");
+        }
+    }
+
+}
@@ -0,0 +1,93 @@
+package net.archigny.cas.persondir.ldap;
+
+import java.io.Serializable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Lazy attributes of one directory entry. They are not returned by the query resolving the person, but fetched together by a
+ * base lookup of the entry DN the first time one of their LazyValueList is read.
+ */
+final class LazyEntry implements Serializable {
+
+    private static final long   serialVersionUID = -1772604583349614022L;
+
+    private static final Logger log              = LoggerFactory.getLogger(LazyEntry.class);
+
+    private static final Object[] NO_VALUES      = new Object[0];
+
+    /**
+     * Fetches lazy attribute values of an entry
+     */
+    interface Loader {
+
+        /**
+         * @param dn
+         *            DN of the entry, relative to the ContextSource base
+         * @param attributes
+         *            LDAP names of the attributes to fetch
+         * @return values of each attribute, in the same order (null values for absent attributes)
+         */
+        Object[][] load(String dn, String[] attributes);
+    }
+
+    /**
+     * Loader, lost on serialization (values are loaded before)
+     */
+    private final transient Loader loader;
+
+    private final String           dn;
+
+    private final String[]         attributes;
+
+    /**
+     * Values of each attribute, null until loaded
+     */
+    private volatile Object[][]    values;
+
+    LazyEntry(final Loader loader, final String dn, final String[] attributes) {
+
+        this.loader = loader;
+        this.dn = dn;
+        this.attributes = attributes;
+    }
+
+    /**
+     * @param index
+     *            index of the attribute
+     * @return values of the attribute, loading every lazy attribute of the entry on first call. An empty array is returned if
+     *         the attribute is absent.
+     * @throws RuntimeException
+     *             thrown by the loader if values cannot be loaded (loading is then tried again on next call)
+     */
+    Object[] getValues(final int index) {
+
+        Object[][] loaded = values;
+        if (loaded == null) {
+            synchronized (this) {
+                loaded = values;
+                if ((loaded == null) && (loader != null)) {
+                    log.debug("Loading lazy attributes of {}", dn);
+                    try {
+                        loaded = loader.load(dn, attributes);
+                    } catch (RuntimeException e) {
+                        log.warn("Unable to load lazy attributes of {} : {}", dn, e.getMessage());
+                        throw e;
+                    }
+                    values = loaded;
+                }
+            }
+        }
+        if ((loaded == null) || (loaded[index] == null)) {
+            return NO_VALUES;
+        }
+        return loaded[index];
+    }
+
+    boolean isLoaded() {
+
+        return values != null;
+    }
+
+}
@@ -0,0 +1,60 @@
+package net.archigny.cas.persondir.ldap;
+
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * Immutable values of a lazy attribute : they are fetched from the directory the first time the list is read, along with the
+ * other lazy attributes of the entry. An absent attribute reads as an empty list, and is left out of locked attributes (see
+ * LazyAttributesView). Reads fail with the loader exception while values cannot be loaded.
+ */
+final class LazyValueList extends AbstractList<Object> implements RandomAccess, Serializable {
+
+    private static final long serialVersionUID = 6829474102936175583L;
+
+    private final LazyEntry   entry;
+
+    private final int         index;
+
+    LazyValueList(final LazyEntry entry, final int index) {
+
+        this.entry = entry;
+        this.index = index;
+    }
+
+    @Override
+    public Object get(final int i) {
+
+        final Object[] values = entry.getValues(index);
+        if ((i < 0) || (i >= values.length)) {
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + values.length);
+        }
+        return values[i];
+    }
+
+    @Override
+    public int size() {
+
+        return entry.getValues(index).length;
+    }
+
+    /**
+     * @return true if values were fetched from the directory
+     */
+    boolean isLoaded() {
+
+        return entry.isLoaded();
+    }
+
+    /**
+     * Serialized as plain frozen values, the directory being out of reach of deserialized copies
+     */
+    private Object writeReplace() throws ObjectStreamException {
+
+        return FrozenValueList.freeze(Arrays.asList(entry.getValues(index)));
+    }
+
+}
@@ -0,0 +1,370 @@
+package net.archigny.cas.persondir.ldap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.naming.ldap.Rdn;
+
+/**
+ * LDAP filter template, parsed once and then formatted many times.<br />
+ * The template is split in literal segments and placeholders. A placeholder is either positional (<code>{0}</code>,
+ * <code>{1}</code>...) or named (<code>{uid}</code>), named placeholders being resolved to a position when the template is
+ * compiled. Every value spliced in the filter is escaped according to RFC 4515, so that a value can never change the filter
+ * structure nor turn it into a wildcard filter.<br />
+ * A template compiled by compileDn builds a DN instead, values being escaped as attribute values according to RFC 4514.
+ */
+public final class LdapFilterTemplate {
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /**
+     * Original filter
+     */
+    private final String        filter;
+
+    /**
+     * Literal segments : literals[i] is written before the placeholder i, the last one after the last placeholder
+     */
+    private final String[]      literals;
+
+    /**
+     * Parameter index of each placeholder
+     */
+    private final int[]         placeholders;
+
+    /**
+     * Total length of literal segments
+     */
+    private final int           literalLength;
+
+    /**
+     * Number of parameters expected by format
+     */
+    private final int           parameterCount;
+
+    /**
+     * True if values are escaped as DN attribute values (RFC 4514) instead of filter assertion values (RFC 4515)
+     */
+    private final boolean       dnEscaping;
+
+    private LdapFilterTemplate(final String filter, final String[] literals, final int[] placeholders, final int parameterCount,
+            final boolean dnEscaping) {
+
+        this.filter = filter;
+        this.literals = literals;
+        this.placeholders = placeholders;
+        this.parameterCount = parameterCount;
+        this.dnEscaping = dnEscaping;
+        int length = 0;
+        for (final String literal : literals) {
+            length += literal.length();
+        }
+        this.literalLength = length;
+    }
+
+    /**
+     * Compile a filter template.
+     *
+     * @param filter
+     *            filter with placeholders
+     * @param parameterNames
+     *            names of the parameters, in position order. If empty, named placeholders are rejected and any position is
+     *            accepted
+     * @return compiled template
+     * @throws IllegalArgumentException
+     *             if a placeholder cannot be resolved
+     */
+    public static LdapFilterTemplate compile(final String filter, final String... parameterNames) {
+
+        return compile(filter, false, parameterNames);
+    }
+
+    /**
+     * Compile a DN template (eg : <code>uid={0},ou=comptes,dc=archigny,dc=net</code>), values being escaped according to RFC
+     * 4514.
+     *
+     * @param dn
+     *            DN with placeholders
+     * @param parameterNames
+     *            names of the parameters, in position order
+     * @return compiled template
+     * @throws IllegalArgumentException
+     *             if a placeholder cannot be resolved
+     */
+    public static LdapFilterTemplate compileDn(final String dn, final String... parameterNames) {
+
+        return compile(dn, true, parameterNames);
+    }
+
+    private static LdapFilterTemplate compile(final String filter, final boolean dnEscaping, final String... parameterNames) {
+
+        if (filter == null) {
+            throw new IllegalArgumentException("filter cannot be null");
+        }
+
+        final List<String> literals = new ArrayList<String>();
+        final List<Integer> placeholders = new ArrayList<Integer>();
+        int maxIndex = -1;
+
+        final int length = filter.length();
+        int segmentStart = 0;
+        int i = 0;
+        while (i < length) {
+            if (filter.charAt(i) == '{') {
+                final int end = filter.indexOf('}', i + 1);
+                if ((end > i + 1) && isPlaceholderName(filter, i + 1, end)) {
+                    final int index = resolvePlaceholder(filter.substring(i + 1, end), parameterNames);
+                    literals.add(filter.substring(segmentStart, i));
+                    placeholders.add(index);
+                    maxIndex = Math.max(maxIndex, index);
+                    i = end + 1;
+                    segmentStart = i;
+                    continue;
+                }
+            }
+            i++;
+        }
+        literals.add(filter.substring(segmentStart));
+
+        final int[] placeholderArray = new int[placeholders.size()];
+        for (int j = 0; j < placeholderArray.length; j++) {
+            placeholderArray[j] = placeholders.get(j);
+        }
+        final int parameterCount = (parameterNames.length > 0 ? parameterNames.length : maxIndex + 1);
+
+        return new LdapFilterTemplate(filter, literals.toArray(new String[literals.size()]), placeholderArray, parameterCount,
+                dnEscaping);
+    }
+
+    private static boolean isPlaceholderName(final String filter, final int start, final int end) {
+
+        for (int i = start; i < end; i++) {
+            final char c = filter.charAt(i);
+            if (!(Character.isLetterOrDigit(c) || c == '_' || c == '-' || c == '.')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int resolvePlaceholder(final String name, final String[] parameterNames) {
+
+        if (Character.isDigit(name.charAt(0))) {
+            final int index;
+            try {
+                index = Integer.parseInt(name);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid positional placeholder : {" + name + "}");
+            }
+            if ((parameterNames.length > 0) && (index >= parameterNames.length)) {
+                throw new IllegalArgumentException("Positional placeholder {" + name + "} is out of range, only "
+                        + parameterNames.length + " parameter(s) available");
+            }
+            return index;
+        }
+        for (int i = 0; i < parameterNames.length; i++) {
+            if (parameterNames[i].equalsIgnoreCase(name)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Unknown named placeholder : {" + name + "}");
+    }
+
+    /**
+     * Build a filter by splicing escaped values in the template
+     *
+     * @param values
+     *            values, in parameter order
+     * @return filter ready to be sent to the directory
+     */
+    public String format(final String... values) {
+
+        if (values.length < parameterCount) {
+            throw new IllegalArgumentException("Filter " + filter + " expects " + parameterCount + " parameter(s), "
+                    + values.length + " provided");
+        }
+
+        int capacity = literalLength;
+        for (final int index : placeholders) {
+            capacity += values[index].length() + 8;
+        }
+
+        final StringBuilder sb = new StringBuilder(capacity);
+        appendTo(sb, values);
+        return sb.toString();
+    }
+
+    /**
+     * Append the filter built from the template to a buffer (used to combine several filters)
+     *
+     * @param sb
+     *            buffer to append to
+     * @param values
+     *            values, in parameter order
+     */
+    public void appendTo(final StringBuilder sb, final String... values) {
+
+        for (int i = 0; i < placeholders.length; i++) {
+            sb.append(literals[i]);
+            if (dnEscaping) {
+                sb.append(Rdn.escapeValue(values[placeholders[i]]));
+            } else {
+                escape(sb, values[placeholders[i]]);
+            }
+        }
+        sb.append(literals[placeholders.length]);
+    }
+
+    /**
+     * Escape an assertion value according to RFC 4515
+     *
+     * @param value
+     *            raw value
+     * @return escaped value
+     */
+    public static String escape(final String value) {
+
+        final StringBuilder sb = new StringBuilder(value.length() + 8);
+        escape(sb, value);
+        return sb.toString();
+    }
+
+    /**
+     * Append an assertion value to a buffer, escaping it according to RFC 4515
+     *
+     * @param sb
+     *            buffer to append to
+     * @param value
+     *            raw value
+     */
+    public static void escape(final StringBuilder sb, final String value) {
+
+        final int length = value.length();
+        for (int i = 0; i < length; i++) {
+            final char c = value.charAt(i);
+            switch (c) {
+                case '*':
+                case '(':
+                case ')':
+                case '\\':
+                case '\0':
+                    sb.append('\\').append(HEX_DIGITS[(c >> 4) & 0x0F]).append(HEX_DIGITS[c & 0x0F]);
+                    break;
+                default:
+                    sb.append(c);
+            }
+        }
+    }
+
+    /**
+     * Find the attribute compared to a parameter, when the parameter is the whole value of an equality assertion (eg :
+     * <code>(uid={0})</code>) which every matching entry satisfies. Used to match entries returned by a combined filter back
+     * to the value that selected them.
+     *
+     * @param parameterIndex
+     *            index of the parameter
+     * @return attribute name, or null if the parameter is used several times, or not as a plain equality assertion value, or
+     *         under a NOT or OR operator (entries could then match without satisfying the assertion)
+     */
+    public String getAssertionAttribute(final int parameterIndex) {
+
+        int position = -1;
+        for (int i = 0; i < placeholders.length; i++) {
+            if (placeholders[i] == parameterIndex) {
+                if (position >= 0) {
+                    return null;
+                }
+                position = i;
+            }
+        }
+        if (position < 0) {
+            return null;
+        }
+
+        final String before = literals[position];
+        final String after = literals[position + 1];
+        if (!(after.length() == 0 || after.charAt(0) == ')') || !before.endsWith("=")) {
+            return null;
+        }
+        final int start = before.lastIndexOf('(') + 1;
+        final String attribute = before.substring(start, before.length() - 1).trim();
+        if (!isAttributeDescription(attribute) || !isConjunctive(position)) {
+            return null;
+        }
+        return attribute;
+    }
+
+    /**
+     * @return true if every filter enclosing the assertion holding the placeholder is an AND filter. Values spliced before it
+     *         are escaped, so literals alone give the filter structure.
+     */
+    private boolean isConjunctive(final int placeholder) {
+
+        final StringBuilder prefix = new StringBuilder();
+        for (int i = 0; i <= placeholder; i++) {
+            prefix.append(literals[i]);
+        }
+        // Operator of each open filter, the last one being the assertion itself
+        final List<Character> operators = new ArrayList<Character>();
+        for (int i = 0; i < prefix.length(); i++) {
+            final char c = prefix.charAt(i);
+            if (c == '(') {
+                operators.add(i + 1 < prefix.length() ? prefix.charAt(i + 1) : ' ');
+            } else if ((c == ')') && !operators.isEmpty()) {
+                operators.remove(operators.size() - 1);
+            }
+        }
+        for (int i = 0; i < operators.size() - 1; i++) {
+            if (operators.get(i) != '&') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isAttributeDescription(final String attribute) {
+
+        if (attribute.length() == 0) {
+            return false;
+        }
+        for (int i = 0; i < attribute.length(); i++) {
+            final char c = attribute.charAt(i);
+            // Rejects approx (~=), ordering (>=, <=) and extensible (:=) assertions
+            if (!(Character.isLetterOrDigit(c) || c == '-' || c == ';' || c == '.')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the filter is enclosed in parentheses, and thus can be combined with other filters as is
+     */
+    public boolean isParenthesized() {
+
+        return filter.startsWith("(");
+    }
+
+    /**
+     * @return number of values expected by format
+     */
+    public int getParameterCount() {
+
+        return parameterCount;
+    }
+
+    /**
+     * @return number of placeholders in the template
+     */
+    public int getPlaceholderCount() {
+
+        return placeholders.length;
+    }
+
+    @Override
+    public String toString() {
+
+        return filter;
+    }
+
+}
@@ -1,40 +1,75 @@
 package net.archigny.cas.persondir.ldap;
 
+import java.io.InterruptedIOException;
+import java.lang.management.ManagementFactory;
+import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
 import javax.naming.InvalidNameException;
 import javax.naming.directory.SearchControls;
 import javax.naming.ldap.LdapName;
 
+import net.archigny.cas.persondir.ldap.LookupStatistics.Phase;
 import net.archigny.cas.persondir.processors.IAttributesProcessor;
+import net.archigny.cas.persondir.processors.ProcessorPipeline;
 
 import org.apereo.services.persondir.IPersonAttributeDao;
 import org.apereo.services.persondir.IPersonAttributes;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.BeanCreationException;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
+import org.springframework.dao.DataAccessException;
 import org.springframework.ldap.NameNotFoundException;
+import org.springframework.ldap.NamingException;
+import org.springframework.ldap.UncategorizedLdapException;
 import org.springframework.ldap.core.ContextMapper;
 import org.springframework.ldap.core.ContextSource;
 import org.springframework.ldap.core.DirContextAdapter;
 import org.springframework.ldap.core.DistinguishedName;
 import org.springframework.ldap.core.LdapTemplate;
+import org.springframework.ldap.core.support.AbstractContextSource;
+import org.springframework.ldap.pool.factory.PoolingContextSource;
 
-public class LdapPersonAttributeDao implements IPersonAttributeDao, InitializingBean {
+public class LdapPersonAttributeDao implements IPersonAttributeDao, InitializingBean, DisposableBean {
 
     private final Logger                 log                          = LoggerFactory.getLogger(LdapPersonAttributeDao.class);
 
-    protected final static Pattern       QUERY_PLACEHOLDER            = Pattern.compile("\\{0\\}");
+    /**
+     * Name of the named placeholder that may be used in ldapFilter instead of {0}
+     */
+    public final static String           UID_PLACEHOLDER              = "uid";
 
     /**
      * LDAP Context Source used to query the directory
@@ -52,10 +87,15 @@ public class LdapPersonAttributeDao implements IPersonAttributeDao, Initializing
     protected Map<String, String>        resultAttributeMapping       = new HashMap<String, String>();
 
     /**
-     * ldapFilter used to retrieve one person.
+     * ldapFilter used to retrieve one person. {0} (or {uid}) is replaced by the RFC 4515 escaped uid.
      */
     protected String                     ldapFilter                   = "(uid={0})";
 
+    /**
+     * ldapFilter compiled by afterPropertiesSet
+     */
+    private LdapFilterTemplate           filterTemplate;
+
     /**
      * Base DN for LDAP query
      */
@@ -67,9 +107,30 @@ public class LdapPersonAttributeDao implements IPersonAttributeDao, Initializing
     protected List<String>               queriedAttributes            = new ArrayList<String>();
 
     /**
-     * Ldap template used to query the directory
+     * Optional list of replicas (one ContextSource each). When set, each operation is routed to the fastest healthy replica
+     * instead of contextSource.
+     */
+    protected List<ContextSource>        contextSources               = new ArrayList<ContextSource>();
+
+    /**
+     * Weight of the last observation in replica latency and error rate moving averages
+     */
+    private double                       replicaLatencyWeight         = 0.2;
+
+    /**
+     * Error rate over which a replica is not used anymore
+     */
+    private double                       replicaMaxErrorRate          = 0.5;
+
+    /**
+     * Time after the last failure of an unhealthy replica when it is tried again, in milliseconds
+     */
+    private long                         replicaRetryInterval         = 30000;
+
+    /**
+     * Router selecting the replica (and its Ldap template) of each directory operation
      */
-    private LdapTemplate                 ldapTemplate;
+    private LdapReplicaRouter            replicaRouter;
 
     /**
      * Ldap Search controls used internally
@@ -81,11 +142,53 @@ public class LdapPersonAttributeDao implements IPersonAttributeDao, Initializing
      */
     private HashSet<String>              queriedAttributesSet;
 
+    /**
+     * Queried attributes fetched on demand only, by a base lookup of the entry DN the first time one of them is read
+     */
+    protected List<String>               lazyAttributes               = new ArrayList<String>();
+
+    /**
+     * LDAP names of lazy attributes, and their result names
+     */
+    private String[]                     lazyAttributeNames;
+
+    private String[]                     lazyResultNames;
+
+    /**
+     * Attributes returned by person queries : queried attributes, except lazy ones
+     */
+    private String[]                     returnedAttributes;
+
+    private final LazyAttributeFetcher   lazyFetcher                  = new LazyAttributeFetcher();
+
+    private final AtomicLong             lazyLoadCount                = new AtomicLong();
+
     /**
      * List of attributes processors
      */
     protected List<IAttributesProcessor> processors                   = new ArrayList<IAttributesProcessor>();
 
+    /**
+     * Processors compiled against the attributes returned by the DAO
+     */
+    private ProcessorPipeline            processorPipeline;
+
+    /**
+     * If true, processed attributes are frozen in CompactPersonAttributes instead of locking PersonAttributesImpl
+     */
+    private boolean                      compactAttributes            = false;
+
+    /**
+     * If true, mapped attributes wrap the value arrays returned by the directory context, which are copied only when a
+     * processor modifies them
+     */
+    private boolean                      shareDirectoryValues         = true;
+
+    /**
+     * Slot layout of CompactPersonAttributes, computed by afterPropertiesSet
+     */
+    private AttributeSchema              attributeSchema;
+
     /**
      * Flag set for PartialResultException that can be raised when querying AD with its root DN as base
      */
@@ -103,6 +206,159 @@ public class LdapPersonAttributeDao implements IPersonAttributeDao, Initializing
      */
     private boolean                      fetchDirectDn                = false;
 
+    /**
+     * Optional cache of resolved persons (null => every call queries the directory)
+     */
+    private PersonAttributesCache        cache;
+
+    /**
+     * Optional template of user DNs, relative to the ContextSource base (eg : uid={0},ou=comptes). When set, getPerson reads the
+     * DN built from the uid directly, and searches with ldapFilter only if this DN does not exist.
+     */
+    private String                       dnTemplate;
+
+    /**
+     * dnTemplate compiled by afterPropertiesSet
+     */
+    private LdapFilterTemplate           compiledDnTemplate;
+
+    /**
+     * Optional cache of user DNs, used when fetchDirectDn is set to skip the search phase
+     */
+    private UidDnCache                   dnCache;
+
+    /**
+     * True if concurrent getPerson calls for the same uid share a single directory query
+     */
+    private boolean                      coalesceRequests             = true;
+
+    /**
+     * getPerson loads currently running, used when coalesceRequests is set
+     */
+    private final SingleFlight<ILockablePersonAttributes> inFlightRequests = new SingleFlight<ILockablePersonAttributes>();
+
+    /**
+     * Maximum number of uids combined in one OR filter by getPeople(Collection)
+     */
+    private int                          batchSize                    = 100;
+
+    /**
+     * Maximum number of batch chunks queried concurrently by getPeople(Collection)
+     */
+    private int                          batchParallelism             = 4;
+
+    /**
+     * Attribute holding the uid in ldapFilter, used to match batch results back to uids (null => no batch query possible, see
+     * LdapFilterTemplate.getAssertionAttribute)
+     */
+    private String                       uidAttribute;
+
+    /**
+     * Maximum number of threads running getPersonAsync lookups
+     */
+    private int                          asyncPoolSize                = 16;
+
+    /**
+     * Maximum number of getPersonAsync lookups waiting for a thread, further lookups are rejected
+     */
+    private int                          asyncQueueSize               = 1000;
+
+    /**
+     * Default deadline of getPersonAsync lookups, in milliseconds (0 => no deadline)
+     */
+    private long                         asyncTimeout                 = 0;
+
+    /**
+     * True if getPersonAsync lookups run on virtual threads, when the runtime supports them
+     */
+    private boolean                      asyncVirtualThreads          = false;
+
+    /**
+     * Executor running getPersonAsync lookups
+     */
+    private ThreadPoolExecutor           asyncExecutor;
+
+    /**
+     * Timer expiring getPersonAsync lookups which reach their deadline
+     */
+    private ScheduledExecutorService     deadlineTimer;
+
+    /**
+     * Name of the query attribute holding the username in getPeople(Map) queries, resolved with ldapFilter
+     */
+    private String                       usernameAttribute            = "username";
+
+    /**
+     * Mapping from query attribute names (result attribute names) to LDAP attribute names, reverse of resultAttributeMapping
+     */
+    private Map<String, String>          queryAttributeMapping;
+
+    /**
+     * Ldap Search controls used by batch and attribute queries (uidAttribute is added to returned attributes)
+     */
+    private SearchControls               batchSc                      = new SearchControls();
+
+    /**
+     * Executor running batch chunks concurrently (null if batchParallelism is 1)
+     */
+    private ExecutorService              batchExecutor;
+
+    /**
+     * If true, getPerson sends its query to a second replica when the first one has not answered within hedgeDelay
+     */
+    private boolean                      hedgeRequests                = false;
+
+    /**
+     * Delay before a hedged query is sent, in milliseconds. If 0, the delay is the observed 95th percentile of lookup latency
+     */
+    private long                         hedgeDelay                   = 0;
+
+    /**
+     * Maximum number of lookups running on the hedging executor
+     */
+    private int                          hedgePoolSize                = 32;
+
+    /**
+     * Executor running hedged lookups (null if hedging is disabled or only one replica is available)
+     */
+    private ThreadPoolExecutor           hedgeExecutor;
+
+    /**
+     * Estimator of the 95th percentile of lookup latency, used when hedgeDelay is 0
+     */
+    private final LatencyPercentileEstimator lookupLatency        = new LatencyPercentileEstimator(1024, 0.95, 100);
+
+    private final AtomicLong             hedgedRequestCount           = new AtomicLong();
+
+    private final AtomicLong             hedgeWinCount                = new AtomicLong();
+
+    /**
+     * Optional circuit breaker failing fast while the directory is down or too slow
+     */
+    private CircuitBreaker               circuitBreaker;
+
+    /**
+     * Optional store of last known good persons, served when the directory cannot be queried
+     */
+    private StalePersonStore             staleStore;
+
+    private final AtomicLong             staleServedCount             = new AtomicLong();
+
+    /**
+     * Latency of each lookup phase, and lookup outcomes
+     */
+    private final LookupStatistics       statistics                   = new LookupStatistics();
+
+    /**
+     * Optional JMX object name under which statistics are published in the platform MBean server
+     */
+    private String                       jmxObjectName;
+
+    /**
+     * Object name statistics were registered with, null if not registered
+     */
+    private ObjectName                   registeredObjectName;
+
     // Implements InitializingBean
 
     /**
@@ -130,16 +386,84 @@ public class LdapPersonAttributeDao implements IPersonAttributeDao, Initializing
     @Override
     public synchronized void afterPropertiesSet() throws Exception {
 
-        if (contextSource == null) {
+        if ((contextSource == null) && contextSources.isEmpty()) {
             throw new BeanCreationException("LDAP contextSource cannot be null");
         }
-        ldapTemplate = new LdapTemplate(contextSource);
-        ldapTemplate.setIgnorePartialResultException(ignorePartialResultException);
+        final List<LdapReplica> replicas = new ArrayList<LdapReplica>();
+        final List<ContextSource> replicaSources = (contextSources.isEmpty() ? Collections.singletonList(contextSource)
+                : contextSources);
+        for (final ContextSource replicaSource : replicaSources) {
+            final LdapTemplate ldapTemplate = new LdapTemplate(replicaSource);
+            ldapTemplate.setIgnorePartialResultException(ignorePartialResultException);
+            replicas.add(new LdapReplica(replicaName(replicaSource, replicas.size()), ldapTemplate, replicaLatencyWeight));
+        }
+        replicaRouter = new LdapReplicaRouter(replicas, replicaMaxErrorRate, replicaRetryInterval);
+
+        try {
+            filterTemplate = LdapFilterTemplate.compile(ldapFilter, UID_PLACEHOLDER);
+        } catch (IllegalArgumentException e) {
+            throw new BeanCreationException("Invalid ldapFilter : " + ldapFilter, e);
+        }
+        if (filterTemplate.getPlaceholderCount() == 0) {
+            throw new BeanCreationException("ldapFilter must contain the {0} placeholder : " + ldapFilter);
+        }
+
+        if (dnTemplate != null) {
+            try {
+                compiledDnTemplate = LdapFilterTemplate.compileDn(dnTemplate, UID_PLACEHOLDER);
+            } catch (IllegalArgumentException e) {
+                throw new BeanCreationException("Invalid dnTemplate : " + dnTemplate, e);
+            }
+            if (compiledDnTemplate.getPlaceholderCount() == 0) {
+                throw new BeanCreationException("dnTemplate must contain the {0} placeholder : " + dnTemplate);
+            }
+        } else {
+            compiledDnTemplate = null;
+        }
 
         queriedAttributesSet = new HashSet<String>(queriedAttributes.size());
         queriedAttributesSet.addAll(queriedAttributes);
         queriedAttributesSet.addAll(resultAttributeMapping.keySet());
 
+        // Attributes a mapped entry may hold before processing
+        final Set<String> mappedAttributeNames = new HashSet<String>();
+        for (final String attribute : queriedAttributesSet) {
+            final String resultAttribute = resultAttributeMapping.get(attribute);
+            mappedAttributeNames.add(resultAttribute == null ? attribute : resultAttribute);
+        }
+        if (dnAttributeName != null) {
+            mappedAttributeNames.add(dnAttributeName);
+        }
+        processorPipeline = new ProcessorPipeline(processors, mappedAttributeNames);
+
+        // Lazy values are immutable : attributes read by targeted processors are fetched with the others
+        final Set<String> processedNames = new HashSet<String>();
+        for (int i = 0; i < processorPipeline.size(); i++) {
+            final String[] targets = processorPipeline.getTargets(i);
+            if (targets != null) {
+                processedNames.addAll(Arrays.asList(targets));
+            }
+        }
+        final Set<String> eagerAttributes = new HashSet<String>(queriedAttributesSet);
+        final List<String> lazyNames = new ArrayList<String>(lazyAttributes.size());
+        final List<String> lazyResults = new ArrayList<String>(lazyAttributes.size());
+        for (final String attribute : lazyAttributes) {
+            if (!queriedAttributesSet.contains(attribute)) {
+                throw new BeanCreationException("Lazy attribute " + attribute + " is not a queried attribute");
+            }
+            final String resultAttribute = resultAttributeMapping.get(attribute);
+            final String resultName = (resultAttribute == null ? attribute : resultAttribute);
+            if (processedNames.contains(resultName)) {
+                log.info("Lazy attribute {} is read by a processor, it is fetched with the other attributes", attribute);
+            } else if (eagerAttributes.remove(attribute)) {
+                lazyNames.add(attribute);
+                lazyResults.add(resultName);
+            }
+        }
+        lazyAttributeNames = lazyNames.toArray(new String[lazyNames.size()]);
+        lazyResultNames = lazyResults.toArray(new String[lazyResults.size()]);
+        returnedAttributes = stringSetToArray(eagerAttributes);
+
         // Setting SearchControls
         sc.setSearchScope(SearchControls.SUBTREE_SCOPE);
         sc.setReturningObjFlag(true);
@@ -148,13 +472,12 @@ public class LdapPersonAttributeDao implements IPersonAttributeDao, Initializing
             attrs[0] = "dn";
             sc.setReturningAttributes(attrs);
         } else {
-            String[] attrs = stringSetToArray(queriedAttributesSet);
-            sc.setReturningAttributes(attrs);
+            sc.setReturningAttributes(returnedAttributes);
         }
 
         if (log.isDebugEnabled()) {
-            log.debug("afterPropertiesSet, set attributes to be queried : "
-                    + Arrays.toString(stringSetToArray(queriedAttributesSet))
+            log.debug("afterPropertiesSet, set attributes to be queried : " + Arrays.toString(returnedAttributes)
+                    + (lazyAttributeNames.length == 0 ? "" : ", lazy attributes : " + Arrays.toString(lazyAttributeNames))
                     + (dnAttributeName == null ? ", no DN attribute created" : ", will add attribute [" + dnAttributeName
                             + "] to store user DN"));
         }
@@ -163,111 +486,1096 @@ public class LdapPersonAttributeDao implements IPersonAttributeDao, Initializing
             baseDN = new LdapName("");
         }
 
-    }
+        // Batch queries need to find which uid selected each returned entry
+        if (batchSize <= 0) {
+            throw new BeanCreationException("batchSize must be greater than 0");
+        }
+        if (batchParallelism <= 0) {
+            throw new BeanCreationException("batchParallelism must be greater than 0");
+        }
+        uidAttribute = filterTemplate.getAssertionAttribute(0);
+        final Set<String> batchAttributes = new HashSet<String>();
+        if (fetchDirectDn) {
+            batchAttributes.add("dn");
+        } else {
+            batchAttributes.addAll(Arrays.asList(returnedAttributes));
+        }
+        if (uidAttribute == null) {
+            log.info("ldapFilter {} cannot be combined in batch queries, getPeople(Collection) will query uids one by one",
+                    ldapFilter);
+        } else {
+            batchAttributes.add(uidAttribute);
+        }
+        batchSc.setSearchScope(SearchControls.SUBTREE_SCOPE);
+        batchSc.setReturningObjFlag(true);
+        batchSc.setReturningAttributes(stringSetToArray(batchAttributes));
 
-    // Implements IPersonAttributeDao Interface
+        queryAttributeMapping = createQueryAttributeMapping();
+        if ((batchParallelism > 1) && (batchExecutor == null)) {
+            batchExecutor = Executors.newFixedThreadPool(batchParallelism, new DaemonThreadFactory("ldap-batch-"));
+        }
 
-    @SuppressWarnings("unchecked")
-    @Override
-    public ILockablePersonAttributes getPerson(final String uid) {
+        if (asyncPoolSize <= 0) {
+            throw new BeanCreationException("asyncPoolSize must be greater than 0");
+        }
+        if (asyncQueueSize <= 0) {
+            throw new BeanCreationException("asyncQueueSize must be greater than 0");
+        }
+        if (asyncExecutor == null) {
+            asyncExecutor = new ThreadPoolExecutor(asyncPoolSize, asyncPoolSize, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(asyncQueueSize), createAsyncThreadFactory());
+            asyncExecutor.allowCoreThreadTimeOut(true);
+            deadlineTimer = new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory("ldap-deadline-"));
+        }
 
-        final Matcher queryMatcher = QUERY_PLACEHOLDER.matcher(ldapFilter);
-        final String localFilter = queryMatcher.replaceAll(uid);
+        // Every attribute an entry may hold once processed gets a slot
+        final Set<String> schemaNames = new LinkedHashSet<String>(mappedAttributeNames);
+        for (final IAttributesProcessor processor : processors) {
+            final Set<String> addedNames = processor.getPossibleUserAttributeNames();
+            if (addedNames != null) {
+                schemaNames.addAll(addedNames);
+            }
+        }
+        attributeSchema = new AttributeSchema(schemaNames);
 
-        if (log.isDebugEnabled()) {
-            log.debug("getPerson SearchFilter : {}", localFilter);
-            log.debug("getPerson Attributes queried : {}", Arrays.toString(sc.getReturningAttributes()));
+        final List<String> processorNames = new ArrayList<String>(processors.size());
+        for (final IAttributesProcessor processor : processors) {
+            processorNames.add(processor.getClass().getSimpleName());
+        }
+        statistics.setProcessorNames(processorNames);
+        if ((jmxObjectName != null) && (registeredObjectName == null)) {
+            try {
+                final ObjectName objectName = new ObjectName(jmxObjectName);
+                ManagementFactory.getPlatformMBeanServer().registerMBean(statistics, objectName);
+                registeredObjectName = objectName;
+            } catch (JMException e) {
+                throw new BeanCreationException("Unable to register statistics MBean " + jmxObjectName, e);
+            }
         }
 
-        try {
+        if (hedgeDelay < 0) {
+            throw new BeanCreationException("hedgeDelay cannot be negative");
+        }
+        if (hedgeRequests && (hedgePoolSize <= 0)) {
+            throw new BeanCreationException("hedgePoolSize must be greater than 0");
+        }
+        if (hedgeRequests && (replicas.size() < 2)) {
+            log.warn("hedgeRequests is set but only one replica is available, lookups will not be hedged");
+        } else if (hedgeRequests && (hedgeExecutor == null)) {
+            // No queue : when every thread is busy, lookups run in the calling thread without hedging
+            hedgeExecutor = new ThreadPoolExecutor(hedgePoolSize, hedgePoolSize, 60, TimeUnit.SECONDS,
+                    new SynchronousQueue<Runnable>(), new DaemonThreadFactory("ldap-hedge-"));
+            hedgeExecutor.allowCoreThreadTimeOut(true);
+        }
 
-            final ILockablePersonAttributes result;
+    }
 
-            if (fetchDirectDn) {
-                List<String> userDN = ldapTemplate.search(baseDN, localFilter, sc, new DnFetcher());
-                if (userDN.isEmpty()) {
-                    return null;
-                }
-                if (log.isDebugEnabled()) {
-                    log.debug("user DN found : " + userDN.get(0) + " fetching attributes");
-                }
-                result = (ILockablePersonAttributes) ldapTemplate.lookup(userDN.get(0), stringSetToArray(queriedAttributesSet),
-                        new PersonAttributeMapper(uid));
+    /**
+     * Name a replica after the URLs of its ContextSource, when available
+     */
+    private static String replicaName(final ContextSource replicaSource, final int index) {
 
-            } else {
-                // Fetch person from directory
-                List<ILockablePersonAttributes> resultList = ldapTemplate.search(baseDN, localFilter, sc,
-                        new PersonAttributeMapper(uid));
-                if (resultList.isEmpty()) {
-                    return null;
+        if (replicaSource instanceof PoolingContextSource) {
+            return replicaName(((PoolingContextSource) replicaSource).getContextSource(), index);
+        }
+        if (replicaSource instanceof AbstractContextSource) {
+            // getUrls cannot be called before URLs are set : an initialized context source has URLs and an authentication
+            // source
+            final AbstractContextSource abstractSource = (AbstractContextSource) replicaSource;
+            if (abstractSource.getAuthenticationSource() != null) {
+                final String[] urls = abstractSource.getUrls();
+                if ((urls != null) && (urls.length > 0)) {
+                    return Arrays.toString(urls);
                 }
-                result = resultList.get(0);
             }
+        }
+        return "replica-" + index;
+    }
 
-            // Process attributes if needed
-            if (result != null) {
-                final Map<String, List<Object>> attrs = result.getAttributes();
-                for (IAttributesProcessor processor : processors) {
-                    processor.processAttributes(attrs);
-                }
-            }
-            // Lock the result before returning it
-            result.lock();
-            return result;
+    // Implements DisposableBean
 
-        } catch (NameNotFoundException e) {
-            log.debug("Catched while retrieving result : {}", e.getMessage());
-            return null;
+    @Override
+    public synchronized void destroy() throws Exception {
+
+        if (batchExecutor != null) {
+            batchExecutor.shutdownNow();
+            batchExecutor = null;
+        }
+        if (asyncExecutor != null) {
+            asyncExecutor.shutdownNow();
+            asyncExecutor = null;
+            deadlineTimer.shutdownNow();
+            deadlineTimer = null;
+        }
+        if (hedgeExecutor != null) {
+            hedgeExecutor.shutdownNow();
+            hedgeExecutor = null;
+        }
+        if (registeredObjectName != null) {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredObjectName);
+            registeredObjectName = null;
         }
     }
 
     /**
-     * As this implementation does not support parametrized query other than simple ldap filter
+     * Build the thread factory of getPersonAsync threads : virtual threads if requested and supported by the runtime (looked up
+     * by reflection, as this module is built for older runtimes), daemon platform threads otherwise.
+     * 
+     * @return thread factory
      */
+    private ThreadFactory createAsyncThreadFactory() {
+
+        if (asyncVirtualThreads) {
+            try {
+                final Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+                Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+                builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "ldap-async-", 1L);
+                final ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+                log.info("getPersonAsync lookups will run on virtual threads");
+                return factory;
+            } catch (Exception e) {
+                log.warn("Virtual threads are not supported by this runtime, getPersonAsync will use platform threads");
+            }
+        }
+        return new DaemonThreadFactory("ldap-async-");
+    }
+
+    // Implements IPersonAttributeDao Interface
+
     @Override
-    public Set<IPersonAttributes> getPeople(final Map<String, Object> query) {
+    public ILockablePersonAttributes getPerson(final String uid) {
+
+        if (cache != null) {
+            final PersonAttributesCache.CacheEntry entry = cache.get(uid);
+            if (entry != null) {
+                log.debug("getPerson cache hit for uid : {}", uid);
+                return entry.getPerson();
+            }
+        }
+
+        if (!coalesceRequests || (uid == null)) {
+            return loadPerson(uid);
+        }
+        return inFlightRequests.execute(uid, new Callable<ILockablePersonAttributes>() {
+
+            @Override
+            public ILockablePersonAttributes call() throws Exception {
 
-        return null;
+                return reloadPerson(uid);
+            }
+        });
     }
 
     /**
-     * Method not implemented... so returning null.
+     * Load a person after a cache miss : a load of the same uid may have completed between the cache miss and this call.
+     * 
+     * @param uid
+     *            uid of the person
+     * @return locked person attributes, or null if not found
      */
-    @Override
-    public Set<IPersonAttributes> getPeopleWithMultivaluedAttributes(final Map<String, List<Object>> query) {
+    private ILockablePersonAttributes reloadPerson(final String uid) {
 
-        return null;
+        if (cache != null) {
+            final PersonAttributesCache.CacheEntry entry = cache.get(uid);
+            if (entry != null) {
+                log.debug("getPerson cache hit for uid : {}", uid);
+                return entry.getPerson();
+            }
+        }
+        return loadPerson(uid);
     }
 
     /**
-     * Return a list of returned attributes.
+     * Asynchronous getPerson, with the default deadline (asyncTimeout).
+     * 
+     * @param uid
+     *            uid of the person
+     * @return future of the locked person attributes (null if not found)
+     * @see #getPersonAsync(String, long, TimeUnit)
      */
-    @Override
-    public Set<String> getPossibleUserAttributeNames() {
+    public Future<ILockablePersonAttributes> getPersonAsync(final String uid) {
 
-        // Process attribute names to map them
-        String sourceAttributeName;
-        String targetAttributeName;
+        return getPersonAsync(uid, asyncTimeout, TimeUnit.MILLISECONDS);
+    }
 
-        Iterator<String> iter = queriedAttributesSet.iterator();
+    /**
+     * Asynchronous getPerson : the lookup runs on a dedicated bounded executor, the calling thread is never blocked. Once the
+     * deadline is reached, the future fails with a TimeoutException (wrapped in an ExecutionException by get) and the directory
+     * operation is abandoned. Cache hits complete immediately without using the executor. An asynchronous lookup waits for a
+     * getPerson load of the same uid already running, but never runs a load other callers wait for, so that its deadline only
+     * fails its own future.
+     * 
+     * @param uid
+     *            uid of the person
+     * @param timeout
+     *            deadline of the lookup (0 => no deadline)
+     * @param unit
+     *            unit of timeout
+     * @return future of the locked person attributes (null if not found)
+     * @throws java.util.concurrent.RejectedExecutionException
+     *             if asyncQueueSize lookups are already waiting
+     */
+    public Future<ILockablePersonAttributes> getPersonAsync(final String uid, final long timeout, final TimeUnit unit) {
 
-        Set<String> possibleAttributenames = new HashSet<String>();
+        if (asyncExecutor == null) {
+            throw new IllegalStateException("afterPropertiesSet must be called before getPersonAsync");
+        }
 
-        while (iter.hasNext()) {
-            sourceAttributeName = iter.next();
-            if ((targetAttributeName = resultAttributeMapping.get(sourceAttributeName)) != null) {
-                possibleAttributenames.add(targetAttributeName);
-            } else {
-                possibleAttributenames.add(sourceAttributeName);
+        if (cache != null) {
+            final PersonAttributesCache.CacheEntry entry = cache.get(uid);
+            if (entry != null) {
+                return new CompletedFuture<ILockablePersonAttributes>(entry.getPerson());
             }
         }
 
-        if (log.isDebugEnabled()) {
-            log.debug("possible AttributeNames Set before processors : {}", Arrays.toString(possibleAttributenames.toArray()));
-        }
-        for (IAttributesProcessor processor : processors) {
-            final Set<String> processorAttributeNames = processor.getPossibleUserAttributeNames();
-            if (processorAttributeNames != null) {
+        final DeadlineFutureTask<ILockablePersonAttributes> task = new DeadlineFutureTask<ILockablePersonAttributes>(
+                new Callable<ILockablePersonAttributes>() {
+
+                    @Override
+                    public ILockablePersonAttributes call() throws Exception {
+
+                        if (!coalesceRequests || (uid == null)) {
+                            return getPerson(uid);
+                        }
+                        return inFlightRequests.join(uid, new Callable<ILockablePersonAttributes>() {
+
+                            @Override
+                            public ILockablePersonAttributes call() throws Exception {
+
+                                return reloadPerson(uid);
+                            }
+                        });
+                    }
+                }, "getPerson(" + uid + ")");
+
+        asyncExecutor.execute(task);
+        if (timeout > 0) {
+            task.setExpiration(deadlineTimer.schedule(new Runnable() {
+
+                @Override
+                public void run() {
+
+                    task.expire();
+                }
+            }, timeout, unit));
+        }
+        return task;
+    }
+
+    /**
+     * Fetch a person from the directory and store the result in the cache, if any. The cache is fed before concurrent callers
+     * waiting for this load are released, so that no later caller misses both.
+     * 
+     * @param uid
+     *            uid of the person
+     * @return locked person attributes, or null if not found
+     */
+    private ILockablePersonAttributes loadPerson(final String uid) {
+
+        final ILockablePersonAttributes result;
+        try {
+            result = fetchPerson(uid);
+        } catch (RuntimeException e) {
+            // Processor errors are not hidden by stale attributes
+            final ILockablePersonAttributes stale = (isDirectoryFailure(e) ? getStalePerson(uid) : null);
+            if (stale == null) {
+                throw e;
+            }
+            log.warn("Directory unavailable ({}), serving last known attributes of {}", e.getMessage(), uid);
+            return stale;
+        }
+        if ((cache != null) && (uid != null)) {
+            cache.put(uid, result);
+        }
+        if ((staleStore != null) && (result != null)) {
+            staleStore.putPerson(uid, staleCopy(result));
+        }
+        return result;
+    }
+
+    /**
+     * Lazy attributes cannot be fetched while stale attributes are served : those not loaded yet are left out of the copy kept
+     * in the stale store.
+     * 
+     * @param person
+     *            locked person attributes
+     * @return person attributes holding no lazy values, locked
+     */
+    private ILockablePersonAttributes staleCopy(final ILockablePersonAttributes person) {
+
+        final Map<String, List<Object>> attributes = person.getAttributes();
+        if (!(attributes instanceof LazyAttributesView)) {
+            return person;
+        }
+        final Map<String, List<Object>> loadedAttributes = ((LazyAttributesView) attributes).copyLoadedValues();
+        if (compactAttributes) {
+            return CompactPersonAttributes.freeze(person.getName(), attributeSchema, loadedAttributes);
+        }
+        final PersonAttributesImpl copy = new PersonAttributesImpl(person.getName(), loadedAttributes);
+        copy.lock();
+        return copy;
+    }
+
+    /**
+     * @return true if the exception is a directory failure, after which last known attributes may be served
+     */
+    private static boolean isDirectoryFailure(final RuntimeException e) {
+
+        // Spring LDAP exceptions (including CircuitOpenException), and DataAccessException thrown by PoolingContextSource
+        return (e instanceof NamingException) || (e instanceof DataAccessException);
+    }
+
+    /**
+     * @param uid
+     *            uid of the person
+     * @return last known attributes of the person, or null if unknown or no stale store is set
+     */
+    private ILockablePersonAttributes getStalePerson(final String uid) {
+
+        if ((staleStore == null) || (uid == null)) {
+            return null;
+        }
+        final ILockablePersonAttributes stale = staleStore.getPerson(uid);
+        if (stale != null) {
+            staleServedCount.incrementAndGet();
+        }
+        return stale;
+    }
+
+    /**
+     * Query the directory for one person, then process and lock its attributes. Statistics are recorded once, even when the
+     * lookup is hedged.
+     * 
+     * @param uid
+     *            uid of the person
+     * @return locked person attributes, or null if not found
+     */
+    protected ILockablePersonAttributes fetchPerson(final String uid) {
+
+        if ((uid == null) || (uid.length() == 0)) {
+            log.debug("getPerson called with an empty uid, directory not queried");
+            return null;
+        }
+
+        final long start = System.nanoTime();
+        final ILockablePersonAttributes person;
+        try {
+            final LdapReplica primary = replicaRouter.select();
+            person = (hedgeExecutor == null ? queryReplica(uid, primary) : queryHedged(uid, primary));
+        } catch (RuntimeException e) {
+            statistics.recordError();
+            throw e;
+        }
+        final ILockablePersonAttributes result = processAndLock(person);
+        statistics.record(Phase.TOTAL, System.nanoTime() - start);
+        statistics.recordResult(result != null);
+        return result;
+    }
+
+    /**
+     * Query a replica for one person, and send the same query to a second replica if the first one has not answered within
+     * the hedging delay. The first successful answer is returned, the other lookup is cancelled.
+     * 
+     * @param uid
+     *            uid of the person (not empty)
+     * @param primary
+     *            replica queried first
+     * @return unprocessed attributes, or null if not found
+     */
+    private ILockablePersonAttributes queryHedged(final String uid, final LdapReplica primary) {
+
+        final long delay = (hedgeDelay > 0 ? TimeUnit.MILLISECONDS.toNanos(hedgeDelay) : lookupLatency.getEstimate());
+        if (delay < 0) {
+            // Latency not learned yet
+            return queryReplica(uid, primary);
+        }
+
+        final CompletionService<ILockablePersonAttributes> completion = new ExecutorCompletionService<ILockablePersonAttributes>(
+                hedgeExecutor);
+        final List<Future<ILockablePersonAttributes>> lookups = new ArrayList<Future<ILockablePersonAttributes>>(2);
+        final List<HedgedLookup> attempts = new ArrayList<HedgedLookup>(2);
+        final HedgedLookup primaryLookup = new HedgedLookup(uid, primary);
+        try {
+            lookups.add(completion.submit(primaryLookup));
+            attempts.add(primaryLookup);
+        } catch (RejectedExecutionException e) {
+            return queryReplica(uid, primary);
+        }
+
+        try {
+            Future<ILockablePersonAttributes> first = completion.poll(delay, TimeUnit.NANOSECONDS);
+            if (first == null) {
+                final LdapReplica secondary = replicaRouter.selectExcluding(primary);
+                final HedgedLookup secondaryLookup = new HedgedLookup(uid, secondary);
+                try {
+                    lookups.add(completion.submit(secondaryLookup));
+                    attempts.add(secondaryLookup);
+                    hedgedRequestCount.incrementAndGet();
+                    log.debug("Lookup of {} on {} is late, hedged on {}", new Object[] { uid, primary.getName(),
+                            secondary.getName() });
+                } catch (RejectedExecutionException e) {
+                    log.debug("Hedging executor is saturated, lookup of {} is not hedged", uid);
+                }
+                first = completion.take();
+            }
+            // Only the phases of the lookup which answered are recorded
+            Future<ILockablePersonAttributes> answer = first;
+            try {
+                final ILockablePersonAttributes result = first.get();
+                if (first != lookups.get(0)) {
+                    hedgeWinCount.incrementAndGet();
+                }
+                return result;
+            } catch (ExecutionException e) {
+                if (lookups.size() < 2) {
+                    throw e;
+                }
+                // The other lookup may still succeed
+                log.debug("Hedged lookup of {} failed, waiting for the other one : {}", uid, e.getCause());
+                answer = completion.take();
+                return answer.get();
+            } finally {
+                attempts.get(lookups.indexOf(answer)).attempt.commit();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UncategorizedLdapException("Interrupted while waiting for lookup of " + uid, e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new UncategorizedLdapException("Lookup of " + uid + " failed", cause);
+        } finally {
+            for (final Future<ILockablePersonAttributes> lookup : lookups) {
+                lookup.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Query one replica for one person, without processing its attributes.
+     * 
+     * @param uid
+     *            uid of the person (not empty)
+     * @param replica
+     *            replica to query
+     * @return unprocessed attributes, or null if not found
+     */
+    private ILockablePersonAttributes queryReplica(final String uid, final LdapReplica replica) {
+
+        final LookupStatistics.Attempt attempt = statistics.newAttempt();
+        try {
+            return queryReplica(uid, replica, attempt);
+        } finally {
+            attempt.commit();
+        }
+    }
+
+    /**
+     * Query one replica for one person, without processing its attributes nor committing the recorded phases.
+     * 
+     * @param uid
+     *            uid of the person (not empty)
+     * @param replica
+     *            replica to query
+     * @param attempt
+     *            recorder of the lookup phases
+     * @return unprocessed attributes, or null if not found
+     */
+    private ILockablePersonAttributes queryReplica(final String uid, final LdapReplica replica,
+            final LookupStatistics.Attempt attempt) {
+
+        final long start = System.nanoTime();
+        final ILockablePersonAttributes person = execute(replica, new DirectoryOperation<ILockablePersonAttributes>() {
+
+            @Override
+            public ILockablePersonAttributes run(final LdapTemplate ldapTemplate) {
+
+                return queryPerson(uid, ldapTemplate, attempt);
+            }
+        });
+        lookupLatency.record(System.nanoTime() - start);
+        return person;
+    }
+
+    /**
+     * Run a directory operation on a replica, recording its latency and outcome in the replica statistics and the circuit
+     * breaker. Every exception thrown by the operation counts as a failure, unless the operation was interrupted (cancelled
+     * hedged lookup).
+     * 
+     * @param replica
+     *            replica to query
+     * @param operation
+     *            operation to run
+     * @return result of the operation
+     */
+    private <T> T execute(final LdapReplica replica, final DirectoryOperation<T> operation) {
+
+        if ((circuitBreaker != null) && !circuitBreaker.allowRequest()) {
+            throw new CircuitOpenException("Directory circuit breaker is open, operation refused");
+        }
+        replica.begin();
+        final long start = System.nanoTime();
+        boolean failed = true;
+        boolean cancelled = false;
+        try {
+            final T result = operation.run(replica.getLdapTemplate());
+            failed = false;
+            return result;
+        } catch (RuntimeException e) {
+            cancelled = isCancellation(e);
+            throw e;
+        } finally {
+            final long elapsed = System.nanoTime() - start;
+            replica.end(elapsed, failed && !cancelled);
+            if (circuitBreaker != null) {
+                if (cancelled) {
+                    circuitBreaker.onCancel();
+                } else if (failed) {
+                    circuitBreaker.onFailure();
+                } else {
+                    circuitBreaker.onSuccess(elapsed);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true if the operation failed because the calling thread was interrupted
+     */
+    private static boolean isCancellation(final RuntimeException e) {
+
+        if (Thread.currentThread().isInterrupted()) {
+            return true;
+        }
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if ((cause instanceof javax.naming.InterruptedNamingException) || (cause instanceof InterruptedException)
+                    || (cause instanceof InterruptedIOException)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Query the directory for one person, without processing its attributes.
+     * 
+     * @param uid
+     *            uid of the person
+     * @param ldapTemplate
+     *            template of the replica to query
+     * @param attempt
+     *            recorder of the lookup phases
+     * @return attributes mapped by PersonAttributeMapper, or null if not found
+     */
+    @SuppressWarnings("unchecked")
+    private ILockablePersonAttributes queryPerson(final String uid, final LdapTemplate ldapTemplate,
+            final LookupStatistics.Attempt attempt) {
+
+        if (compiledDnTemplate != null) {
+            final String userDN = compiledDnTemplate.format(uid);
+            log.debug("getPerson reading DN built from template : {}", userDN);
+            final long start = System.nanoTime();
+            try {
+                return (ILockablePersonAttributes) ldapTemplate.lookup(userDN, returnedAttributes,
+                        new PersonAttributeMapper(uid, attempt));
+            } catch (NameNotFoundException e) {
+                log.debug("DN {} not found, falling back to ldapFilter search", userDN);
+            } finally {
+                attempt.record(Phase.LOOKUP, System.nanoTime() - start);
+            }
+        }
+
+        final long filterStart = System.nanoTime();
+        final String localFilter = filterTemplate.format(uid);
+        attempt.record(Phase.FILTER, System.nanoTime() - filterStart);
+
+        if (log.isDebugEnabled()) {
+            log.debug("getPerson SearchFilter : {}", localFilter);
+            log.debug("getPerson Attributes queried : {}", Arrays.toString(sc.getReturningAttributes()));
+        }
+
+        try {
+
+            final ILockablePersonAttributes result;
+
+            if (fetchDirectDn) {
+                result = fetchPersonByDn(uid, localFilter, ldapTemplate, attempt);
+            } else {
+                // Fetch person from directory
+                final long start = System.nanoTime();
+                final List<ILockablePersonAttributes> resultList;
+                try {
+                    resultList = ldapTemplate.search(baseDN, localFilter, sc, new PersonAttributeMapper(uid, attempt));
+                } finally {
+                    attempt.record(Phase.SEARCH, System.nanoTime() - start);
+                }
+                if (resultList.isEmpty()) {
+                    return null;
+                }
+                result = resultList.get(0);
+            }
+
+            return result;
+
+        } catch (NameNotFoundException e) {
+            log.debug("Catched while retrieving result : {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Two phases lookup : find the user DN (from dnCache, or by a search), then read attributes directly from the DN. A cached
+     * DN which cannot be read anymore (user moved or renamed) is invalidated, and the search is done again.
+     * 
+     * @param uid
+     *            uid of the person
+     * @param localFilter
+     *            filter used to search the DN
+     * @param ldapTemplate
+     *            template of the replica to query
+     * @param attempt
+     *            recorder of the lookup phases
+     * @return attributes mapped from the DN entry, or null if not found
+     */
+    @SuppressWarnings("unchecked")
+    private ILockablePersonAttributes fetchPersonByDn(final String uid, final String localFilter,
+            final LdapTemplate ldapTemplate, final LookupStatistics.Attempt attempt) {
+
+        if (dnCache != null) {
+            final String cachedDN = dnCache.getDn(uid);
+            if (cachedDN != null) {
+                log.debug("user DN found in cache : {} fetching attributes", cachedDN);
+                final long start = System.nanoTime();
+                try {
+                    return (ILockablePersonAttributes) ldapTemplate.lookup(cachedDN, returnedAttributes,
+                            new PersonAttributeMapper(uid, attempt));
+                } catch (NameNotFoundException e) {
+                    log.debug("Cached DN {} not found anymore, searching again", cachedDN);
+                    dnCache.invalidate(uid);
+                } finally {
+                    attempt.record(Phase.LOOKUP, System.nanoTime() - start);
+                }
+            }
+        }
+
+        final long searchStart = System.nanoTime();
+        final List<String> userDN;
+        try {
+            userDN = ldapTemplate.search(baseDN, localFilter, sc, new DnFetcher());
+        } finally {
+            attempt.record(Phase.SEARCH, System.nanoTime() - searchStart);
+        }
+        if (userDN.isEmpty()) {
+            return null;
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("user DN found : " + userDN.get(0) + " fetching attributes");
+        }
+        if (dnCache != null) {
+            dnCache.putDn(uid, userDN.get(0));
+        }
+        final long lookupStart = System.nanoTime();
+        try {
+            return (ILockablePersonAttributes) ldapTemplate.lookup(userDN.get(0), returnedAttributes,
+                    new PersonAttributeMapper(uid, attempt));
+        } finally {
+            attempt.record(Phase.LOOKUP, System.nanoTime() - lookupStart);
+        }
+    }
+
+    /**
+     * Run the processors chain on freshly mapped attributes, then lock them (or freeze them if compactAttributes is set).
+     * 
+     * @param result
+     *            attributes returned by PersonAttributeMapper (may be null)
+     * @return locked attributes, or null
+     */
+    protected ILockablePersonAttributes processAndLock(final ILockablePersonAttributes result) {
+
+        if (result == null) {
+            return null;
+        }
+
+        // Process attributes if needed
+        final Map<String, List<Object>> attrs = result.getAttributes();
+        final int processorCount = processorPipeline.size();
+        for (int i = 0; i < processorCount; i++) {
+            final long start = System.nanoTime();
+            processorPipeline.process(i, attrs);
+            statistics.recordProcessor(i, System.nanoTime() - start);
+        }
+        // Lock the result before returning it
+        final long lockStart = System.nanoTime();
+        final ILockablePersonAttributes locked;
+        if (compactAttributes) {
+            locked = CompactPersonAttributes.freeze(result.getName(), attributeSchema, attrs);
+        } else {
+            result.lock();
+            locked = result;
+        }
+        statistics.record(Phase.LOCK, System.nanoTime() - lockStart);
+        return locked;
+    }
+
+    /**
+     * Resolve several persons at once. Uids are split in chunks of batchSize, each chunk being queried with one OR filter
+     * built from ldapFilter, and up to batchParallelism chunks are queried concurrently. Cached uids are not queried.
+     * 
+     * @param uids
+     *            uids of the persons
+     * @return map from uid to locked attributes. Uids not found are absent from the map.
+     */
+    public Map<String, ILockablePersonAttributes> getPeople(final Collection<String> uids) {
+
+        final Map<String, ILockablePersonAttributes> results = new HashMap<String, ILockablePersonAttributes>(
+                uids.size() * 4 / 3 + 1);
+        final Map<String, String> pendingUids = new HashMap<String, String>(uids.size() * 4 / 3 + 1);
+        final List<String> serialUids = new ArrayList<String>();
+
+        for (final String uid : uids) {
+            if ((uid == null) || (uid.length() == 0) || results.containsKey(uid)) {
+                continue;
+            }
+            if (cache != null) {
+                final PersonAttributesCache.CacheEntry entry = cache.get(uid);
+                if (entry != null) {
+                    if (!entry.isNegative()) {
+                        results.put(uid, entry.getPerson());
+                    }
+                    continue;
+                }
+            }
+            if (uidAttribute == null) {
+                serialUids.add(uid);
+            } else {
+                // Directory matching of uids is usually case insensitive, uids differing only by case are queried apart
+                final String key = uid.toLowerCase(Locale.ROOT);
+                if (pendingUids.containsKey(key)) {
+                    if (!uid.equals(pendingUids.get(key))) {
+                        serialUids.add(uid);
+                    }
+                } else {
+                    pendingUids.put(key, uid);
+                }
+            }
+        }
+
+        if (!pendingUids.isEmpty()) {
+            final List<Map<String, String>> chunks = new ArrayList<Map<String, String>>(pendingUids.size() / batchSize + 1);
+            Map<String, String> chunk = null;
+            for (final Map.Entry<String, String> pending : pendingUids.entrySet()) {
+                if ((chunk == null) || (chunk.size() == batchSize)) {
+                    chunk = new HashMap<String, String>(Math.min(batchSize, pendingUids.size()) * 4 / 3 + 1);
+                    chunks.add(chunk);
+                }
+                chunk.put(pending.getKey(), pending.getValue());
+            }
+            if (log.isDebugEnabled()) {
+                log.debug("getPeople : {} uid(s) to query in {} chunk(s)", pendingUids.size(), chunks.size());
+            }
+
+            if ((batchExecutor == null) || (chunks.size() == 1)) {
+                for (final Map<String, String> uidChunk : chunks) {
+                    results.putAll(fetchChunk(uidChunk));
+                }
+            } else {
+                final List<Callable<Map<String, ILockablePersonAttributes>>> tasks = new ArrayList<Callable<Map<String, ILockablePersonAttributes>>>(
+                        chunks.size());
+                for (final Map<String, String> uidChunk : chunks) {
+                    tasks.add(new Callable<Map<String, ILockablePersonAttributes>>() {
+
+                        @Override
+                        public Map<String, ILockablePersonAttributes> call() throws Exception {
+
+                            return fetchChunk(uidChunk);
+                        }
+                    });
+                }
+                try {
+                    for (final Future<Map<String, ILockablePersonAttributes>> future : batchExecutor.invokeAll(tasks)) {
+                        results.putAll(future.get());
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new UncategorizedLdapException("Interrupted while waiting for batch results", e);
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof RuntimeException) {
+                        throw (RuntimeException) e.getCause();
+                    }
+                    throw new UncategorizedLdapException("Batch query failed", e.getCause());
+                }
+            }
+        }
+
+        for (final String uid : serialUids) {
+            final ILockablePersonAttributes person = getPerson(uid);
+            if (person != null) {
+                results.put(uid, person);
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * Query one chunk of uids with an OR filter, and match returned entries back to their uid
+     * 
+     * @param uidChunk
+     *            map from lower cased uid to requested uid
+     * @return map from requested uid to locked attributes
+     */
+    @SuppressWarnings("unchecked")
+    protected Map<String, ILockablePersonAttributes> fetchChunk(final Map<String, String> uidChunk) {
+
+        final boolean wrap = !filterTemplate.isParenthesized();
+        final StringBuilder sb = new StringBuilder(uidChunk.size() * (ldapFilter.length() + 16) + 3);
+        sb.append("(|");
+        for (final String uid : uidChunk.values()) {
+            if (wrap) {
+                sb.append('(');
+            }
+            filterTemplate.appendTo(sb, uid);
+            if (wrap) {
+                sb.append(')');
+            }
+        }
+        sb.append(')');
+        final String chunkFilter = sb.toString();
+
+        if (log.isDebugEnabled()) {
+            log.debug("fetchChunk SearchFilter : {}", chunkFilter);
+        }
+
+        final Map<String, ILockablePersonAttributes> results = new HashMap<String, ILockablePersonAttributes>(
+                uidChunk.size() * 4 / 3 + 1);
+
+        final List<Map.Entry<String, ILockablePersonAttributes>> entries;
+        try {
+            entries = searchEntries(chunkFilter, uidChunk);
+        } catch (RuntimeException e) {
+            if ((staleStore == null) || !isDirectoryFailure(e)) {
+                throw e;
+            }
+            log.warn("Directory unavailable ({}), serving last known attributes of {} uid(s)", e.getMessage(), uidChunk.size());
+            for (final String uid : uidChunk.values()) {
+                final ILockablePersonAttributes stale = getStalePerson(uid);
+                if (stale != null) {
+                    results.put(uid, stale);
+                }
+            }
+            return results;
+        }
+
+        for (final Map.Entry<String, ILockablePersonAttributes> entry : entries) {
+            if (results.containsKey(entry.getKey())) {
+                continue;
+            }
+            final ILockablePersonAttributes person = processAndLock(entry.getValue());
+            if (person != null) {
+                results.put(entry.getKey(), person);
+                if (staleStore != null) {
+                    staleStore.putPerson(entry.getKey(), staleCopy(person));
+                }
+            }
+        }
+
+        // Uids without a matched entry are not cached as not found : the entry may exist but not be matched back to its uid
+        // (eg : uidAttribute value differing from the uid by more than case)
+        if (cache != null) {
+            for (final Map.Entry<String, ILockablePersonAttributes> result : results.entrySet()) {
+                cache.put(result.getKey(), result.getValue());
+            }
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("fetchChunk : {} of {} uid(s) found", results.size(), uidChunk.size());
+        }
+
+        return results;
+    }
+
+    /**
+     * Search entries with a filter on a replica, mapped by BatchEntryMapper, each entry DN being read if fetchDirectDn is set.
+     * 
+     * @param filter
+     *            search filter
+     * @param uidChunk
+     *            map from lower cased uid to requested uid, or null to name entries after their uidAttribute value
+     * @return list of uid and unprocessed attributes
+     */
+    private List<Map.Entry<String, ILockablePersonAttributes>> searchEntries(final String filter,
+            final Map<String, String> uidChunk) {
+
+        return execute(replicaRouter.select(), new DirectoryOperation<List<Map.Entry<String, ILockablePersonAttributes>>>() {
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public List<Map.Entry<String, ILockablePersonAttributes>> run(final LdapTemplate ldapTemplate) {
+
+                final List<Map.Entry<String, Object>> entries = ldapTemplate.search(baseDN, filter, batchSc,
+                        new BatchEntryMapper(uidChunk));
+                final List<Map.Entry<String, ILockablePersonAttributes>> results = new ArrayList<Map.Entry<String, ILockablePersonAttributes>>(
+                        entries.size());
+                for (final Map.Entry<String, Object> entry : entries) {
+                    if (entry == null) {
+                        continue;
+                    }
+                    ILockablePersonAttributes person;
+                    if (fetchDirectDn) {
+                        if (dnCache != null) {
+                            dnCache.putDn(entry.getKey(), (String) entry.getValue());
+                        }
+                        try {
+                            person = (ILockablePersonAttributes) ldapTemplate.lookup((String) entry.getValue(),
+                                    returnedAttributes, new PersonAttributeMapper(entry.getKey()));
+                        } catch (NameNotFoundException e) {
+                            log.debug("Catched while retrieving result : {}", e.getMessage());
+                            continue;
+                        }
+                    } else {
+                        person = (ILockablePersonAttributes) entry.getValue();
+                    }
+                    results.add(new AbstractMap.SimpleImmutableEntry<String, ILockablePersonAttributes>(entry.getKey(), person));
+                }
+                return results;
+            }
+        });
+    }
+
+    /**
+     * Query the directory with attribute values. See getPeopleWithMultivaluedAttributes.
+     */
+    @Override
+    public Set<IPersonAttributes> getPeople(final Map<String, Object> query) {
+
+        if (query == null) {
+            return null;
+        }
+        final Map<String, List<Object>> multivaluedQuery = new HashMap<String, List<Object>>(query.size() * 4 / 3 + 1);
+        for (final Map.Entry<String, Object> queryEntry : query.entrySet()) {
+            final Object value = queryEntry.getValue();
+            if (value instanceof List<?>) {
+                @SuppressWarnings("unchecked")
+                final List<Object> values = (List<Object>) value;
+                multivaluedQuery.put(queryEntry.getKey(), values);
+            } else {
+                multivaluedQuery.put(queryEntry.getKey(), Arrays.asList(value));
+            }
+        }
+        return getPeopleWithMultivaluedAttributes(multivaluedQuery);
+    }
+
+    /**
+     * Query the directory with attribute values. Query attribute names are result attribute names (see
+     * getAvailableQueryAttributes), mapped back to LDAP attribute names through resultAttributeMapping. The usernameAttribute
+     * is resolved with ldapFilter. Values of one attribute are OR-combined, attributes are AND-combined, every value being
+     * escaped. Unknown query attributes are ignored. Results do not feed the getPerson cache, as entries matched by a query
+     * may be excluded by ldapFilter.
+     * 
+     * @return set of locked person attributes, or null if no query attribute is supported
+     */
+    @Override
+    public Set<IPersonAttributes> getPeopleWithMultivaluedAttributes(final Map<String, List<Object>> query) {
+
+        if (query == null) {
+            return null;
+        }
+
+        final StringBuilder sb = new StringBuilder(64 * query.size());
+        int assertions = 0;
+        sb.append("(&");
+        for (final Map.Entry<String, List<Object>> queryEntry : query.entrySet()) {
+            final boolean isUsername = queryEntry.getKey().equals(usernameAttribute);
+            final String ldapAttribute = queryAttributeMapping.get(queryEntry.getKey());
+            if ((!isUsername && (ldapAttribute == null)) || (queryEntry.getValue() == null)) {
+                log.debug("Query attribute {} not supported, ignored", queryEntry.getKey());
+                continue;
+            }
+            final int mark = sb.length();
+            int values = 0;
+            sb.append("(|");
+            for (final Object value : queryEntry.getValue()) {
+                if (value == null) {
+                    continue;
+                }
+                if (isUsername) {
+                    final boolean wrap = !filterTemplate.isParenthesized();
+                    if (wrap) {
+                        sb.append('(');
+                    }
+                    filterTemplate.appendTo(sb, value.toString());
+                    if (wrap) {
+                        sb.append(')');
+                    }
+                } else {
+                    sb.append('(').append(ldapAttribute).append('=');
+                    LdapFilterTemplate.escape(sb, value.toString());
+                    sb.append(')');
+                }
+                values++;
+            }
+            if (values == 0) {
+                sb.setLength(mark);
+            } else {
+                sb.append(')');
+                assertions++;
+            }
+        }
+        sb.append(')');
+
+        if (assertions == 0) {
+            log.debug("No supported attribute in query {}, returning null", query);
+            return null;
+        }
+        final String queryFilter = sb.toString();
+        if (log.isDebugEnabled()) {
+            log.debug("getPeopleWithMultivaluedAttributes SearchFilter : {}", queryFilter);
+        }
+
+        final List<Map.Entry<String, ILockablePersonAttributes>> entries = searchEntries(queryFilter, null);
+        final Set<IPersonAttributes> results = new HashSet<IPersonAttributes>(entries.size() * 4 / 3 + 1);
+        for (final Map.Entry<String, ILockablePersonAttributes> entry : entries) {
+            final ILockablePersonAttributes person = processAndLock(entry.getValue());
+            if (person != null) {
+                results.add(person);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Return a list of returned attributes.
+     */
+    @Override
+    public Set<String> getPossibleUserAttributeNames() {
+
+        // Process attribute names to map them
+        String sourceAttributeName;
+        String targetAttributeName;
+
+        Iterator<String> iter = queriedAttributesSet.iterator();
+
+        Set<String> possibleAttributenames = new HashSet<String>();
+
+        while (iter.hasNext()) {
+            sourceAttributeName = iter.next();
+            if ((targetAttributeName = resultAttributeMapping.get(sourceAttributeName)) != null) {
+                possibleAttributenames.add(targetAttributeName);
+            } else {
+                possibleAttributenames.add(sourceAttributeName);
+            }
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("possible AttributeNames Set before processors : {}", Arrays.toString(possibleAttributenames.toArray()));
+        }
+        for (IAttributesProcessor processor : processors) {
+            final Set<String> processorAttributeNames = processor.getPossibleUserAttributeNames();
+            if (processorAttributeNames != null) {
                 possibleAttributenames.addAll(processorAttributeNames);
             }
         }
@@ -288,12 +1596,35 @@ public class LdapPersonAttributeDao implements IPersonAttributeDao, Initializing
     }
 
     /**
-     * As the LDAP filter is provided, this implementation cannot provides the set of supported query attributes : returning null.
+     * Return the attribute names supported by getPeople(Map) queries : usernameAttribute, and every queried attribute under its
+     * result (mapped) name.
      */
     @Override
     public Set<String> getAvailableQueryAttributes() {
 
-        return null;
+        // Before afterPropertiesSet, computed from the current configuration
+        final Map<String, String> mapping = (queryAttributeMapping == null ? createQueryAttributeMapping()
+                : queryAttributeMapping);
+        final Set<String> queryAttributes = new HashSet<String>(mapping.keySet());
+        queryAttributes.add(usernameAttribute);
+        return queryAttributes;
+    }
+
+    /**
+     * Attribute queries use result attribute names, mapped back to LDAP attribute names
+     * 
+     * @return map from result attribute name to LDAP attribute name, for every queried attribute
+     */
+    private Map<String, String> createQueryAttributeMapping() {
+
+        final Set<String> attributes = new HashSet<String>(queriedAttributes);
+        attributes.addAll(resultAttributeMapping.keySet());
+        final Map<String, String> mapping = new HashMap<String, String>(attributes.size() * 4 / 3 + 1);
+        for (final String attribute : attributes) {
+            final String resultAttribute = resultAttributeMapping.get(attribute);
+            mapping.put(resultAttribute == null ? attribute : resultAttribute, attribute);
+        }
+        return mapping;
     }
 
     /**
@@ -345,18 +1676,69 @@ public class LdapPersonAttributeDao implements IPersonAttributeDao, Initializing
 
     // Setters and getters
 
-    public ContextSource getContextSource() {
+    public ContextSource getContextSource() {
+
+        return contextSource;
+    }
+
+    public void setContextSource(final ContextSource contextSource) {
+
+        if (contextSource == null) {
+            throw new IllegalArgumentException("contextSource cannot be null");
+        }
+
+        this.contextSource = contextSource;
+    }
+
+    public List<ContextSource> getContextSources() {
+
+        return contextSources;
+    }
+
+    public void setContextSources(final List<ContextSource> contextSources) {
+
+        if (contextSources == null) {
+            throw new IllegalArgumentException("contextSources cannot be null");
+        }
+        this.contextSources = contextSources;
+    }
+
+    public double getReplicaLatencyWeight() {
+
+        return replicaLatencyWeight;
+    }
+
+    public void setReplicaLatencyWeight(final double replicaLatencyWeight) {
+
+        this.replicaLatencyWeight = replicaLatencyWeight;
+    }
+
+    public double getReplicaMaxErrorRate() {
+
+        return replicaMaxErrorRate;
+    }
+
+    public void setReplicaMaxErrorRate(final double replicaMaxErrorRate) {
+
+        this.replicaMaxErrorRate = replicaMaxErrorRate;
+    }
+
+    public long getReplicaRetryInterval() {
 
-        return contextSource;
+        return replicaRetryInterval;
     }
 
-    public void setContextSource(final ContextSource contextSource) {
+    public void setReplicaRetryInterval(final long replicaRetryInterval) {
 
-        if (contextSource == null) {
-            throw new IllegalArgumentException("contextSource cannot be null");
-        }
+        this.replicaRetryInterval = replicaRetryInterval;
+    }
 
-        this.contextSource = contextSource;
+    /**
+     * @return replicas with their latency and error statistics (available after afterPropertiesSet)
+     */
+    public List<LdapReplica> getReplicas() {
+
+        return (replicaRouter == null ? Collections.<LdapReplica> emptyList() : replicaRouter.getReplicas());
     }
 
     public Map<String, String> getResultAttributeMapping() {
@@ -439,6 +1821,37 @@ public class LdapPersonAttributeDao implements IPersonAttributeDao, Initializing
         this.queriedAttributes = queriedAttributes;
     }
 
+    public List<String> getLazyAttributes() {
+
+        return lazyAttributes;
+    }
+
+    /**
+     * Queried attributes to fetch on demand only (eg : jpegPhoto, userCertificate). Their values are not returned by person
+     * queries, but loaded together by a base lookup of the entry DN the first time one of them is read. Lazy values cannot be
+     * modified : attributes read by a targeted processor (ITargetedAttributesProcessor) are fetched with the other attributes
+     * instead, processors which are not targeted must not modify lazy values in place. Copies kept by the staleStore hold no lazy
+     * attributes.
+     * 
+     * @param lazyAttributes
+     *            LDAP names of lazy attributes, which must be queried attributes
+     */
+    public void setLazyAttributes(final List<String> lazyAttributes) {
+
+        if (lazyAttributes == null) {
+            throw new IllegalArgumentException("lazyAttributes cannot be null");
+        }
+        this.lazyAttributes = lazyAttributes;
+    }
+
+    /**
+     * @return number of base lookups run to load lazy attributes
+     */
+    public long getLazyLoadCount() {
+
+        return lazyLoadCount.get();
+    }
+
     public List<IAttributesProcessor> getProcessors() {
 
         return processors;
@@ -482,30 +1895,294 @@ public class LdapPersonAttributeDao implements IPersonAttributeDao, Initializing
         this.fetchDirectDn = fetchDirectDn;
     }
 
+    public int getAsyncPoolSize() {
+
+        return asyncPoolSize;
+    }
+
+    public void setAsyncPoolSize(final int asyncPoolSize) {
+
+        this.asyncPoolSize = asyncPoolSize;
+    }
+
+    public int getAsyncQueueSize() {
+
+        return asyncQueueSize;
+    }
+
+    public void setAsyncQueueSize(final int asyncQueueSize) {
+
+        this.asyncQueueSize = asyncQueueSize;
+    }
+
+    public long getAsyncTimeout() {
+
+        return asyncTimeout;
+    }
+
+    public void setAsyncTimeout(final long asyncTimeout) {
+
+        this.asyncTimeout = asyncTimeout;
+    }
+
+    public boolean isAsyncVirtualThreads() {
+
+        return asyncVirtualThreads;
+    }
+
+    public void setAsyncVirtualThreads(final boolean asyncVirtualThreads) {
+
+        this.asyncVirtualThreads = asyncVirtualThreads;
+    }
+
+    public boolean isCoalesceRequests() {
+
+        return coalesceRequests;
+    }
+
+    public void setCoalesceRequests(final boolean coalesceRequests) {
+
+        this.coalesceRequests = coalesceRequests;
+    }
+
+    /**
+     * @return number of getPerson calls which reused the result of a concurrent call for the same uid
+     */
+    public long getCoalescedRequestCount() {
+
+        return inFlightRequests.getCoalescedCount();
+    }
+
+    public boolean isHedgeRequests() {
+
+        return hedgeRequests;
+    }
+
+    public void setHedgeRequests(final boolean hedgeRequests) {
+
+        this.hedgeRequests = hedgeRequests;
+    }
+
+    public long getHedgeDelay() {
+
+        return hedgeDelay;
+    }
+
+    public void setHedgeDelay(final long hedgeDelay) {
+
+        this.hedgeDelay = hedgeDelay;
+    }
+
+    public int getHedgePoolSize() {
+
+        return hedgePoolSize;
+    }
+
+    public void setHedgePoolSize(final int hedgePoolSize) {
+
+        this.hedgePoolSize = hedgePoolSize;
+    }
+
+    /**
+     * @return number of lookups sent to a second replica
+     */
+    public long getHedgedRequestCount() {
+
+        return hedgedRequestCount.get();
+    }
+
+    /**
+     * @return number of hedged lookups answered first by the second replica
+     */
+    public long getHedgeWinCount() {
+
+        return hedgeWinCount.get();
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+
+        return circuitBreaker;
+    }
+
+    public void setCircuitBreaker(final CircuitBreaker circuitBreaker) {
+
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    public StalePersonStore getStaleStore() {
+
+        return staleStore;
+    }
+
+    public void setStaleStore(final StalePersonStore staleStore) {
+
+        this.staleStore = staleStore;
+    }
+
+    /**
+     * @return number of stale persons served because the directory could not be queried
+     */
+    public long getStaleServedCount() {
+
+        return staleServedCount.get();
+    }
+
+    public boolean isCompactAttributes() {
+
+        return compactAttributes;
+    }
+
+    public void setCompactAttributes(final boolean compactAttributes) {
+
+        this.compactAttributes = compactAttributes;
+    }
+
+    public boolean isShareDirectoryValues() {
+
+        return shareDirectoryValues;
+    }
+
+    public void setShareDirectoryValues(final boolean shareDirectoryValues) {
+
+        this.shareDirectoryValues = shareDirectoryValues;
+    }
+
+    /**
+     * @return slot layout of CompactPersonAttributes, null before afterPropertiesSet
+     */
+    public AttributeSchema getAttributeSchema() {
+
+        return attributeSchema;
+    }
+
+    /**
+     * @return latency of each lookup phase, and lookup outcomes
+     */
+    public LookupStatistics getStatistics() {
+
+        return statistics;
+    }
+
+    public String getJmxObjectName() {
+
+        return jmxObjectName;
+    }
+
+    public void setJmxObjectName(final String jmxObjectName) {
+
+        this.jmxObjectName = jmxObjectName;
+    }
+
+    public String getDnTemplate() {
+
+        return dnTemplate;
+    }
+
+    public void setDnTemplate(final String dnTemplate) {
+
+        this.dnTemplate = dnTemplate;
+    }
+
+    public UidDnCache getDnCache() {
+
+        return dnCache;
+    }
+
+    public void setDnCache(final UidDnCache dnCache) {
+
+        this.dnCache = dnCache;
+    }
+
+    public int getBatchSize() {
+
+        return batchSize;
+    }
+
+    public void setBatchSize(final int batchSize) {
+
+        this.batchSize = batchSize;
+    }
+
+    public int getBatchParallelism() {
+
+        return batchParallelism;
+    }
+
+    public void setBatchParallelism(final int batchParallelism) {
+
+        this.batchParallelism = batchParallelism;
+    }
+
+    public String getUsernameAttribute() {
+
+        return usernameAttribute;
+    }
+
+    public void setUsernameAttribute(final String usernameAttribute) {
+
+        if (usernameAttribute == null) {
+            throw new IllegalArgumentException("usernameAttribute cannot be null");
+        }
+        this.usernameAttribute = usernameAttribute;
+    }
+
+    public PersonAttributesCache getCache() {
+
+        return cache;
+    }
+
+    public void setCache(final PersonAttributesCache cache) {
+
+        this.cache = cache;
+    }
+
     /**
-     * Private DAO class which creates personAttributes from LDAP response
+     * DAO class which creates personAttributes from LDAP response (package visible for benchmarks)
      * 
      * @author Philippe Marasse <philippe.marasse@laposte.net>
      * 
      */
-    private class PersonAttributeMapper implements ContextMapper {
+    class PersonAttributeMapper implements ContextMapper {
 
-        private String uid;
+        private String                         uid;
+
+        /**
+         * Recorder of the lookup phases, null to record mappings directly in the statistics
+         */
+        private final LookupStatistics.Attempt attempt;
 
         public PersonAttributeMapper(String uid) {
 
+            this(uid, null);
+        }
+
+        public PersonAttributeMapper(final String uid, final LookupStatistics.Attempt attempt) {
+
             this.uid = uid;
+            this.attempt = attempt;
         }
 
         @Override
         public Object mapFromContext(Object ctx) {
 
-            final DirContextAdapter context = (DirContextAdapter) ctx;
+            final long start = System.nanoTime();
+            final Object person = mapPerson((DirContextAdapter) ctx);
+            if (attempt == null) {
+            statistics.record(Phase.MAPPING, System.nanoTime() - start);
+            } else {
+                attempt.record(Phase.MAPPING, System.nanoTime() - start);
+            }
+            return person;
+        }
+
+        private Object mapPerson(final DirContextAdapter context) {
+
             if (log.isDebugEnabled()) {
                 log.debug("Attributes returned by context : {}", context.getAttributes().toString());
                 log.debug("Processing queried attributes : {}", Arrays.toString(queriedAttributesSet.toArray()));
             }
-            final Map<String, List<Object>> personAttrsMap = new HashMap<String, List<Object>>();
+            final Map<String, List<Object>> personAttrsMap = new CaseInsensitiveAttributeMap(
+                    queriedAttributesSet.size() + 1);
             String targetAttribute;
             List<Object> valuesToAdd;
 
@@ -538,14 +2215,17 @@ public class LdapPersonAttributeDao implements IPersonAttributeDao, Initializing
                 personAttrsMap.put(dnAttributeName, valuesDN);
             }
 
-            for (final String attribute : queriedAttributesSet) {
+            for (final String attribute : returnedAttributes) {
                 Object[] values = context.getObjectAttributes(attribute);
                 if (log.isDebugEnabled()) {
                     log.debug("Attribute : {}  values : {}", attribute, Arrays.toString(values));
                 }
                 if (values != null) {
-                    valuesToAdd = new ArrayList<Object>();
-                    valuesToAdd.addAll(Arrays.asList(values));
+                    if (shareDirectoryValues) {
+                        valuesToAdd = new SharedValueList(values);
+                    } else {
+                        valuesToAdd = new ArrayList<Object>(Arrays.asList(values));
+                    }
                     if ((targetAttribute = resultAttributeMapping.get(attribute)) == null) {
                         personAttrsMap.put(attribute, valuesToAdd);
                     } else {
@@ -553,10 +2233,155 @@ public class LdapPersonAttributeDao implements IPersonAttributeDao, Initializing
                     }
                 }
             }
+
+            if (lazyAttributeNames.length > 0) {
+                final LazyEntry lazyEntry = new LazyEntry(lazyFetcher, context.getDn().toString(), lazyAttributeNames);
+                for (int i = 0; i < lazyAttributeNames.length; i++) {
+                    personAttrsMap.put(lazyResultNames[i], new LazyValueList(lazyEntry, i));
+                }
+            }
             return new PersonAttributesImpl(uid, personAttrsMap);
         }
     }
 
+    /**
+     * Fetches lazy attributes of an entry with a base lookup of its DN, on a replica chosen by the router
+     */
+    private class LazyAttributeFetcher implements LazyEntry.Loader {
+
+        @Override
+        public Object[][] load(final String dn, final String[] attributes) {
+
+            lazyLoadCount.incrementAndGet();
+            final long start = System.nanoTime();
+            try {
+                return execute(replicaRouter.select(), new DirectoryOperation<Object[][]>() {
+
+                    @Override
+                    public Object[][] run(final LdapTemplate ldapTemplate) {
+
+                        return (Object[][]) ldapTemplate.lookup(dn, attributes, new ContextMapper() {
+
+                            @Override
+                            public Object mapFromContext(final Object ctx) {
+
+                                final DirContextAdapter context = (DirContextAdapter) ctx;
+                                final Object[][] values = new Object[attributes.length][];
+                                for (int i = 0; i < attributes.length; i++) {
+                                    values[i] = context.getObjectAttributes(attributes[i]);
+                                }
+                                return values;
+                            }
+                        });
+                    }
+                });
+            } finally {
+                statistics.record(Phase.LAZY_LOAD, System.nanoTime() - start);
+            }
+        }
+    }
+
+    /**
+     * One of the lookups of queryHedged
+     */
+    private class HedgedLookup implements Callable<ILockablePersonAttributes> {
+
+        private final String                   uid;
+
+        private final LdapReplica              replica;
+
+        /**
+         * Phases of this lookup, committed only if it answers
+         */
+        private final LookupStatistics.Attempt attempt = statistics.newAttempt();
+
+        public HedgedLookup(final String uid, final LdapReplica replica) {
+
+            this.uid = uid;
+            this.replica = replica;
+        }
+
+        @Override
+        public ILockablePersonAttributes call() throws Exception {
+
+            return queryReplica(uid, replica, attempt);
+        }
+    }
+
+    /**
+     * Directory operation run on a replica by execute
+     */
+    private interface DirectoryOperation<T> {
+
+        T run(LdapTemplate ldapTemplate);
+    }
+
+    /**
+     * ContextMapper used by batch and attribute queries : finds the uid of each entry from its uidAttribute values, then maps
+     * the entry either to its attributes, or to its DN when fetchDirectDn is set. Without requested uids, the first uidAttribute
+     * value (or the entry DN) is used as uid.
+     */
+    private class BatchEntryMapper implements ContextMapper {
+
+        private final Map<String, String> uidChunk;
+
+        public BatchEntryMapper(final Map<String, String> uidChunk) {
+
+            this.uidChunk = uidChunk;
+        }
+
+        @Override
+        public Object mapFromContext(final Object ctx) {
+
+            final DirContextAdapter context = (DirContextAdapter) ctx;
+            final String[] values = (uidAttribute == null ? null : context.getStringAttributes(uidAttribute));
+            if (uidChunk == null) {
+                final String uid = ((values == null) || (values.length == 0) ? context.getDn().toString() : values[0]);
+                return new AbstractMap.SimpleImmutableEntry<String, Object>(uid, mapEntry(ctx, uid));
+            }
+            if (values == null) {
+                log.debug("Batch entry {} has no {} attribute, ignored", context.getDn(), uidAttribute);
+                return null;
+            }
+            for (final String value : values) {
+                final String uid = uidChunk.get(value.toLowerCase(Locale.ROOT));
+                if (uid != null) {
+                    return new AbstractMap.SimpleImmutableEntry<String, Object>(uid, mapEntry(ctx, uid));
+                }
+            }
+            log.debug("Batch entry {} does not match any requested uid, ignored", context.getDn());
+            return null;
+        }
+
+        private Object mapEntry(final Object ctx, final String uid) {
+
+            return (fetchDirectDn ? new DnFetcher().mapFromContext(ctx) : new PersonAttributeMapper(uid).mapFromContext(ctx));
+        }
+    }
+
+    /**
+     * Creates named daemon threads, so that executors never prevent the JVM from exiting
+     */
+    protected static class DaemonThreadFactory implements ThreadFactory {
+
+        private final String        prefix;
+
+        private final AtomicInteger counter = new AtomicInteger();
+
+        public DaemonThreadFactory(final String prefix) {
+
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(final Runnable r) {
+
+            final Thread thread = new Thread(r, prefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
     /**
      * A simple ContextMapper to only fetch DN of result objects.
      * 
@@ -0,0 +1,167 @@
+package net.archigny.cas.persondir.ldap;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.ldap.core.LdapTemplate;
+
+/**
+ * One directory replica used by LdapPersonAttributeDao, with its health statistics : exponentially weighted moving averages
+ * (EWMA) of latency and error rate, and the number of operations in flight.
+ */
+public class LdapReplica {
+
+    /**
+     * Name of the replica (used in logs and statistics)
+     */
+    private final String        name;
+
+    /**
+     * Ldap template querying this replica
+     */
+    private final LdapTemplate  ldapTemplate;
+
+    /**
+     * Weight of the last observation in moving averages (0 < weight <= 1)
+     */
+    private final double        weight;
+
+    /**
+     * Moving average of operation latency, in milliseconds, guarded by this
+     */
+    private double              latencyEwma;
+
+    /**
+     * Moving average of error rate (0 => no error, 1 => every operation fails), guarded by this
+     */
+    private double              errorRateEwma;
+
+    /**
+     * Time of the last failure, in milliseconds
+     */
+    private volatile long       lastFailureTime;
+
+    private final AtomicInteger inFlight       = new AtomicInteger();
+
+    private final AtomicLong    operationCount = new AtomicLong();
+
+    private final AtomicLong    errorCount     = new AtomicLong();
+
+    public LdapReplica(final String name, final LdapTemplate ldapTemplate, final double weight) {
+
+        if ((weight <= 0) || (weight > 1)) {
+            throw new IllegalArgumentException("weight must be in ]0, 1]");
+        }
+        this.name = name;
+        this.ldapTemplate = ldapTemplate;
+        this.weight = weight;
+    }
+
+    /**
+     * Mark the beginning of an operation on this replica
+     */
+    public void begin() {
+
+        inFlight.incrementAndGet();
+    }
+
+    /**
+     * Mark the end of an operation on this replica, and update statistics
+     *
+     * @param elapsedNanos
+     *            duration of the operation, in nanoseconds
+     * @param failed
+     *            true if the operation failed because of the replica (communication error, time limit...)
+     */
+    public void end(final long elapsedNanos, final boolean failed) {
+
+        inFlight.decrementAndGet();
+        operationCount.incrementAndGet();
+        final double elapsedMillis = (double) elapsedNanos / TimeUnit.MILLISECONDS.toNanos(1);
+        synchronized (this) {
+            latencyEwma += weight * (elapsedMillis - latencyEwma);
+            errorRateEwma += weight * ((failed ? 1.0 : 0.0) - errorRateEwma);
+        }
+        if (failed) {
+            errorCount.incrementAndGet();
+            lastFailureTime = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * A replica is healthy while its error rate stays under maxErrorRate. An unhealthy replica is given another chance once
+     * retryInterval has elapsed since its last failure.
+     *
+     * @param maxErrorRate
+     *            error rate over which the replica is considered unhealthy
+     * @param retryInterval
+     *            time after the last failure when an unhealthy replica is tried again, in milliseconds
+     * @param now
+     *            current time, in milliseconds
+     * @return true if the replica may be used
+     */
+    public boolean isHealthy(final double maxErrorRate, final long retryInterval, final long now) {
+
+        return (getErrorRate() < maxErrorRate) || (now - lastFailureTime >= retryInterval);
+    }
+
+    /**
+     * Routing score, lower is better : expected latency, weighted by the operations already waiting on this replica.
+     *
+     * @return score of the replica
+     */
+    public double getScore() {
+
+        return (getLatency() + 1.0) * (inFlight.get() + 1);
+    }
+
+    public String getName() {
+
+        return name;
+    }
+
+    public LdapTemplate getLdapTemplate() {
+
+        return ldapTemplate;
+    }
+
+    /**
+     * @return moving average of latency, in milliseconds
+     */
+    public synchronized double getLatency() {
+
+        return latencyEwma;
+    }
+
+    /**
+     * @return moving average of error rate, between 0 and 1
+     */
+    public synchronized double getErrorRate() {
+
+        return errorRateEwma;
+    }
+
+    public int getInFlight() {
+
+        return inFlight.get();
+    }
+
+    public long getOperationCount() {
+
+        return operationCount.get();
+    }
+
+    public long getErrorCount() {
+
+        return errorCount.get();
+    }
+
+    @Override
+    public String toString() {
+
+        return "LdapReplica [name=" + name + ", latency=" + getLatency() + "ms, errorRate=" + getErrorRate() + ", inFlight="
+                + getInFlight() + "]";
+    }
+
+}
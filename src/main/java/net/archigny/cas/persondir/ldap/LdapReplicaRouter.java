@@ -0,0 +1,101 @@
+package net.archigny.cas.persondir.ldap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Routes each directory operation to a replica. Among healthy replicas, two are drawn at random and the one with the best score
+ * (latency weighted by operations in flight) is chosen : load is spread over every replica, while slow or busy replicas get
+ * less traffic, and routing follows changing conditions as moving averages evolve.
+ */
+public class LdapReplicaRouter {
+
+    private final List<LdapReplica> replicas;
+
+    /**
+     * Error rate over which a replica is considered unhealthy
+     */
+    private final double            maxErrorRate;
+
+    /**
+     * Time after the last failure when an unhealthy replica is tried again, in milliseconds
+     */
+    private final long              retryInterval;
+
+    private final Random            random = new Random();
+
+    public LdapReplicaRouter(final List<LdapReplica> replicas, final double maxErrorRate, final long retryInterval) {
+
+        if ((replicas == null) || replicas.isEmpty()) {
+            throw new IllegalArgumentException("At least one replica is needed");
+        }
+        this.replicas = Collections.unmodifiableList(new ArrayList<LdapReplica>(replicas));
+        this.maxErrorRate = maxErrorRate;
+        this.retryInterval = retryInterval;
+    }
+
+    /**
+     * @return the replica to use for the next operation
+     */
+    public LdapReplica select() {
+
+        return selectExcluding(null);
+    }
+
+    /**
+     * Select a replica other than the one given, unless it is the only replica
+     *
+     * @param excluded
+     *            replica to avoid (may be null)
+     * @return the replica to use for the next operation
+     */
+    public LdapReplica selectExcluding(final LdapReplica excluded) {
+
+        final int size = replicas.size();
+        if (size == 1) {
+            return replicas.get(0);
+        }
+
+        final long now = System.currentTimeMillis();
+        final List<LdapReplica> candidates = new ArrayList<LdapReplica>(size);
+        for (final LdapReplica replica : replicas) {
+            if ((replica != excluded) && replica.isHealthy(maxErrorRate, retryInterval, now)) {
+                candidates.add(replica);
+            }
+        }
+        if (candidates.isEmpty()) {
+            // No healthy replica : use the least bad one rather than failing
+            LdapReplica best = null;
+            for (final LdapReplica replica : replicas) {
+                if ((replica != excluded) && ((best == null) || (replica.getErrorRate() < best.getErrorRate()))) {
+                    best = replica;
+                }
+            }
+            return best;
+        }
+        if (candidates.size() == 1) {
+            return candidates.get(0);
+        }
+
+        // Power of two choices
+        final int first = random.nextInt(candidates.size());
+        int second = random.nextInt(candidates.size() - 1);
+        if (second >= first) {
+            second++;
+        }
+        final LdapReplica a = candidates.get(first);
+        final LdapReplica b = candidates.get(second);
+        return (a.getScore() <= b.getScore() ? a : b);
+    }
+
+    /**
+     * @return replicas, with their statistics
+     */
+    public List<LdapReplica> getReplicas() {
+
+        return replicas;
+    }
+
+}
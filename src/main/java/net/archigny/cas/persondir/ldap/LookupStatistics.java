@@ -0,0 +1,339 @@
+package net.archigny.cas.persondir.ldap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ReflectionException;
+
+/**
+ * Latency of each phase of LdapPersonAttributeDao lookups, and lookup outcomes, published as a JMX MBean.<br />
+ * For each phase, the MBean exposes <code>&lt;phase&gt;.count</code>, <code>.mean</code>, <code>.p50</code>,
+ * <code>.p95</code>, <code>.p99</code>, <code>.p999</code> and <code>.max</code> attributes, latencies being in milliseconds.
+ * Search and lookup phases include the mapping of returned entries, which is also measured on its own. Phases of a hedged
+ * lookup are only recorded for the attempt which answered (see Attempt).
+ */
+public class LookupStatistics implements DynamicMBean {
+
+    /**
+     * Phases of a lookup
+     */
+    public enum Phase {
+        /** Whole getPerson directory lookup */
+        TOTAL("total"),
+        /** Search filter build */
+        FILTER("filter"),
+        /** Directory search */
+        SEARCH("search"),
+        /** Read of an entry by DN (fetchDirectDn or dnTemplate) */
+        LOOKUP("lookup"),
+        /** Mapping of an entry to person attributes */
+        MAPPING("mapping"),
+        /** Read of the lazy attributes of an entry, the first time one of them is read */
+        LAZY_LOAD("lazyLoad"),
+        /** Lock of person attributes */
+        LOCK("lock");
+
+        private final String attributeName;
+
+        private Phase(final String attributeName) {
+
+            this.attributeName = attributeName;
+        }
+
+        public String getAttributeName() {
+
+            return attributeName;
+        }
+    }
+
+    private static final double[]    PERCENTILES      = { 0.5, 0.95, 0.99, 0.999 };
+
+    private static final String[]    PERCENTILE_NAMES = { "p50", "p95", "p99", "p999" };
+
+    private static final double      NANOS_PER_MILLI  = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final LatencyHistogram[] phases;
+
+    private volatile LatencyHistogram[] processors    = new LatencyHistogram[0];
+
+    private final AtomicLong         resultCount      = new AtomicLong();
+
+    private final AtomicLong         notFoundCount    = new AtomicLong();
+
+    private final AtomicLong         errorCount       = new AtomicLong();
+
+    public LookupStatistics() {
+
+        final Phase[] values = Phase.values();
+        phases = new LatencyHistogram[values.length];
+        for (final Phase phase : values) {
+            phases[phase.ordinal()] = new LatencyHistogram(phase.getAttributeName());
+        }
+    }
+
+    /**
+     * Name processors, one histogram being kept for each of them
+     *
+     * @param processorNames
+     *            names of the processors, in processing order
+     */
+    public void setProcessorNames(final List<String> processorNames) {
+
+        final LatencyHistogram[] newProcessors = new LatencyHistogram[processorNames.size()];
+        for (int i = 0; i < newProcessors.length; i++) {
+            newProcessors[i] = new LatencyHistogram("processor." + i + "." + processorNames.get(i));
+        }
+        processors = newProcessors;
+    }
+
+    public void record(final Phase phase, final long elapsedNanos) {
+
+        phases[phase.ordinal()].record(elapsedNanos);
+    }
+
+    /**
+     * @return recorder of the phases of one lookup attempt
+     */
+    public Attempt newAttempt() {
+
+        return new Attempt();
+    }
+
+    /**
+     * @param index
+     *            index of the processor in the DAO processors list
+     * @param elapsedNanos
+     *            time spent in the processor, in nanoseconds
+     */
+    public void recordProcessor(final int index, final long elapsedNanos) {
+
+        final LatencyHistogram[] current = processors;
+        if (index < current.length) {
+            current[index].record(elapsedNanos);
+        }
+    }
+
+    public void recordResult(final boolean found) {
+
+        if (found) {
+            resultCount.incrementAndGet();
+        } else {
+            notFoundCount.incrementAndGet();
+        }
+    }
+
+    public void recordError() {
+
+        errorCount.incrementAndGet();
+    }
+
+    public LatencyHistogram getHistogram(final Phase phase) {
+
+        return phases[phase.ordinal()];
+    }
+
+    /**
+     * @return histograms of every phase, then of every processor
+     */
+    public List<LatencyHistogram> getHistograms() {
+
+        final LatencyHistogram[] current = processors;
+        final List<LatencyHistogram> histograms = new ArrayList<LatencyHistogram>(phases.length + current.length);
+        for (final LatencyHistogram histogram : phases) {
+            histograms.add(histogram);
+        }
+        for (final LatencyHistogram histogram : current) {
+            histograms.add(histogram);
+        }
+        return histograms;
+    }
+
+    public long getResultCount() {
+
+        return resultCount.get();
+    }
+
+    public long getNotFoundCount() {
+
+        return notFoundCount.get();
+    }
+
+    public long getErrorCount() {
+
+        return errorCount.get();
+    }
+
+    /**
+     * Forget every recorded latency and outcome
+     */
+    public void reset() {
+
+        for (final LatencyHistogram histogram : getHistograms()) {
+            histogram.reset();
+        }
+        resultCount.set(0);
+        notFoundCount.set(0);
+        errorCount.set(0);
+    }
+
+    /**
+     * Phase latencies of one lookup attempt, kept aside until the attempt is committed : when a lookup is hedged, only the
+     * attempt which answered is recorded. An attempt is used by one thread at a time.
+     */
+    public final class Attempt {
+
+        private Phase[] attemptPhases = new Phase[4];
+
+        private long[]  elapsed       = new long[4];
+
+        private int     size;
+
+        private Attempt() {
+
+        }
+
+        public void record(final Phase phase, final long elapsedNanos) {
+
+            if (size == attemptPhases.length) {
+                attemptPhases = Arrays.copyOf(attemptPhases, size * 2);
+                elapsed = Arrays.copyOf(elapsed, size * 2);
+            }
+            attemptPhases[size] = phase;
+            elapsed[size] = elapsedNanos;
+            size++;
+        }
+
+        /**
+         * Record the phases of this attempt in the statistics
+         */
+        public void commit() {
+
+            for (int i = 0; i < size; i++) {
+                LookupStatistics.this.record(attemptPhases[i], elapsed[i]);
+            }
+            size = 0;
+        }
+    }
+
+    // Implements DynamicMBean
+
+    @Override
+    public Object getAttribute(final String attribute) throws AttributeNotFoundException {
+
+        if ("resultCount".equals(attribute)) {
+            return getResultCount();
+        }
+        if ("notFoundCount".equals(attribute)) {
+            return getNotFoundCount();
+        }
+        if ("errorCount".equals(attribute)) {
+            return getErrorCount();
+        }
+
+        final int separator = attribute.lastIndexOf('.');
+        if (separator > 0) {
+            final String histogramName = attribute.substring(0, separator);
+            final String statistic = attribute.substring(separator + 1);
+            for (final LatencyHistogram histogram : getHistograms()) {
+                if (histogram.getName().equals(histogramName)) {
+                    return getStatistic(histogram, statistic, attribute);
+                }
+            }
+        }
+        throw new AttributeNotFoundException("Unknown attribute : " + attribute);
+    }
+
+    private Object getStatistic(final LatencyHistogram histogram, final String statistic, final String attribute)
+            throws AttributeNotFoundException {
+
+        if ("count".equals(statistic)) {
+            return histogram.getCount();
+        }
+        if ("mean".equals(statistic)) {
+            return histogram.getMean() / NANOS_PER_MILLI;
+        }
+        if ("max".equals(statistic)) {
+            return histogram.getMax() / NANOS_PER_MILLI;
+        }
+        for (int i = 0; i < PERCENTILES.length; i++) {
+            if (PERCENTILE_NAMES[i].equals(statistic)) {
+                return histogram.getPercentile(PERCENTILES[i]) / NANOS_PER_MILLI;
+            }
+        }
+        throw new AttributeNotFoundException("Unknown attribute : " + attribute);
+    }
+
+    @Override
+    public AttributeList getAttributes(final String[] attributes) {
+
+        final AttributeList list = new AttributeList(attributes.length);
+        for (final String attribute : attributes) {
+            try {
+                list.add(new Attribute(attribute, getAttribute(attribute)));
+            } catch (AttributeNotFoundException e) {
+                // Unknown attributes are left out, as specified by DynamicMBean
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public void setAttribute(final Attribute attribute) throws AttributeNotFoundException {
+
+        throw new AttributeNotFoundException("Attribute " + attribute.getName() + " is read only");
+    }
+
+    @Override
+    public AttributeList setAttributes(final AttributeList attributes) {
+
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(final String actionName, final Object[] params, final String[] signature) throws ReflectionException {
+
+        if ("reset".equals(actionName)) {
+            reset();
+            return null;
+        }
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+
+        final List<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+        attributes.add(new MBeanAttributeInfo("resultCount", "long", "Lookups which found a person", true, false, false));
+        attributes.add(new MBeanAttributeInfo("notFoundCount", "long", "Lookups which found nobody", true, false, false));
+        attributes.add(new MBeanAttributeInfo("errorCount", "long", "Lookups which failed", true, false, false));
+        for (final LatencyHistogram histogram : getHistograms()) {
+            final String name = histogram.getName();
+            attributes.add(new MBeanAttributeInfo(name + ".count", "long", "Number of " + name + " phases", true, false,
+                    false));
+            attributes.add(new MBeanAttributeInfo(name + ".mean", "double", "Mean " + name + " latency (ms)", true, false,
+                    false));
+            for (final String percentile : PERCENTILE_NAMES) {
+                attributes.add(new MBeanAttributeInfo(name + "." + percentile, "double", percentile + " " + name
+                        + " latency (ms)", true, false, false));
+            }
+            attributes.add(new MBeanAttributeInfo(name + ".max", "double", "Max " + name + " latency (ms)", true, false,
+                    false));
+        }
+        final MBeanOperationInfo[] operations = { new MBeanOperationInfo("reset", "Forget every recorded latency and outcome",
+                null, "void", MBeanOperationInfo.ACTION) };
+
+        return new MBeanInfo(getClass().getName(), "LDAP person lookups statistics",
+                attributes.toArray(new MBeanAttributeInfo[attributes.size()]), null, operations, null);
+    }
+
+}
@@ -0,0 +1,114 @@
+package net.archigny.cas.persondir.ldap;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.BeanCreationException;
+
+/**
+ * Size bounded, TTL based cache of locked person attributes, keyed by uid.<br />
+ * "Not found" results are cached too (negative caching), with their own (usually shorter) time to live.
+ */
+public class PersonAttributesCache extends ExpiringLruCache<PersonAttributesCache.CacheEntry> {
+
+    /**
+     * Shared entry of "not found" results
+     */
+    private static final CacheEntry NEGATIVE_ENTRY     = new CacheEntry(null);
+
+    /**
+     * Time to live of "not found" results, in milliseconds (0 => no negative caching)
+     */
+    private long                    negativeTimeToLive = 30000;
+
+    private final AtomicLong        negativeHitCount   = new AtomicLong();
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+
+        if (negativeTimeToLive < 0) {
+            throw new BeanCreationException("negativeTimeToLive cannot be negative");
+        }
+        super.afterPropertiesSet();
+    }
+
+    /**
+     * Look up a uid in the cache.
+     *
+     * @param uid
+     *            uid of the person
+     * @return the cached entry, or null if uid is not cached (or entry expired)
+     */
+    public CacheEntry get(final String uid) {
+
+        final CacheEntry entry = getValue(uid);
+        if ((entry != null) && entry.isNegative()) {
+            negativeHitCount.incrementAndGet();
+        }
+        return entry;
+    }
+
+    /**
+     * Store a result in the cache.
+     *
+     * @param uid
+     *            uid of the person
+     * @param person
+     *            locked attributes of the person, or null if the person was not found
+     */
+    public void put(final String uid, final ILockablePersonAttributes person) {
+
+        if (person == null) {
+            putValue(uid, NEGATIVE_ENTRY, negativeTimeToLive);
+            return;
+        }
+        if (!person.isLocked()) {
+            throw new IllegalArgumentException("Only locked person attributes can be cached");
+        }
+        putValue(uid, new CacheEntry(person), getTimeToLive());
+    }
+
+    /**
+     * @return number of hits on "not found" results (included in hitCount)
+     */
+    public long getNegativeHitCount() {
+
+        return negativeHitCount.get();
+    }
+
+    // Getters and setters
+
+    public long getNegativeTimeToLive() {
+
+        return negativeTimeToLive;
+    }
+
+    public void setNegativeTimeToLive(final long negativeTimeToLive) {
+
+        this.negativeTimeToLive = negativeTimeToLive;
+    }
+
+    /**
+     * Cached result. A null person means the uid was not found in the directory.
+     */
+    public static final class CacheEntry {
+
+        private final ILockablePersonAttributes person;
+
+        CacheEntry(final ILockablePersonAttributes person) {
+
+            this.person = person;
+        }
+
+        public ILockablePersonAttributes getPerson() {
+
+            return person;
+        }
+
+        public boolean isNegative() {
+
+            return person == null;
+        }
+
+    }
+
+}
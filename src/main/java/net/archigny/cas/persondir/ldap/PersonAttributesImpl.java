@@ -1,18 +1,20 @@
 package net.archigny.cas.persondir.ldap;
 
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
+/**
+ * Person attributes, lockable once processed. Attributes built by LdapPersonAttributeDao are stored in a
+ * CaseInsensitiveAttributeMap, so that getAttributeValue("MemberOf") finds memberOf.
+ */
 public class PersonAttributesImpl implements ILockablePersonAttributes {
 
     private static final long         serialVersionUID = 1821405503021254743L;
 
     private String                    name;
 
-    private Map<String, List<Object>> attributes       = new HashMap<String, List<Object>>();
+    private Map<String, List<Object>> attributes       = new CaseInsensitiveAttributeMap();
 
     private boolean                   locked           = false;
 
@@ -24,7 +26,8 @@ public class PersonAttributesImpl implements ILockablePersonAttributes {
      * @param name
      *            Nom de l'utilisateur (uid)
      * @param attributes
-     *            HashMap des attributs;
+     *            Map des attributs, utilisée telle quelle (une CaseInsensitiveAttributeMap permet des recherches
+     *            insensibles à la casse);
      */
     public PersonAttributesImpl(final String name, final Map<String, List<Object>> attributes) {
 
@@ -41,14 +44,20 @@ public class PersonAttributesImpl implements ILockablePersonAttributes {
     public void lock() {
 
         if (!locked) {
-            // Lock Every collection of attribute values
-            final Set<String> attrNames = attributes.keySet();
-            for (String attrName : attrNames) {
-                final List<Object> attrValues = attributes.get(attrName);
-                attributes.put(attrName,Collections.unmodifiableList(attrValues));
+            // Lock Every collection of attribute values (values still shared with the directory array, and lazy values, need
+            // no wrapper)
+            for (final Map.Entry<String, List<Object>> attribute : attributes.entrySet()) {
+                final List<Object> attrValues = attribute.getValue();
+                if ((attrValues instanceof SharedValueList) || (attrValues instanceof LazyValueList)) {
+                    attribute.setValue(FrozenValueList.freeze(attrValues));
+                } else if (attrValues != null) {
+                    attribute.setValue(Collections.unmodifiableList(attrValues));
+                }
             }
-            // Finally lock the main collection
-            attributes = Collections.unmodifiableMap(attributes);
+            // Finally lock the main collection, hiding lazy attributes absent from the entry
+            final Map<String, List<Object>> lockedAttributes = Collections.unmodifiableMap(attributes);
+            attributes = (LazyAttributesView.hasLazyValues(lockedAttributes) ? new LazyAttributesView(lockedAttributes)
+                    : lockedAttributes);
             locked = true;
         }
 
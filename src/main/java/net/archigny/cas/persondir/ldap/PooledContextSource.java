@@ -0,0 +1,304 @@
+package net.archigny.cas.persondir.ldap;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.naming.directory.DirContext;
+
+import org.apache.commons.pool.BaseKeyedPoolableObjectFactory;
+import org.apache.commons.pool.impl.GenericKeyedObjectPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.BeanCreationException;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.ldap.NamingException;
+import org.springframework.ldap.UncategorizedLdapException;
+import org.springframework.ldap.core.ContextSource;
+import org.springframework.ldap.pool.DirContextType;
+import org.springframework.ldap.pool.factory.PoolingContextSource;
+import org.springframework.ldap.pool.validation.DefaultDirContextValidator;
+import org.springframework.ldap.pool.validation.DirContextValidator;
+
+/**
+ * Pooling ContextSource, reusing directory connections instead of opening a new one (TCP and TLS handshakes, bind) for each
+ * lookup.<br />
+ * On top of Spring LDAP PoolingContextSource, this pool :
+ * <ul>
+ * <li>has defaults suited to LdapPersonAttributeDao : bounded borrow wait, idle connections validated in background by reading
+ * the root DSE</li>
+ * <li>closes connections older than maxAge, so that load spreads again over servers behind a load balancer</li>
+ * <li>keeps statistics : borrow latency, connections created, destroyed and expired</li>
+ * <li>reports borrow failures as Spring LDAP exceptions</li>
+ * </ul>
+ */
+public class PooledContextSource extends PoolingContextSource implements InitializingBean {
+
+    private final Logger                     log                = LoggerFactory.getLogger(PooledContextSource.class);
+
+    /**
+     * Maximum age of a connection, in milliseconds (0 => no limit)
+     */
+    private long                             maxAge             = 0;
+
+    /**
+     * Factory creating, validating and destroying pooled connections
+     */
+    private final MonitoredFactory           factory            = new MonitoredFactory();
+
+    /**
+     * Creation time of each pooled connection, in milliseconds
+     */
+    private final Map<Object, Long>          creationTimes      = Collections.synchronizedMap(new IdentityHashMap<Object, Long>());
+
+    /**
+     * Borrow latencies, in nanoseconds
+     */
+    private final LatencyPercentileEstimator borrowLatency      = new LatencyPercentileEstimator(1024, 0.95, 1);
+
+    private final AtomicLong                 borrowCount        = new AtomicLong();
+
+    private final AtomicLong                 borrowTime         = new AtomicLong();
+
+    private final AtomicLong                 borrowFailureCount = new AtomicLong();
+
+    private final AtomicLong                 createdCount       = new AtomicLong();
+
+    private final AtomicLong                 destroyedCount     = new AtomicLong();
+
+    private final AtomicLong                 expiredCount       = new AtomicLong();
+
+    private final AtomicLong                 validationFailureCount = new AtomicLong();
+
+    /**
+     * Creations per second over the last minute : one counter per second, and the second each counter belongs to
+     */
+    private final long[]                     creationBuckets    = new long[60];
+
+    private final long[]                     creationSeconds    = new long[60];
+
+    public PooledContextSource() {
+
+        super();
+        keyedObjectPool.setFactory(factory);
+        setDirContextValidator(new DefaultDirContextValidator());
+        setWhenExhaustedAction(GenericKeyedObjectPool.WHEN_EXHAUSTED_BLOCK);
+        setMaxActive(16);
+        setMaxIdle(8);
+        setMinIdle(2);
+        setMaxWait(5000);
+        setTestWhileIdle(true);
+        setTimeBetweenEvictionRunsMillis(60000);
+        setMinEvictableIdleTimeMillis(600000);
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+
+        if (getContextSource() == null) {
+            throw new BeanCreationException("contextSource cannot be null");
+        }
+        if (getMaxWait() <= 0) {
+            log.warn("maxWait is not set, callers may wait forever for a connection when the pool is exhausted");
+        }
+        if ((maxAge > 0) && (getTimeBetweenEvictionRunsMillis() <= 0)) {
+            log.warn("Eviction thread is not running, connections older than maxAge will only be closed when borrowed");
+        }
+    }
+
+    @Override
+    protected DirContext getContext(final DirContextType dirContextType) {
+
+        final long start = System.nanoTime();
+        try {
+            return super.getContext(dirContextType);
+        } catch (DataAccessResourceFailureException e) {
+            borrowFailureCount.incrementAndGet();
+            if (e.getCause() instanceof NamingException) {
+                throw (NamingException) e.getCause();
+            }
+            throw new UncategorizedLdapException("Failed to borrow DirContext from pool", e.getCause());
+        } finally {
+            final long elapsed = System.nanoTime() - start;
+            borrowCount.incrementAndGet();
+            borrowTime.addAndGet(elapsed);
+            borrowLatency.record(elapsed);
+        }
+    }
+
+    private boolean isExpired(final Object obj) {
+
+        if (maxAge <= 0) {
+            return false;
+        }
+        final Long creationTime = creationTimes.get(obj);
+        return (creationTime != null) && (currentTimeMillis() - creationTime >= maxAge);
+    }
+
+    private synchronized void recordCreation() {
+
+        final long second = currentTimeMillis() / 1000;
+        final int bucket = (int) (second % creationBuckets.length);
+        if (creationSeconds[bucket] != second) {
+            creationSeconds[bucket] = second;
+            creationBuckets[bucket] = 0;
+        }
+        creationBuckets[bucket]++;
+    }
+
+    /**
+     * Time source, overridden by tests
+     *
+     * @return current time, in milliseconds
+     */
+    protected long currentTimeMillis() {
+
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * @return connections created per second, averaged over the last minute
+     */
+    public synchronized double getCreationsPerSecond() {
+
+        final long second = currentTimeMillis() / 1000;
+        long count = 0;
+        for (int i = 0; i < creationBuckets.length; i++) {
+            if (second - creationSeconds[i] < creationBuckets.length) {
+                count += creationBuckets[i];
+            }
+        }
+        return (double) count / creationBuckets.length;
+    }
+
+    /**
+     * @return mean time spent borrowing a connection, in milliseconds
+     */
+    public double getMeanBorrowTime() {
+
+        final long count = borrowCount.get();
+        return (count == 0 ? 0 : (double) borrowTime.get() / count / TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    /**
+     * @return 95th percentile of time spent borrowing a connection, in milliseconds
+     */
+    public double getBorrowTime95thPercentile() {
+
+        final long estimate = borrowLatency.getEstimate();
+        return (estimate < 0 ? 0 : (double) estimate / TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    public long getBorrowCount() {
+
+        return borrowCount.get();
+    }
+
+    public long getBorrowFailureCount() {
+
+        return borrowFailureCount.get();
+    }
+
+    public long getCreatedCount() {
+
+        return createdCount.get();
+    }
+
+    public long getDestroyedCount() {
+
+        return destroyedCount.get();
+    }
+
+    /**
+     * @return number of connections closed because they were older than maxAge
+     */
+    public long getExpiredCount() {
+
+        return expiredCount.get();
+    }
+
+    public long getValidationFailureCount() {
+
+        return validationFailureCount.get();
+    }
+
+    public long getMaxAge() {
+
+        return maxAge;
+    }
+
+    public void setMaxAge(final long maxAge) {
+
+        if (maxAge < 0) {
+            throw new IllegalArgumentException("maxAge cannot be negative");
+        }
+        this.maxAge = maxAge;
+    }
+
+    @Override
+    public String toString() {
+
+        return "PooledContextSource [active=" + getNumActive() + ", idle=" + getNumIdle() + ", meanBorrowTime="
+                + getMeanBorrowTime() + "ms, creationsPerSecond=" + getCreationsPerSecond() + "]";
+    }
+
+    /**
+     * Pooled connections factory : the one of PoolingContextSource cannot be extended, so connection life cycle is
+     * implemented here, with age tracking and statistics.
+     */
+    private class MonitoredFactory extends BaseKeyedPoolableObjectFactory {
+
+        @Override
+        public Object makeObject(final Object key) throws Exception {
+
+            final ContextSource contextSource = getContextSource();
+            final DirContext context;
+            if (key == DirContextType.READ_WRITE) {
+                context = contextSource.getReadWriteContext();
+            } else {
+                context = contextSource.getReadOnlyContext();
+            }
+            creationTimes.put(context, currentTimeMillis());
+            createdCount.incrementAndGet();
+            recordCreation();
+            return context;
+        }
+
+        @Override
+        public void activateObject(final Object key, final Object obj) throws Exception {
+
+            // Cheap age check on each borrow, the pool then destroys the connection and tries another one
+            if (isExpired(obj)) {
+                expiredCount.incrementAndGet();
+                throw new IllegalStateException("Connection is older than maxAge");
+            }
+        }
+
+        @Override
+        public boolean validateObject(final Object key, final Object obj) {
+
+            if (isExpired(obj)) {
+                expiredCount.incrementAndGet();
+                return false;
+            }
+            final DirContextValidator validator = getDirContextValidator();
+            if ((validator != null) && !validator.validateDirContext((DirContextType) key, (DirContext) obj)) {
+                validationFailureCount.incrementAndGet();
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public void destroyObject(final Object key, final Object obj) throws Exception {
+
+            creationTimes.remove(obj);
+            destroyedCount.incrementAndGet();
+            ((DirContext) obj).close();
+        }
+    }
+
+}
@@ -0,0 +1,110 @@
+package net.archigny.cas.persondir.ldap;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * Mutable list of attribute values wrapping the array returned by the directory context, without copying it. The array is
+ * copied in a private ArrayList only when a processor modifies the list (copy on write) : attributes no processor touches
+ * keep sharing the array, which FrozenValueList then adopts as is.
+ */
+final class SharedValueList extends AbstractList<Object> implements RandomAccess, Serializable {
+
+    private static final long serialVersionUID = 3528719458601372946L;
+
+    /**
+     * Values returned by the directory, never modified (null once copied)
+     */
+    private Object[]          shared;
+
+    /**
+     * Private copy, created on first modification
+     */
+    private ArrayList<Object> copy;
+
+    /**
+     * @param values
+     *            values owned by the caller, which must not modify them afterwards
+     */
+    SharedValueList(final Object[] values) {
+
+        this.shared = values;
+    }
+
+    /**
+     * @return the wrapped array if the list was never modified, null otherwise
+     */
+    Object[] getSharedValues() {
+
+        return shared;
+    }
+
+    private ArrayList<Object> writableCopy() {
+
+        if (copy == null) {
+            copy = new ArrayList<Object>(Arrays.asList(shared));
+            shared = null;
+        }
+        return copy;
+    }
+
+    @Override
+    public Object get(final int index) {
+
+        if (copy != null) {
+            return copy.get(index);
+        }
+        if ((index < 0) || (index >= shared.length)) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + shared.length);
+        }
+        return shared[index];
+    }
+
+    @Override
+    public int size() {
+
+        return (copy == null ? shared.length : copy.size());
+    }
+
+    @Override
+    public Object set(final int index, final Object element) {
+
+        if ((copy == null) && (index >= 0) && (index < shared.length) && (shared[index] == element)) {
+            // Value unchanged (eg : replaceAll without match returns the same String)
+            return element;
+        }
+        return writableCopy().set(index, element);
+    }
+
+    @Override
+    public void add(final int index, final Object element) {
+
+        writableCopy().add(index, element);
+        modCount++;
+    }
+
+    @Override
+    public Object remove(final int index) {
+
+        final Object removed = writableCopy().remove(index);
+        modCount++;
+        return removed;
+    }
+
+    @Override
+    public void clear() {
+
+        writableCopy().clear();
+        modCount++;
+    }
+
+    @Override
+    public Object[] toArray() {
+
+        return (copy == null ? shared.clone() : copy.toArray());
+    }
+
+}
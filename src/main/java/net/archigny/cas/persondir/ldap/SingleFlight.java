@@ -0,0 +1,119 @@
+package net.archigny.cas.persondir.ldap;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.ldap.UncategorizedLdapException;
+
+/**
+ * Coalesces concurrent loads of the same key : the first caller runs the loader, concurrent callers for the same key wait for
+ * its result instead of running the loader again. There is no global lock, callers for different keys never wait for each
+ * other.
+ *
+ * @param <V>
+ *            type of loaded values
+ */
+public class SingleFlight<V> {
+
+    /**
+     * Loads currently running, by key
+     */
+    private final ConcurrentMap<String, FutureTask<V>> inFlight       = new ConcurrentHashMap<String, FutureTask<V>>();
+
+    /**
+     * Number of callers which waited for another caller's load
+     */
+    private final AtomicLong                           coalescedCount = new AtomicLong();
+
+    /**
+     * Load a value, or wait for the load already running for the same key
+     *
+     * @param key
+     *            key of the value
+     * @param loader
+     *            loader, run only if no load is in flight for this key
+     * @return loaded value
+     */
+    public V execute(final String key, final Callable<V> loader) {
+
+        final FutureTask<V> task = new FutureTask<V>(loader);
+        FutureTask<V> running = inFlight.putIfAbsent(key, task);
+        if (running == null) {
+            running = task;
+            try {
+                task.run();
+            } finally {
+                inFlight.remove(key, task);
+            }
+        } else {
+            coalescedCount.incrementAndGet();
+        }
+        return await(key, running);
+    }
+
+    /**
+     * Wait for the load already running for the same key, or run the loader without publishing it : concurrent callers never
+     * wait for this caller's load, so that interrupting this caller (eg : deadline reached) cannot fail them.
+     *
+     * @param key
+     *            key of the value
+     * @param loader
+     *            loader, run only if no load is in flight for this key
+     * @return loaded value
+     */
+    public V join(final String key, final Callable<V> loader) {
+
+        final FutureTask<V> running = inFlight.get(key);
+        if (running == null) {
+            try {
+                return loader.call();
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new UncategorizedLdapException("Load of " + key + " failed", e);
+            }
+        }
+        coalescedCount.incrementAndGet();
+        return await(key, running);
+    }
+
+    private V await(final String key, final FutureTask<V> running) {
+
+        try {
+            return running.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UncategorizedLdapException("Interrupted while waiting for in-flight load of " + key, e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new UncategorizedLdapException("Load of " + key + " failed", cause);
+        }
+    }
+
+    /**
+     * @return number of loads currently running
+     */
+    public int getInFlightCount() {
+
+        return inFlight.size();
+    }
+
+    /**
+     * @return number of callers which reused the result of another caller's load
+     */
+    public long getCoalescedCount() {
+
+        return coalescedCount.get();
+    }
+
+}
@@ -0,0 +1,42 @@
+package net.archigny.cas.persondir.ldap;
+
+/**
+ * Last known good copies of resolved persons, served by LdapPersonAttributeDao when the directory cannot be queried (circuit
+ * breaker open or directory error). Entries live much longer than in PersonAttributesCache : one week by default.
+ */
+public class StalePersonStore extends ExpiringLruCache<ILockablePersonAttributes> {
+
+    private static final long DEFAULT_TIME_TO_LIVE = 7L * 24 * 3600 * 1000;
+
+    public StalePersonStore() {
+
+        setTimeToLive(DEFAULT_TIME_TO_LIVE);
+    }
+
+    /**
+     * @param uid
+     *            uid of the person
+     * @return last known attributes of the person, or null if unknown
+     */
+    public ILockablePersonAttributes getPerson(final String uid) {
+
+        return getValue(uid);
+    }
+
+    /**
+     * Store the last known attributes of a person
+     *
+     * @param uid
+     *            uid of the person
+     * @param person
+     *            locked attributes of the person
+     */
+    public void putPerson(final String uid, final ILockablePersonAttributes person) {
+
+        if ((person == null) || !person.isLocked()) {
+            throw new IllegalArgumentException("person must be locked and not null");
+        }
+        putValue(uid, person, getTimeToLive());
+    }
+
+}
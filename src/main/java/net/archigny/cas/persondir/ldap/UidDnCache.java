@@ -0,0 +1,42 @@
+package net.archigny.cas.persondir.ldap;
+
+/**
+ * Size bounded, TTL based cache of user DNs, keyed by uid. Used by LdapPersonAttributeDao when fetchDirectDn is set, to skip
+ * the search phase of the two phases lookup. As DNs seldom change, its default time to live is one day.
+ */
+public class UidDnCache extends ExpiringLruCache<String> {
+
+    public UidDnCache() {
+
+        setTimeToLive(86400000);
+    }
+
+    /**
+     * Look up the DN of a uid
+     *
+     * @param uid
+     *            uid of the person
+     * @return DN of the person, or null if not cached (or expired)
+     */
+    public String getDn(final String uid) {
+
+        return getValue(uid);
+    }
+
+    /**
+     * Store the DN of a uid
+     *
+     * @param uid
+     *            uid of the person
+     * @param dn
+     *            DN of the person
+     */
+    public void putDn(final String uid, final String dn) {
+
+        if (dn == null) {
+            throw new IllegalArgumentException("dn cannot be null");
+        }
+        putValue(uid, dn, getTimeToLive());
+    }
+
+}
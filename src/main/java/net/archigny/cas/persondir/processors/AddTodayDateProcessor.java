@@ -1,8 +1,8 @@
 package net.archigny.cas.persondir.processors;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -14,7 +14,9 @@ import java.util.Set;
  */
 public class AddTodayDateProcessor implements IAttributesProcessor {
 
-    public static final String DATE_ATTRIBUTE_NAME = "date";
+    public static final String       DATE_ATTRIBUTE_NAME  = "date";
+
+    private static final Set<String> ADDED_ATTRIBUTE_NAMES = Collections.singleton(DATE_ATTRIBUTE_NAME);
 
     @Override
     public void processAttributes(final Map<String, List<Object>> attributes) {
@@ -28,9 +30,7 @@ public class AddTodayDateProcessor implements IAttributesProcessor {
     @Override
     public Set<String> getPossibleUserAttributeNames() {
 
-        HashSet<String> newAttributes = new HashSet<String>(1);
-        newAttributes.add(DATE_ATTRIBUTE_NAME);
-        return newAttributes;
+        return ADDED_ATTRIBUTE_NAMES;
     }
 
 }
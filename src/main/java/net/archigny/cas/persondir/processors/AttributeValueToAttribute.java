@@ -2,6 +2,7 @@ package net.archigny.cas.persondir.processors;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -17,11 +18,13 @@ import net.archigny.cas.persondir.processors.IAttributesProcessor;
 
 /**
  * Attribute processor that can map some values of a multi-valued attribute (typically groups) to a new attribute. Values matches
- * with a fixed prefix.
+ * with a fixed prefix.<br />
+ * Prefixes are compiled in a trie by afterPropertiesSet : each value is matched against every prefix in a single pass over its
+ * characters, whatever the number of prefixes.
  * 
  * @author Philippe Marasse <philippe.marasse@ch-poitiers.fr>
  */
-public class AttributeValueToAttribute implements IAttributesProcessor, InitializingBean {
+public class AttributeValueToAttribute implements ITargetedAttributesProcessor, InitializingBean {
 
     private static Logger       log                = LoggerFactory.getLogger(AttributeValueToAttribute.class);
 
@@ -40,6 +43,16 @@ public class AttributeValueToAttribute implements IAttributesProcessor, Initiali
      */
     private boolean             moveAttributeValue = true;
 
+    /**
+     * Names of new attributes, indexed by the trie
+     */
+    private String[]            targetNames;
+
+    /**
+     * Prefixes compiled by afterPropertiesSet
+     */
+    private PrefixNode          prefixTrie;
+
     @Override
     public void afterPropertiesSet() throws Exception {
 
@@ -52,6 +65,19 @@ public class AttributeValueToAttribute implements IAttributesProcessor, Initiali
         if (prefixToAttributeName.containsKey(attributeName)) {
             throw new BeanCreationException("attributeName scanned cannot be in new attributes");
         }
+        // Compile prefixes
+        final List<String> names = new ArrayList<String>();
+        final TrieBuilder root = new TrieBuilder();
+        for (final Map.Entry<String, String> entry : prefixToAttributeName.entrySet()) {
+            int target = names.indexOf(entry.getValue());
+            if (target < 0) {
+                target = names.size();
+                names.add(entry.getValue());
+            }
+            root.add(entry.getKey(), 0, target);
+        }
+        targetNames = names.toArray(new String[names.size()]);
+        prefixTrie = root.build();
         log.debug("Bean values validated.");
     }
 
@@ -60,90 +86,102 @@ public class AttributeValueToAttribute implements IAttributesProcessor, Initiali
     @Override
     public void processAttributes(final Map<String, List<Object>> attributes) {
 
-        final boolean debugMode = log.isDebugEnabled();
-
-        if (attributes.containsKey(attributeName)) {
-            List<Object> attributesValues = attributes.get(attributeName);
-            if (debugMode) {
-                log.debug("attribute {} found. Processing values : {}", attributeName, Arrays.toString(attributesValues.toArray()));
-            }
+        final List<Object> attributesValues = attributes.get(attributeName);
+        if (attributesValues != null) {
+            processAttribute(attributes, attributeName, attributesValues);
+        }
+    }
 
-            // Crée un hash des nouveaux attributs potentiels
-            Map<String, List<Object>> newAttributes = new HashMap<String, List<Object>>();
-            for (String newAttribute : prefixToAttributeName.values()) {
-                if (!newAttributes.containsKey(newAttribute)) {
-                    newAttributes.put(newAttribute, new ArrayList<Object>());
-                }
-            }
-            if (debugMode) {
-                log.debug("New attributes map : {}", Arrays.toString(newAttributes.keySet().toArray()));
-            }
+    @Override
+    public boolean isTargetAttribute(final String name) {
 
-            final List<Object> valuesToRemove = new ArrayList<Object>();
+        return attributeName.equalsIgnoreCase(name);
+    }
 
-            // Parcourt la liste des valeurs
-            for (Object value : attributesValues) {
-                log.debug("considering value : {}", value);
+    @Override
+    public void processAttribute(final Map<String, List<Object>> attributes, final String name,
+            final List<Object> attributesValues) {
 
-                // Parcourt chaque préfixe
-                for (final String prefix : prefixToAttributeName.keySet()) {
+        final boolean debugMode = log.isDebugEnabled();
 
-                    if (((String) value).startsWith(prefix)) {
-                        // Ajoute la valeur (sans le préfixe), dans le nouvel
-                        // attribut
-                        newAttributes.get(prefixToAttributeName.get(prefix)).add(((String) value).substring(prefix.length()));
+        if (debugMode) {
+            log.debug("attribute {} found. Processing values : {}", attributeName, Arrays.toString(attributesValues.toArray()));
+        }
 
-                        if (moveAttributeValue) {
-                            valuesToRemove.add(value);
+        // Valeurs des nouveaux attributs par indice de cible (null tant qu'aucune valeur ne correspond)
+        List<List<Object>> newValues = null;
+        // Valeurs conservées si des valeurs sont déplacées (null tant qu'aucune ne l'est)
+        List<Object> keptValues = null;
+
+        // Parcourt la liste des valeurs, chaque valeur n'étant lue qu'une fois par le trie
+        final int size = attributesValues.size();
+        for (int i = 0; i < size; i++) {
+            final Object value = attributesValues.get(i);
+            boolean matched = false;
+            if (value instanceof String) {
+                final String stringValue = (String) value;
+                PrefixNode node = prefixTrie;
+                int depth = 0;
+                while (node != null) {
+                    if (node.targets != null) {
+                        // Ajoute la valeur (sans le préfixe), dans chaque nouvel attribut du préfixe
+                        final String newValue = stringValue.substring(depth);
+                        if (newValues == null) {
+                            newValues = new ArrayList<List<Object>>(Collections.<List<Object>> nCopies(targetNames.length,
+                                    null));
                         }
-
-                        if (debugMode) {
-                            log.debug("Value match prefix " + prefix + (moveAttributeValue ? " moved" : " copied")
-                                    + " to attribute " + prefixToAttributeName.get(prefix));
+                        for (final int target : node.targets) {
+                            List<Object> targetValues = newValues.get(target);
+                            if (targetValues == null) {
+                                targetValues = new ArrayList<Object>();
+                                newValues.set(target, targetValues);
+                            }
+                            targetValues.add(newValue);
+                            if (debugMode) {
+                                log.debug("Value " + stringValue + " match prefix " + stringValue.substring(0, depth)
+                                        + (moveAttributeValue ? " moved" : " copied") + " to attribute "
+                                        + targetNames[target]);
+                            }
                         }
+                        matched = true;
                     }
+                    node = (depth < stringValue.length() ? node.child(stringValue.charAt(depth)) : null);
+                    depth++;
                 }
             }
 
-            // Maintenant on transfère les nouveaux attributs s'ils ne sont pas
-            // vides
-            for (String newAttributeName : newAttributes.keySet()) {
-                List<Object> newAttributeValues = newAttributes.get(newAttributeName);
-                if (!newAttributeValues.isEmpty()) {
-                    attributes.put(newAttributeName, newAttributeValues);
-                    if (debugMode) {
-                        log.debug("Attribute added : {} with values {}", newAttributeName,
-                                Arrays.toString(newAttributeValues.toArray()));
-                    }
+            if (moveAttributeValue) {
+                if (matched && (keptValues == null)) {
+                    keptValues = new ArrayList<Object>(size);
+                    keptValues.addAll(attributesValues.subList(0, i));
+                } else if (!matched && (keptValues != null)) {
+                    keptValues.add(value);
                 }
             }
+        }
 
-            if (valuesToRemove.isEmpty()) {
-                log.debug("No attribute values to remove");
-            } else {
+        // Maintenant on transfère les nouveaux attributs s'ils ne sont pas vides
+        for (int target = 0; (newValues != null) && (target < targetNames.length); target++) {
+            final List<Object> targetValues = newValues.get(target);
+            if (targetValues != null) {
+                attributes.put(targetNames[target], targetValues);
                 if (debugMode) {
-                    log.debug("Will remove values : {}", Arrays.toString(valuesToRemove.toArray()));
-                }
-                try {
-                    // RemoveAll seems to trigger a strange exception
-                    attributesValues.removeAll(valuesToRemove);
-                } catch (UnsupportedOperationException e) {
-                    for (Object valueToRemove : valuesToRemove) {
-                        try {
-                            attributesValues.remove(attributesValues.indexOf(valueToRemove));
-                        } catch (UnsupportedOperationException e2) {
-                            log.error("attributesValues list ({}) does not implements remove operation!", attributesValues
-                                    .getClass().getCanonicalName());
-                            break;
-                        }
-                    }
-                }
-                if (debugMode) {
-                    log.debug("Remaining values of {} : {}", attributeName, Arrays.toString(attributesValues.toArray()));
+                    log.debug("Attribute added : {} with values {}", targetNames[target],
+                            Arrays.toString(targetValues.toArray()));
                 }
             }
         }
 
+        if (keptValues == null) {
+            log.debug("No attribute values to remove");
+        } else {
+            // Les valeurs restantes remplacent la liste d'origine, en une seule passe
+            attributes.put(name, keptValues);
+            if (debugMode) {
+                log.debug("Remaining values of {} : {}", attributeName, Arrays.toString(keptValues.toArray()));
+            }
+        }
+
     }
 
     @Override
@@ -189,4 +227,77 @@ public class AttributeValueToAttribute implements IAttributesProcessor, Initiali
         this.moveAttributeValue = moveAttributeValue;
     }
 
+    /**
+     * Compiled trie node : children sorted by character, and new attributes of the prefix ending here (null if none)
+     */
+    private static final class PrefixNode {
+
+        private final char[]       chars;
+
+        private final PrefixNode[] children;
+
+        private final int[]        targets;
+
+        public PrefixNode(final char[] chars, final PrefixNode[] children, final int[] targets) {
+
+            this.chars = chars;
+            this.children = children;
+            this.targets = targets;
+        }
+
+        public PrefixNode child(final char c) {
+
+            final int index = Arrays.binarySearch(chars, c);
+            return (index < 0 ? null : children[index]);
+        }
+    }
+
+    /**
+     * Mutable trie node, used while compiling prefixes
+     */
+    private static final class TrieBuilder {
+
+        private final Map<Character, TrieBuilder> children = new HashMap<Character, TrieBuilder>();
+
+        private final List<Integer>               targets  = new ArrayList<Integer>(1);
+
+        public void add(final String prefix, final int depth, final int target) {
+
+            if (depth == prefix.length()) {
+                if (!targets.contains(target)) {
+                    targets.add(target);
+                }
+                return;
+            }
+            TrieBuilder child = children.get(prefix.charAt(depth));
+            if (child == null) {
+                child = new TrieBuilder();
+                children.put(prefix.charAt(depth), child);
+            }
+            child.add(prefix, depth + 1, target);
+        }
+
+        public PrefixNode build() {
+
+            final char[] chars = new char[children.size()];
+            int i = 0;
+            for (final Character c : children.keySet()) {
+                chars[i++] = c;
+            }
+            Arrays.sort(chars);
+            final PrefixNode[] nodes = new PrefixNode[chars.length];
+            for (i = 0; i < chars.length; i++) {
+                nodes[i] = children.get(chars[i]).build();
+            }
+            int[] targetArray = null;
+            if (!targets.isEmpty()) {
+                targetArray = new int[targets.size()];
+                for (i = 0; i < targetArray.length; i++) {
+                    targetArray[i] = targets.get(i);
+                }
+            }
+            return new PrefixNode(chars, nodes, targetArray);
+        }
+    }
+
 }
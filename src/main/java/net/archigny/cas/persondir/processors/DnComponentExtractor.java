@@ -0,0 +1,288 @@
+package net.archigny.cas.persondir.processors;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.BeanCreationException;
+import org.springframework.beans.factory.InitializingBean;
+
+/**
+ * Replaces DN values of an attribute by one of their RDN values, without regular expressions. DN are read by a streaming parser
+ * which handles escapes (<code>cn=Groupe\, deux</code>, <code>cn=Groupe \C3\A0 accents</code>) and quoted values : only the
+ * resulting string is allocated for each value.<br />
+ * Example : to keep group names from memberOf DN of a given branch, one may set :
+ * <ul>
+ * <li>key = memberOf</li>
+ * <li>rdnType = cn</li>
+ * <li>suffix = ou=groupes,dc=archigny,dc=net</li>
+ * </ul>
+ * Values which are not DN, are not under the suffix or have no such RDN are removed. Values which are not strings are left
+ * unchanged.
+ */
+public class DnComponentExtractor implements ITargetedAttributesProcessor, InitializingBean {
+
+    private Logger   log         = LoggerFactory.getLogger(DnComponentExtractor.class);
+
+    private String   key;
+
+    /**
+     * Type of the RDN to extract (the leftmost one of this type). If null, RDN is chosen by its position.
+     */
+    private String   rdnType;
+
+    /**
+     * Position of the RDN to extract, from the left and starting at 0, when rdnType is null. The value of the first AVA of a
+     * multi valued RDN is extracted.
+     */
+    private int      rdnPosition = 0;
+
+    /**
+     * DN under which values must be, null to accept every DN
+     */
+    private String   suffix;
+
+    /**
+     * Suffix AVA, in order : types, unescaped values and RDN index in the suffix
+     */
+    private String[] suffixTypes;
+
+    private String[] suffixValues;
+
+    private int[]    suffixRdns;
+
+    private int      suffixRdnCount;
+
+    @Override
+    public void processAttributes(final Map<String, List<Object>> attributes) {
+
+        // Direct lookup : hits whatever the case with a case insensitive map, or when the case matches with other maps
+        final List<Object> values = attributes.get(key);
+        if (values != null) {
+            processAttribute(attributes, key, values);
+            return;
+        }
+        for (final Map.Entry<String, List<Object>> attribute : attributes.entrySet()) {
+            log.debug("Considering attribute name : {}", attribute.getKey());
+            if (isTargetAttribute(attribute.getKey())) {
+                processAttribute(attributes, attribute.getKey(), attribute.getValue());
+                break;
+            } else {
+                log.debug("Attribute does not match.");
+            }
+        }
+
+    }
+
+    @Override
+    public boolean isTargetAttribute(final String attributeName) {
+
+        return attributeName.equalsIgnoreCase(key);
+    }
+
+    @Override
+    public void processAttribute(final Map<String, List<Object>> attributes, final String attributeName,
+            final List<Object> values) {
+
+        log.debug("Attribute found, extracting RDN values");
+        final DnParser parser = new DnParser();
+        final int size = values.size();
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            final Object value = values.get(i);
+            Object result = value;
+            if (value instanceof String) {
+                result = extract((String) value, parser);
+                if (result == null) {
+                    log.debug("Value removed, no RDN to extract : {}", value);
+                    continue;
+                }
+            }
+            if ((kept != i) || (result != value)) {
+                values.set(kept, result);
+            }
+            kept++;
+        }
+        for (int i = size - 1; i >= kept; i--) {
+            values.remove(i);
+        }
+    }
+
+    /**
+     * @return true if the current AVA is the one to extract
+     */
+    private boolean isComponent(final DnParser parser) {
+
+        if (rdnType != null) {
+            return parser.typeIs(rdnType);
+        }
+        return (parser.getRdnIndex() == rdnPosition) && parser.isFirstInRdn();
+    }
+
+    /**
+     * @return the extracted RDN value, or null if the value is not a DN, is not under the suffix or has no such RDN
+     */
+    private String extract(final String dn, final DnParser parser) {
+
+        parser.reset(dn);
+        if (suffixTypes == null) {
+            // The whole DN is read, so that values with a malformed tail are removed too
+            int componentStart = -1;
+            int componentEnd = -1;
+            boolean componentEscaped = false;
+            while (parser.next()) {
+                if ((componentStart < 0) && isComponent(parser)) {
+                    componentStart = parser.getValueStart();
+                    componentEnd = parser.getValueEnd();
+                    componentEscaped = parser.isValueEscaped();
+                }
+            }
+            if (!parser.isValid() || (componentStart < 0)) {
+                return null;
+            }
+            return parser.getValue(componentStart, componentEnd, componentEscaped);
+        }
+
+        // First pass counts RDNs, to find where the suffix starts
+        while (parser.next()) {
+            // Nothing to do
+        }
+        final int suffixStart = parser.getRdnIndex() + 1 - suffixRdnCount;
+        if (!parser.isValid() || (suffixStart < 0)) {
+            return null;
+        }
+
+        parser.reset(dn);
+        int suffixAva = 0;
+        int componentStart = -1;
+        int componentEnd = -1;
+        boolean componentEscaped = false;
+        while (parser.next()) {
+            if ((componentStart < 0) && isComponent(parser)) {
+                componentStart = parser.getValueStart();
+                componentEnd = parser.getValueEnd();
+                componentEscaped = parser.isValueEscaped();
+            }
+            if (parser.getRdnIndex() >= suffixStart) {
+                if ((suffixAva == suffixTypes.length) || (parser.getRdnIndex() - suffixStart != suffixRdns[suffixAva])
+                        || !parser.typeIs(suffixTypes[suffixAva]) || !parser.valueEqualsIgnoreCase(suffixValues[suffixAva])) {
+                    return null;
+                }
+                suffixAva++;
+            }
+        }
+        if ((suffixAva != suffixTypes.length) || (componentStart < 0)) {
+            return null;
+        }
+        return parser.getValue(componentStart, componentEnd, componentEscaped);
+    }
+
+    /**
+     * Since this implementation does not add attribute, return null
+     */
+    @Override
+    public Set<String> getPossibleUserAttributeNames() {
+
+        return null;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+
+        if (key == null) {
+            throw new BeanCreationException("key cannot be null");
+        }
+        if (rdnPosition < 0) {
+            throw new BeanCreationException("rdnPosition cannot be negative");
+        }
+        if (suffix == null) {
+            suffixTypes = null;
+        } else {
+            final DnParser parser = new DnParser();
+            final List<String> types = new ArrayList<String>();
+            final List<String> values = new ArrayList<String>();
+            final List<Integer> rdns = new ArrayList<Integer>();
+            parser.reset(suffix);
+            while (parser.next()) {
+                final String value = parser.getValue();
+                if (value == null) {
+                    break;
+                }
+                types.add(parser.getType());
+                values.add(value);
+                rdns.add(Integer.valueOf(parser.getRdnIndex()));
+            }
+            if (!parser.isValid() || types.isEmpty() || (types.size() != values.size())) {
+                throw new BeanCreationException("suffix is not a valid DN : " + suffix);
+            }
+            suffixTypes = types.toArray(new String[types.size()]);
+            suffixValues = values.toArray(new String[values.size()]);
+            suffixRdns = new int[rdns.size()];
+            for (int i = 0; i < suffixRdns.length; i++) {
+                suffixRdns[i] = rdns.get(i).intValue();
+            }
+            suffixRdnCount = parser.getRdnIndex() + 1;
+        }
+        log.debug("Configured for attribute name : [{}] / RDN type [{}] position [{}] / suffix [{}]", new Object[] { key,
+                rdnType, rdnPosition, suffix });
+    }
+
+    // Setters and Getters
+
+    public String getKey() {
+
+        return key;
+    }
+
+    public void setKey(final String key) {
+
+        this.key = key;
+    }
+
+    public String getRdnType() {
+
+        return rdnType;
+    }
+
+    /**
+     * @param rdnType
+     *            type of the RDN to extract (eg : cn), the leftmost one of this type being used. Takes precedence over
+     *            rdnPosition.
+     */
+    public void setRdnType(final String rdnType) {
+
+        this.rdnType = rdnType;
+    }
+
+    public int getRdnPosition() {
+
+        return rdnPosition;
+    }
+
+    /**
+     * @param rdnPosition
+     *            position of the RDN to extract, from the left and starting at 0 (used when rdnType is not set)
+     */
+    public void setRdnPosition(final int rdnPosition) {
+
+        this.rdnPosition = rdnPosition;
+    }
+
+    public String getSuffix() {
+
+        return suffix;
+    }
+
+    /**
+     * @param suffix
+     *            DN under which values must be (compared ignoring case), values out of it are removed
+     */
+    public void setSuffix(final String suffix) {
+
+        this.suffix = suffix;
+    }
+
+}
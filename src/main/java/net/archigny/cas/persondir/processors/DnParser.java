@@ -0,0 +1,418 @@
+package net.archigny.cas.persondir.processors;
+
+/**
+ * Streaming reader of distinguished names in their string representation (RFC 4514), with the RFC 2253 leniencies : spaces
+ * around separators, ';' as RDN separator and quoted values. Attribute value assertions (AVA) are read one after the other,
+ * only their positions being recorded : values are unescaped on demand, backslash escapes of special characters and hex pairs
+ * (UTF-8 encoded) included. Hex string values (<code>#04024869</code>) are returned as is.<br />
+ * A parser is reset for each DN, it is not thread safe.
+ */
+final class DnParser {
+
+    /**
+     * decodeNext results, for the end of the value and for an invalid hex pair sequence
+     */
+    private static final int END       = -1;
+
+    private static final int MALFORMED = -2;
+
+    private String           dn;
+
+    private int              length;
+
+    /**
+     * Position of the next AVA
+     */
+    private int              position;
+
+    private boolean          valid;
+
+    /**
+     * True if the last AVA read was followed by a separator : another AVA must follow
+     */
+    private boolean          separatorRead;
+
+    private boolean          nextStartsRdn;
+
+    /**
+     * Current AVA : RDN index (from the left, starting at 0), and whether it is the first AVA of its RDN
+     */
+    private int              rdnIndex;
+
+    private boolean          firstInRdn;
+
+    private int              typeStart;
+
+    private int              typeEnd;
+
+    /**
+     * Raw value of the current AVA, without quotes nor spaces around it
+     */
+    private int              valueStart;
+
+    private int              valueEnd;
+
+    private boolean          valueEscaped;
+
+    /**
+     * Decoding state of a value
+     */
+    private int              decodePosition;
+
+    private int              decodeEnd;
+
+    private char             pendingLowSurrogate;
+
+    /**
+     * Start reading a DN
+     *
+     * @param dn
+     *            distinguished name
+     */
+    public void reset(final String dn) {
+
+        this.dn = dn;
+        this.length = dn.length();
+        this.position = 0;
+        this.valid = true;
+        this.separatorRead = false;
+        this.nextStartsRdn = true;
+        this.rdnIndex = -1;
+    }
+
+    /**
+     * Read the next AVA
+     *
+     * @return true if an AVA was read, false at the end of the DN or if it is not valid
+     */
+    public boolean next() {
+
+        if (!valid) {
+            return false;
+        }
+        int p = skipSpaces(position);
+        if (p == length) {
+            // A DN cannot end with a separator
+            valid = !separatorRead;
+            position = p;
+            return false;
+        }
+
+        typeStart = p;
+        while ((p < length) && isTypeChar(dn.charAt(p))) {
+            p++;
+        }
+        typeEnd = p;
+        p = skipSpaces(p);
+        if ((typeEnd == typeStart) || (p == length) || (dn.charAt(p) != '=')) {
+            return invalid();
+        }
+        p = skipSpaces(p + 1);
+
+        valueEscaped = false;
+        if ((p < length) && (dn.charAt(p) == '"')) {
+            valueStart = ++p;
+            while ((p < length) && (dn.charAt(p) != '"')) {
+                if (dn.charAt(p) == '\\') {
+                    valueEscaped = true;
+                    p++;
+                }
+                p++;
+            }
+            if (p >= length) {
+                return invalid();
+            }
+            valueEnd = p;
+            p = skipSpaces(p + 1);
+        } else {
+            valueStart = p;
+            // Unescaped trailing spaces are not part of the value
+            int end = p;
+            while (p < length) {
+                final char c = dn.charAt(p);
+                if (c == '\\') {
+                    if (p + 1 == length) {
+                        return invalid();
+                    }
+                    valueEscaped = true;
+                    p += (isHexPair(p + 1, length) ? 3 : 2);
+                    end = p;
+                } else if ((c == ',') || (c == ';') || (c == '+')) {
+                    break;
+                } else {
+                    p++;
+                    if (c != ' ') {
+                        end = p;
+                    }
+                }
+            }
+            valueEnd = end;
+        }
+
+        if (nextStartsRdn) {
+            rdnIndex++;
+        }
+        firstInRdn = nextStartsRdn;
+        if (p == length) {
+            separatorRead = false;
+            position = p;
+            return true;
+        }
+        final char separator = dn.charAt(p);
+        if ((separator == ',') || (separator == ';')) {
+            nextStartsRdn = true;
+        } else if (separator == '+') {
+            nextStartsRdn = false;
+        } else {
+            // Characters after a quoted value
+            return invalid();
+        }
+        separatorRead = true;
+        position = p + 1;
+        return true;
+    }
+
+    private boolean invalid() {
+
+        valid = false;
+        return false;
+    }
+
+    private int skipSpaces(int p) {
+
+        while ((p < length) && (dn.charAt(p) == ' ')) {
+            p++;
+        }
+        return p;
+    }
+
+    private static boolean isTypeChar(final char c) {
+
+        return ((c >= 'a') && (c <= 'z')) || ((c >= 'A') && (c <= 'Z')) || ((c >= '0') && (c <= '9')) || (c == '-')
+                || (c == '.');
+    }
+
+    private static int hexValue(final char c) {
+
+        if ((c >= '0') && (c <= '9')) {
+            return c - '0';
+        } else if ((c >= 'a') && (c <= 'f')) {
+            return c - 'a' + 10;
+        } else if ((c >= 'A') && (c <= 'F')) {
+            return c - 'A' + 10;
+        }
+        return -1;
+    }
+
+    private boolean isHexPair(final int p, final int limit) {
+
+        return (p + 1 < limit) && (hexValue(dn.charAt(p)) >= 0) && (hexValue(dn.charAt(p + 1)) >= 0);
+    }
+
+    /**
+     * @return false if the DN read so far is not valid. Once next() returned false, tells whether the whole DN is valid.
+     */
+    public boolean isValid() {
+
+        return valid;
+    }
+
+    /**
+     * @return RDN index of the current AVA, from the left and starting at 0. Once the whole DN is read, index of its last RDN.
+     */
+    public int getRdnIndex() {
+
+        return rdnIndex;
+    }
+
+    /**
+     * @return true if the current AVA is the first one of its RDN
+     */
+    public boolean isFirstInRdn() {
+
+        return firstInRdn;
+    }
+
+    /**
+     * @param type
+     *            attribute type
+     * @return true if the current AVA has this type (ignoring case)
+     */
+    public boolean typeIs(final String type) {
+
+        return (typeEnd - typeStart == type.length()) && dn.regionMatches(true, typeStart, type, 0, type.length());
+    }
+
+    /**
+     * @return attribute type of the current AVA
+     */
+    public String getType() {
+
+        return dn.substring(typeStart, typeEnd);
+    }
+
+    public int getValueStart() {
+
+        return valueStart;
+    }
+
+    public int getValueEnd() {
+
+        return valueEnd;
+    }
+
+    public boolean isValueEscaped() {
+
+        return valueEscaped;
+    }
+
+    /**
+     * @return unescaped value of the current AVA, or null if it holds an invalid hex pair sequence
+     */
+    public String getValue() {
+
+        return getValue(valueStart, valueEnd, valueEscaped);
+    }
+
+    /**
+     * Unescape a value of the DN being read, whose position was recorded before
+     *
+     * @return unescaped value, or null if it holds an invalid hex pair sequence
+     */
+    public String getValue(final int start, final int end, final boolean escaped) {
+
+        if (!escaped) {
+            return dn.substring(start, end);
+        }
+        final StringBuilder sb = new StringBuilder(end - start);
+        startDecoding(start, end);
+        int c;
+        while ((c = decodeNext()) >= 0) {
+            sb.append((char) c);
+        }
+        return (c == MALFORMED ? null : sb.toString());
+    }
+
+    /**
+     * @param expected
+     *            unescaped value
+     * @return true if the current AVA value, unescaped, is equal to the one given ignoring case
+     */
+    public boolean valueEqualsIgnoreCase(final String expected) {
+
+        final int expectedLength = expected.length();
+        if (!valueEscaped) {
+            return (valueEnd - valueStart == expectedLength)
+                    && dn.regionMatches(true, valueStart, expected, 0, expectedLength);
+        }
+        startDecoding(valueStart, valueEnd);
+        for (int i = 0; i < expectedLength; i++) {
+            final int c = decodeNext();
+            if ((c < 0) || !equalsIgnoreCase((char) c, expected.charAt(i))) {
+                return false;
+            }
+        }
+        return decodeNext() == END;
+    }
+
+    /**
+     * Characters comparison, as done by String.regionMatches
+     */
+    private static boolean equalsIgnoreCase(final char a, final char b) {
+
+        if (a == b) {
+            return true;
+        }
+        final char upperA = Character.toUpperCase(a);
+        final char upperB = Character.toUpperCase(b);
+        return (upperA == upperB) || (Character.toLowerCase(upperA) == Character.toLowerCase(upperB));
+    }
+
+    private void startDecoding(final int start, final int end) {
+
+        decodePosition = start;
+        decodeEnd = end;
+        pendingLowSurrogate = 0;
+    }
+
+    /**
+     * @return next unescaped character of the value being decoded, END or MALFORMED
+     */
+    private int decodeNext() {
+
+        if (pendingLowSurrogate != 0) {
+            final char c = pendingLowSurrogate;
+            pendingLowSurrogate = 0;
+            return c;
+        }
+        if (decodePosition >= decodeEnd) {
+            return END;
+        }
+        final char c = dn.charAt(decodePosition);
+        if (c != '\\') {
+            decodePosition++;
+            return c;
+        }
+        if (!isHexPair(decodePosition + 1, decodeEnd)) {
+            // Escaped special character
+            decodePosition += 2;
+            return dn.charAt(decodePosition - 1);
+        }
+        final int b = readHexPair();
+        if (b < 0x80) {
+            return b;
+        }
+
+        // UTF-8 sequence, each byte being a hex pair
+        int count;
+        int codePoint;
+        int minimum;
+        if ((b & 0xE0) == 0xC0) {
+            count = 1;
+            codePoint = b & 0x1F;
+            minimum = 0x80;
+        } else if ((b & 0xF0) == 0xE0) {
+            count = 2;
+            codePoint = b & 0x0F;
+            minimum = 0x800;
+        } else if ((b & 0xF8) == 0xF0) {
+            count = 3;
+            codePoint = b & 0x07;
+            minimum = 0x10000;
+        } else {
+            return MALFORMED;
+        }
+        for (int i = 0; i < count; i++) {
+            if ((decodePosition >= decodeEnd) || (dn.charAt(decodePosition) != '\\')
+                    || !isHexPair(decodePosition + 1, decodeEnd)) {
+                return MALFORMED;
+            }
+            final int next = readHexPair();
+            if ((next & 0xC0) != 0x80) {
+                return MALFORMED;
+            }
+            codePoint = (codePoint << 6) | (next & 0x3F);
+        }
+        if ((codePoint < minimum) || (codePoint > Character.MAX_CODE_POINT)
+                || ((codePoint >= Character.MIN_SURROGATE) && (codePoint <= Character.MAX_SURROGATE))) {
+            return MALFORMED;
+        }
+        if (codePoint >= Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+            final int offset = codePoint - Character.MIN_SUPPLEMENTARY_CODE_POINT;
+            pendingLowSurrogate = (char) (Character.MIN_LOW_SURROGATE + (offset & 0x3FF));
+            return Character.MIN_HIGH_SURROGATE + (offset >>> 10);
+        }
+        return codePoint;
+    }
+
+    /**
+     * Read the \XX escape at the decoding position
+     */
+    private int readHexPair() {
+
+        final int b = (hexValue(dn.charAt(decodePosition + 1)) << 4) | hexValue(dn.charAt(decodePosition + 2));
+        decodePosition += 3;
+        return b;
+    }
+
+}
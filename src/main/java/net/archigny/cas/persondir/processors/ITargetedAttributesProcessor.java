@@ -0,0 +1,38 @@
+package net.archigny.cas.persondir.processors;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Attributes processor which only reads some attributes, and processes each of them independently. A ProcessorPipeline
+ * resolves the attributes read by such a processor once, and then hands it their values directly instead of letting it scan
+ * every attribute.
+ * 
+ * @author Philippe Marasse
+ * 
+ */
+public interface ITargetedAttributesProcessor extends IAttributesProcessor {
+
+    /**
+     * Tell whether the processor reads an attribute. Only called when the pipeline is built, so it need not be fast.
+     * 
+     * @param attributeName
+     *            name of the attribute
+     * @return true if processAttribute must be called with the values of this attribute
+     */
+    public boolean isTargetAttribute(final String attributeName);
+
+    /**
+     * Processes the values of one of the target attributes
+     * 
+     * @param attributes
+     *            all attributes (processors may add or remove attributes)
+     * @param attributeName
+     *            name of the target attribute
+     * @param values
+     *            values of the target attribute
+     */
+    public void processAttribute(final Map<String, List<Object>> attributes, final String attributeName,
+            final List<Object> values);
+
+}
@@ -0,0 +1,139 @@
+package net.archigny.cas.persondir.processors;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Processors list compiled against the attribute names a DAO can return.<br />
+ * For each ITargetedAttributesProcessor, the attributes it reads are resolved once, among the attributes returned by the DAO
+ * and those added by previous processors (as declared by getPossibleUserAttributeNames). Processing then costs one map lookup
+ * per target attribute, instead of a scan of every attribute by every processor. Other processors are called as is.<br />
+ * A processor which is not targeted and does not declare its attribute names (getPossibleUserAttributeNames returns null) may
+ * add any attribute : targeted processors following it process the whole attributes map, as processAttributes does.
+ * 
+ * @author Philippe Marasse
+ * 
+ */
+public class ProcessorPipeline {
+
+    private static final Logger          log = LoggerFactory.getLogger(ProcessorPipeline.class);
+
+    private final IAttributesProcessor[] processors;
+
+    /**
+     * Target attribute names of each processor, null for processors which are not targeted
+     */
+    private final String[][]             targets;
+
+    /**
+     * True for targeted processors which follow a processor adding undeclared attributes
+     */
+    private final boolean[]              fullScan;
+
+    /**
+     * @param processors
+     *            processors, in processing order
+     * @param attributeNames
+     *            names of the attributes which may be returned before any processing
+     */
+    public ProcessorPipeline(final List<IAttributesProcessor> processors, final Collection<String> attributeNames) {
+
+        this.processors = processors.toArray(new IAttributesProcessor[processors.size()]);
+        this.targets = new String[this.processors.length][];
+        this.fullScan = new boolean[this.processors.length];
+
+        final Set<String> availableNames = new LinkedHashSet<String>(attributeNames);
+        boolean namesKnown = true;
+        for (int i = 0; i < this.processors.length; i++) {
+            final IAttributesProcessor processor = this.processors[i];
+            if (processor instanceof ITargetedAttributesProcessor) {
+                final List<String> processorTargets = new ArrayList<String>();
+                for (final String name : availableNames) {
+                    if (((ITargetedAttributesProcessor) processor).isTargetAttribute(name)) {
+                        processorTargets.add(name);
+                    }
+                }
+                targets[i] = processorTargets.toArray(new String[processorTargets.size()]);
+                if (!namesKnown) {
+                    fullScan[i] = true;
+                    log.debug("Processor {} follows a processor adding undeclared attributes, it processes every attribute",
+                            processor);
+                } else if (processorTargets.isEmpty()) {
+                    log.warn("Processor {} reads none of the attributes available at its position : {}", processor,
+                            availableNames);
+                } else {
+                    log.debug("Processor {} targets attributes {}", processor, processorTargets);
+                }
+            }
+            final Set<String> addedNames = processor.getPossibleUserAttributeNames();
+            if (addedNames != null) {
+                availableNames.addAll(addedNames);
+            } else if (!(processor instanceof ITargetedAttributesProcessor)) {
+                namesKnown = false;
+            }
+        }
+    }
+
+    /**
+     * Apply every processor, in order
+     * 
+     * @param attributes
+     *            attributes to process
+     */
+    public void process(final Map<String, List<Object>> attributes) {
+
+        for (int i = 0; i < processors.length; i++) {
+            process(i, attributes);
+        }
+    }
+
+    /**
+     * Apply one processor
+     * 
+     * @param index
+     *            index of the processor
+     * @param attributes
+     *            attributes to process
+     */
+    public void process(final int index, final Map<String, List<Object>> attributes) {
+
+        final String[] processorTargets = targets[index];
+        if ((processorTargets == null) || fullScan[index]) {
+            processors[index].processAttributes(attributes);
+            return;
+        }
+        final ITargetedAttributesProcessor processor = (ITargetedAttributesProcessor) processors[index];
+        for (final String name : processorTargets) {
+            final List<Object> values = attributes.get(name);
+            if (values != null) {
+                processor.processAttribute(attributes, name, values);
+            }
+        }
+    }
+
+    /**
+     * @return number of processors
+     */
+    public int size() {
+
+        return processors.length;
+    }
+
+    /**
+     * @param index
+     *            index of the processor
+     * @return target attribute names of the processor among the names known at its position, or null if it is not targeted
+     */
+    public String[] getTargets(final int index) {
+
+        return targets[index];
+    }
+
+}
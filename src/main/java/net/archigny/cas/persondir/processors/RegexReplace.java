@@ -3,7 +3,8 @@ package net.archigny.cas.persondir.processors;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.regex.Pattern;
+
+import net.archigny.cas.persondir.processors.SpecializedPattern.Replacement;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -20,42 +21,83 @@ import org.springframework.beans.factory.InitializingBean;
  * @author Philippe Marasse <philippe@archigny.net>
  * 
  */
-public class RegexReplace implements IAttributesProcessor, InitializingBean {
+public class RegexReplace implements ITargetedAttributesProcessor, InitializingBean {
+
+    /**
+     * Memo marker of values left unchanged by the replacement
+     */
+    private static final String         UNCHANGED = new String("");
+
+    private Logger                      log       = LoggerFactory.getLogger(RegexReplace.class);
 
-    private Logger  log = LoggerFactory.getLogger(RegexReplace.class);
+    private String                      keyMatch;
 
-    private String  keyMatch;
+    private String                      valueMatch;
 
-    private String  valueMatch;
+    private String                      valueReplace;
 
-    private String  valueReplace;
+    private SpecializedPattern          keyPattern;
 
-    private Pattern keyPattern;
+    private Replacement                 replacement;
 
-    private Pattern valuePattern;
+    /**
+     * Number of replacement results remembered, keyed by input value (0 => no memo)
+     */
+    private int                         memoSize  = 0;
+
+    private ValueTransformCache<String> memoCache;
 
     @Override
     public void processAttributes(final Map<String, List<Object>> attributes) {
 
-        final Set<String> attributeNames = attributes.keySet();
-        for (final String attributeName : attributeNames) {
-            log.debug("Considering attribute name : ", attributeName);
-            if (keyPattern.matcher(attributeName).find()) {
-                log.debug("Attribute matches, applying value replacements");
-                final List<Object> values = attributes.get(attributeName);
-                int size = values.size();
-                for (int i = 0; i < size; i++) {
-                    final Object value = values.get(i);
-                    if (value instanceof String) {
-                        values.set(i, valuePattern.matcher(((String) value)).replaceAll(valueReplace));
-                    }
-                }
+        for (final Map.Entry<String, List<Object>> attribute : attributes.entrySet()) {
+            log.debug("Considering attribute name : {}", attribute.getKey());
+            if (isTargetAttribute(attribute.getKey())) {
+                processAttribute(attributes, attribute.getKey(), attribute.getValue());
             } else {
                 log.debug("Attribute does not match.");
             }
         }
     }
 
+    @Override
+    public boolean isTargetAttribute(final String attributeName) {
+
+        return keyPattern.find(attributeName);
+    }
+
+    @Override
+    public void processAttribute(final Map<String, List<Object>> attributes, final String attributeName,
+            final List<Object> values) {
+
+        log.debug("Attribute {} matches, applying value replacements", attributeName);
+        final int size = values.size();
+        for (int i = 0; i < size; i++) {
+            final Object value = values.get(i);
+            if (value instanceof String) {
+                values.set(i, replace((String) value));
+            }
+        }
+    }
+
+    /**
+     * Apply the replacement to a value, through the memo if enabled
+     */
+    private String replace(final String value) {
+
+        if (memoCache == null) {
+            return replacement.replaceAll(value);
+        }
+        final String memo = memoCache.get(value);
+        if (memo != null) {
+            // Unchanged values are returned as is, so that callers may detect them by identity
+            return (memo == UNCHANGED ? value : memo);
+        }
+        final String result = replacement.replaceAll(value);
+        memoCache.put(value, (result == value ? UNCHANGED : result));
+        return result;
+    }
+
     /**
      * Since there is no attribute added by this implementation, return null
      */
@@ -78,10 +120,16 @@ public class RegexReplace implements IAttributesProcessor, InitializingBean {
             throw new BeanCreationException("attrReplace cannot be null");
         }
         // Validate patterns.
-        keyPattern = Pattern.compile(keyMatch);
-        valuePattern = Pattern.compile(valueMatch);
+        keyPattern = SpecializedPattern.compile(keyMatch, 0);
+        replacement = SpecializedPattern.compile(valueMatch, 0).replacement(valueReplace);
+        if (memoSize < 0) {
+            throw new BeanCreationException("memoSize cannot be negative");
+        }
+        memoCache = (memoSize > 0 ? new ValueTransformCache<String>(memoSize) : null);
         log.debug("Configured to match attribute names : [{}] / values match [{}] replacement : [{}]", new Object[] { keyMatch,
                 valueMatch, valueReplace });
+        log.debug("Key pattern run as {}, value replacement specialized : {}", keyPattern.getShape(),
+                replacement.isSpecialized());
     }
 
     // Getters and setters
@@ -106,6 +154,28 @@ public class RegexReplace implements IAttributesProcessor, InitializingBean {
         this.valueMatch = valueMatch;
     }
 
+    public int getMemoSize() {
+
+        return memoSize;
+    }
+
+    /**
+     * @param memoSize
+     *            number of results remembered, keyed by input value (0 => every value is matched against the pattern)
+     */
+    public void setMemoSize(final int memoSize) {
+
+        this.memoSize = memoSize;
+    }
+
+    /**
+     * @return memo of results, with its hit rate (null if memoSize is 0)
+     */
+    public ValueTransformCache<String> getMemoCache() {
+
+        return memoCache;
+    }
+
     public String getValueReplace() {
 
         return valueReplace;
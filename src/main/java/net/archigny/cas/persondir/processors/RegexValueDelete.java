@@ -24,48 +24,38 @@ import org.springframework.beans.factory.InitializingBean;
  * @author philippe
  * 
  */
-public class RegexValueDelete implements IAttributesProcessor, InitializingBean {
+public class RegexValueDelete implements ITargetedAttributesProcessor, InitializingBean {
 
-    private Logger  log           = LoggerFactory.getLogger(RegexValueDelete.class);
+    private Logger                       log           = LoggerFactory.getLogger(RegexValueDelete.class);
 
-    private String  key;
+    private String                       key;
 
-    private String  valueMatch;
+    private String                       valueMatch;
 
-    private boolean caseSensitive = true;
+    private boolean                      caseSensitive = true;
 
-    private Pattern valuePattern;
+    private SpecializedPattern           valuePattern;
+
+    /**
+     * Number of delete decisions remembered, keyed by input value (0 => no memo)
+     */
+    private int                          memoSize      = 0;
+
+    private ValueTransformCache<Boolean> memoCache;
 
     @Override
     public void processAttributes(final Map<String, List<Object>> attributes) {
 
-        final Set<String> attributeNames = attributes.keySet();
-        for (final String attributeName : attributeNames) {
-            log.debug("Considering attribute name : {}", attributeName);
-            if (attributeName.equalsIgnoreCase(key)) {
-                log.debug("Attribute found, searching values to delete");
-                final List<Object> values = attributes.get(attributeName);
-                final List<Object> valuesToDelete = new ArrayList<Object>();
-
-                final int size = values.size();
-                for (int i = 0; i < size; i++) {
-                    final Object value = values.get(i);
-                    if (value instanceof String) {
-                        if (valuePattern.matcher(((String) value)).matches()) {
-                            valuesToDelete.add(value);
-                        }
-                    }
-                }
-                log.debug("{} values found to be deleted", valuesToDelete.size());
-                if (!valuesToDelete.isEmpty()) {
-                    try {
-                        values.removeAll(valuesToDelete);
-                    } catch (UnsupportedOperationException e) {
-                        for (Object valueToDelete : valuesToDelete) {
-                            values.remove(valueToDelete);
-                        }
-                    }
-                }
+        // Direct lookup : hits whatever the case with a case insensitive map, or when the case matches with other maps
+        final List<Object> values = attributes.get(key);
+        if (values != null) {
+            processAttribute(attributes, key, values);
+            return;
+        }
+        for (final Map.Entry<String, List<Object>> attribute : attributes.entrySet()) {
+            log.debug("Considering attribute name : {}", attribute.getKey());
+            if (isTargetAttribute(attribute.getKey())) {
+                processAttribute(attributes, attribute.getKey(), attribute.getValue());
                 break;
             } else {
                 log.debug("Attribute does not match.");
@@ -74,6 +64,56 @@ public class RegexValueDelete implements IAttributesProcessor, InitializingBean
 
     }
 
+    @Override
+    public boolean isTargetAttribute(final String attributeName) {
+
+        return attributeName.equalsIgnoreCase(key);
+    }
+
+    @Override
+    public void processAttribute(final Map<String, List<Object>> attributes, final String attributeName,
+            final List<Object> values) {
+
+        log.debug("Attribute found, searching values to delete");
+        final List<Object> valuesToDelete = new ArrayList<Object>();
+
+        final int size = values.size();
+        for (int i = 0; i < size; i++) {
+            final Object value = values.get(i);
+            if (value instanceof String) {
+                if (matches((String) value)) {
+                    valuesToDelete.add(value);
+                }
+            }
+        }
+        log.debug("{} values found to be deleted", valuesToDelete.size());
+        if (!valuesToDelete.isEmpty()) {
+            try {
+                values.removeAll(valuesToDelete);
+            } catch (UnsupportedOperationException e) {
+                for (Object valueToDelete : valuesToDelete) {
+                    values.remove(valueToDelete);
+                }
+            }
+        }
+    }
+
+    /**
+     * Match a value against the pattern, through the memo if enabled
+     */
+    private boolean matches(final String value) {
+
+        if (memoCache == null) {
+            return valuePattern.matches(value);
+        }
+        Boolean memo = memoCache.get(value);
+        if (memo == null) {
+            memo = Boolean.valueOf(valuePattern.matches(value));
+            memoCache.put(value, memo);
+        }
+        return memo.booleanValue();
+    }
+
     /**
      * Since this implementation does not add attribute, return null
      */
@@ -94,11 +134,16 @@ public class RegexValueDelete implements IAttributesProcessor, InitializingBean
         }
         // Validate pattern.
         if (caseSensitive) {
-            valuePattern = Pattern.compile(valueMatch);
+            valuePattern = SpecializedPattern.compile(valueMatch, 0);
         } else {
-            valuePattern = Pattern.compile(valueMatch, Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+            valuePattern = SpecializedPattern.compile(valueMatch, Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+        }
+        if (memoSize < 0) {
+            throw new BeanCreationException("memoSize cannot be negative");
         }
+        memoCache = (memoSize > 0 ? new ValueTransformCache<Boolean>(memoSize) : null);
         log.debug("Configured for attribute name : [{}] / values match [{}]", key, valueMatch);
+        log.debug("Value pattern run as {}", valuePattern.getShape());
 
     }
 
@@ -124,6 +169,28 @@ public class RegexValueDelete implements IAttributesProcessor, InitializingBean
         this.valueMatch = valueMatch;
     }
 
+    public int getMemoSize() {
+
+        return memoSize;
+    }
+
+    /**
+     * @param memoSize
+     *            number of results remembered, keyed by input value (0 => every value is matched against the pattern)
+     */
+    public void setMemoSize(final int memoSize) {
+
+        this.memoSize = memoSize;
+    }
+
+    /**
+     * @return memo of results, with its hit rate (null if memoSize is 0)
+     */
+    public ValueTransformCache<Boolean> getMemoCache() {
+
+        return memoCache;
+    }
+
     public boolean isCaseSensitive() {
 
         return caseSensitive;
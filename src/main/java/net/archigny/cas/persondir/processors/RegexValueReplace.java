@@ -5,6 +5,8 @@ import java.util.Map;
 import java.util.Set;
 import java.util.regex.Pattern;
 
+import net.archigny.cas.persondir.processors.SpecializedPattern.Replacement;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.BeanCreationException;
@@ -23,36 +25,47 @@ import org.springframework.beans.factory.InitializingBean;
  * @author philippe
  * 
  */
-public class RegexValueReplace implements IAttributesProcessor, InitializingBean {
+public class RegexValueReplace implements ITargetedAttributesProcessor, InitializingBean {
+
+    /**
+     * Memo marker of values left unchanged by the replacement
+     */
+    private static final String         UNCHANGED     = new String("");
+
+    private Logger                      log           = LoggerFactory.getLogger(RegexValueReplace.class);
 
-    private Logger  log           = LoggerFactory.getLogger(RegexValueReplace.class);
+    private String                      key;
 
-    private String  key;
+    private String                      valueMatch;
 
-    private String  valueMatch;
+    private String                      valueReplace;
 
-    private String  valueReplace;
+    private boolean                     caseSensitive = true;
 
-    private boolean caseSensitive = true;
+    private SpecializedPattern          valuePattern;
 
-    private Pattern valuePattern;
+    private Replacement                 replacement;
+
+    /**
+     * Number of replacement results remembered, keyed by input value (0 => no memo)
+     */
+    private int                         memoSize      = 0;
+
+    private ValueTransformCache<String> memoCache;
 
     @Override
     public void processAttributes(final Map<String, List<Object>> attributes) {
 
-        final Set<String> attributeNames = attributes.keySet();
-        for (final String attributeName : attributeNames) {
-            log.debug("Considering attribute name : {}", attributeName);
-            if (attributeName.equalsIgnoreCase(key)) {
-                log.debug("Attribute found, applying value replacements");
-                final List<Object> values = attributes.get(attributeName);
-                int size = values.size();
-                for (int i = 0; i < size; i++) {
-                    final Object value = values.get(i);
-                    if (value instanceof String) {
-                        values.set(i, valuePattern.matcher(((String) value)).replaceAll(valueReplace));
-                    }
-                }
+        // Direct lookup : hits whatever the case with a case insensitive map, or when the case matches with other maps
+        final List<Object> values = attributes.get(key);
+        if (values != null) {
+            processAttribute(attributes, key, values);
+            return;
+        }
+        for (final Map.Entry<String, List<Object>> attribute : attributes.entrySet()) {
+            log.debug("Considering attribute name : {}", attribute.getKey());
+            if (isTargetAttribute(attribute.getKey())) {
+                processAttribute(attributes, attribute.getKey(), attribute.getValue());
                 break;
             } else {
                 log.debug("Attribute does not match.");
@@ -61,6 +74,44 @@ public class RegexValueReplace implements IAttributesProcessor, InitializingBean
 
     }
 
+    @Override
+    public boolean isTargetAttribute(final String attributeName) {
+
+        return attributeName.equalsIgnoreCase(key);
+    }
+
+    @Override
+    public void processAttribute(final Map<String, List<Object>> attributes, final String attributeName,
+            final List<Object> values) {
+
+        log.debug("Attribute found, applying value replacements");
+        final int size = values.size();
+        for (int i = 0; i < size; i++) {
+            final Object value = values.get(i);
+            if (value instanceof String) {
+                values.set(i, replace((String) value));
+            }
+        }
+    }
+
+    /**
+     * Apply the replacement to a value, through the memo if enabled
+     */
+    private String replace(final String value) {
+
+        if (memoCache == null) {
+            return replacement.replaceAll(value);
+        }
+        final String memo = memoCache.get(value);
+        if (memo != null) {
+            // Unchanged values are returned as is, so that callers may detect them by identity
+            return (memo == UNCHANGED ? value : memo);
+        }
+        final String result = replacement.replaceAll(value);
+        memoCache.put(value, (result == value ? UNCHANGED : result));
+        return result;
+    }
+
     /**
      * Since this implementation does not add attribute, return null
      */
@@ -84,12 +135,19 @@ public class RegexValueReplace implements IAttributesProcessor, InitializingBean
         }
         // Validate pattern.
         if (caseSensitive) {
-            valuePattern = Pattern.compile(valueMatch);
+            valuePattern = SpecializedPattern.compile(valueMatch, 0);
         } else {
-            valuePattern = Pattern.compile(valueMatch, Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+            valuePattern = SpecializedPattern.compile(valueMatch, Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+        }
+        replacement = valuePattern.replacement(valueReplace);
+        if (memoSize < 0) {
+            throw new BeanCreationException("memoSize cannot be negative");
         }
+        memoCache = (memoSize > 0 ? new ValueTransformCache<String>(memoSize) : null);
         log.debug("Configured to match attribute name : [{}] / values match [{}] replacement : [{}]", new Object[] { key,
                 valueMatch, valueReplace });
+        log.debug("Value pattern run as {} (specialized replacement : {})", valuePattern.getShape(),
+                replacement.isSpecialized());
 
     }
 
@@ -125,6 +183,28 @@ public class RegexValueReplace implements IAttributesProcessor, InitializingBean
         this.valueReplace = valueReplace;
     }
 
+    public int getMemoSize() {
+
+        return memoSize;
+    }
+
+    /**
+     * @param memoSize
+     *            number of results remembered, keyed by input value (0 => every value is matched against the pattern)
+     */
+    public void setMemoSize(final int memoSize) {
+
+        this.memoSize = memoSize;
+    }
+
+    /**
+     * @return memo of results, with its hit rate (null if memoSize is 0)
+     */
+    public ValueTransformCache<String> getMemoCache() {
+
+        return memoCache;
+    }
+
     public boolean isCaseSensitive() {
 
         return caseSensitive;
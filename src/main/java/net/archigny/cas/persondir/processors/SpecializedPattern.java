@@ -0,0 +1,623 @@
+package net.archigny.cas.persondir.processors;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+/**
+ * Regular expression compiled with Pattern, then analyzed to find if it is equivalent to a simple shape which can be run without
+ * the backtracking engine :
+ * <ul>
+ * <li>a literal, possibly anchored (<code>^cn=list-</code>, <code>,dc=net$</code>) or surrounded by <code>.*</code> : equality,
+ * prefix, suffix or contains test</li>
+ * <li>a delimiter capture (<code>^cn=([^,]+),.*$</code>) : the group is cut at the first delimiter</li>
+ * <li>an anchored alternation of literals (<code>^(cn|sn)$</code>) : set lookup</li>
+ * </ul>
+ * Other expressions, and values holding a line terminator where <code>.</code> or <code>$</code> would see it (both treat
+ * them specially), are run by Pattern : results are always the same as Pattern's. Case insensitive matching is specialized for
+ * CASE_INSENSITIVE | UNICODE_CASE flags and ASCII literals only.
+ */
+public final class SpecializedPattern {
+
+    /**
+     * Shape of the expression
+     */
+    public enum Shape {
+        /** Run by Pattern */
+        GENERAL,
+        /** Literal, with anchors or <code>.*</code> around it */
+        LITERAL,
+        /** Literal prefix, then a group of characters other than a delimiter */
+        DELIMITER_CAPTURE,
+        /** Alternation of literals, anchored at both ends */
+        LITERAL_SET
+    }
+
+    private static final String  METACHARACTERS = "\\^$.|?*+()[]{}";
+
+    private final Pattern        pattern;
+
+    private final Shape          shape;
+
+    private final boolean        ignoreCase;
+
+    /**
+     * Literal, or literal prefix of a delimiter capture
+     */
+    private final String         literal;
+
+    /**
+     * True if the expression starts with ^ (resp. ends with $)
+     */
+    private final boolean        startAnchor;
+
+    private final boolean        endAnchor;
+
+    /**
+     * True if the literal is preceded (resp. followed) by .*
+     */
+    private final boolean        leadingAny;
+
+    private final boolean        trailingAny;
+
+    /**
+     * Delimiter capture : delimiter excluded from the group, minimum group length, and true if the delimiter itself follows the
+     * group
+     */
+    private final char           delimiter;
+
+    private final int            minGroupLength;
+
+    private final boolean        delimiterFollows;
+
+    /**
+     * Alternatives of a literal set
+     */
+    private final Set<String>    literals;
+
+    private SpecializedPattern(final Pattern pattern, final Shape shape, final String literal, final boolean startAnchor,
+            final boolean endAnchor, final boolean leadingAny, final boolean trailingAny, final char delimiter,
+            final int minGroupLength, final boolean delimiterFollows, final Set<String> literals) {
+
+        this.pattern = pattern;
+        this.shape = shape;
+        this.ignoreCase = (pattern.flags() & Pattern.CASE_INSENSITIVE) != 0;
+        this.literal = literal;
+        this.startAnchor = startAnchor;
+        this.endAnchor = endAnchor;
+        this.leadingAny = leadingAny;
+        this.trailingAny = trailingAny;
+        this.delimiter = delimiter;
+        this.minGroupLength = minGroupLength;
+        this.delimiterFollows = delimiterFollows;
+        this.literals = literals;
+    }
+
+    /**
+     * Compile and analyze an expression
+     *
+     * @param regex
+     *            regular expression
+     * @param flags
+     *            Pattern flags
+     * @return specialized pattern (shape GENERAL if no specialization applies)
+     * @throws java.util.regex.PatternSyntaxException
+     *             if the expression is invalid
+     */
+    public static SpecializedPattern compile(final String regex, final int flags) {
+
+        final Pattern pattern = Pattern.compile(regex, flags);
+        final boolean ignoreCase;
+        if (flags == 0) {
+            ignoreCase = false;
+        } else if (flags == (Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE)) {
+            ignoreCase = true;
+        } else {
+            return general(pattern);
+        }
+
+        final Parser parser = new Parser(regex);
+        final boolean startAnchor = parser.consume('^');
+        final boolean leadingAny = parser.consumeAny();
+        final String prefix = parser.literal();
+        if (prefix == null) {
+            return general(pattern);
+        }
+
+        if (parser.atGroup() && !leadingAny) {
+            final int groupStart = parser.position;
+            // Delimiter capture : ([^D]+) or ([^D]*)
+            final SpecializedPattern capture = parseCapture(pattern, parser, prefix, startAnchor, ignoreCase);
+            if (capture != null) {
+                return capture;
+            }
+            parser.position = groupStart;
+            // Literal set : (A|B) or (?:A|B), alone and anchored
+            if (prefix.length() == 0) {
+                final Set<String> alternatives = parser.alternation(ignoreCase);
+                if ((alternatives != null) && parser.consume('$') && parser.atEnd() && startAnchor
+                        && isAsciiOrCaseSensitive(alternatives, ignoreCase)) {
+                    return new SpecializedPattern(pattern, Shape.LITERAL_SET, null, true, true, false, false, '\0', 0, false,
+                            alternatives);
+                }
+            }
+            return general(pattern);
+        }
+
+        final boolean trailingAny = parser.consumeAny();
+        final boolean endAnchor = parser.consume('$');
+        if (!parser.atEnd() || (prefix.length() == 0) || (ignoreCase && !isAscii(prefix))) {
+            return general(pattern);
+        }
+        return new SpecializedPattern(pattern, Shape.LITERAL, prefix, startAnchor, endAnchor, leadingAny, trailingAny, '\0', 0,
+                false, null);
+    }
+
+    private static SpecializedPattern parseCapture(final Pattern pattern, final Parser parser, final String prefix,
+            final boolean startAnchor, final boolean ignoreCase) {
+
+        if (!startAnchor || (ignoreCase && !isAscii(prefix)) || !parser.consume('(') || !parser.consume('[')
+                || !parser.consume('^')) {
+            return null;
+        }
+        final int delimiter = parser.literalChar();
+        if ((delimiter < 0) || !parser.consume(']')) {
+            return null;
+        }
+        final int minGroupLength;
+        if (parser.consume('+')) {
+            minGroupLength = 1;
+        } else if (parser.consume('*')) {
+            minGroupLength = 0;
+        } else {
+            return null;
+        }
+        if (!parser.consume(')') || (ignoreCase && Character.isLetter(delimiter)) || (delimiter > 0x7F)) {
+            return null;
+        }
+        // Optional delimiter, then optional .* and $
+        final int beforeDelimiter = parser.position;
+        boolean delimiterFollows = false;
+        if (parser.literalChar() == delimiter) {
+            delimiterFollows = true;
+        } else {
+            parser.position = beforeDelimiter;
+        }
+        final boolean trailingAny = parser.consumeAny();
+        final boolean endAnchor = parser.consume('$');
+        if (!parser.atEnd()) {
+            return null;
+        }
+        return new SpecializedPattern(pattern, Shape.DELIMITER_CAPTURE, prefix, true, endAnchor, false, trailingAny,
+                (char) delimiter, minGroupLength, delimiterFollows, null);
+    }
+
+    private static SpecializedPattern general(final Pattern pattern) {
+
+        return new SpecializedPattern(pattern, Shape.GENERAL, null, false, false, false, false, '\0', 0, false, null);
+    }
+
+    private static boolean isAscii(final String value) {
+
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) > 0x7F) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isAsciiOrCaseSensitive(final Collection<String> values, final boolean ignoreCase) {
+
+        if (ignoreCase) {
+            for (final String value : values) {
+                if (!isAscii(value)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Characters Pattern treats as line terminators : <code>.</code> does not match them and <code>$</code> may match before
+     * them, such values are left to Pattern
+     */
+    private static boolean isLineTerminator(final char c) {
+
+        return (c == '\n') || (c == '\r') || (c == '\u0085') || (c == '\u2028') || (c == '\u2029');
+    }
+
+    private static boolean hasLineTerminator(final String value) {
+
+        for (int i = 0; i < value.length(); i++) {
+            if (isLineTerminator(value.charAt(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param find
+     *            true for find and replaceAll, where $ also matches before a final line terminator
+     * @return true if the value must be run by Pattern
+     */
+    private boolean needsPattern(final String value, final boolean find) {
+
+        if (shape == Shape.GENERAL) {
+            return true;
+        }
+        if ((leadingAny || trailingAny) && hasLineTerminator(value)) {
+            return true;
+        }
+        return find && endAnchor && (value.length() > 0) && isLineTerminator(value.charAt(value.length() - 1));
+    }
+
+    private boolean regionMatches(final String value, final int offset, final String other) {
+
+        return value.regionMatches(ignoreCase, offset, other, 0, other.length());
+    }
+
+    private int indexOf(final String value, final int from) {
+
+        if (!ignoreCase) {
+            return value.indexOf(literal, from);
+        }
+        final int last = value.length() - literal.length();
+        for (int i = from; i <= last; i++) {
+            if (value.regionMatches(true, i, literal, 0, literal.length())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Delimiter capture : end of the group matched at the start of value, or -1 if there is no match
+     */
+    private int captureEnd(final String value) {
+
+        final int start = literal.length();
+        if ((value.length() < start) || !regionMatches(value, 0, literal)) {
+            return -1;
+        }
+        int end = value.indexOf(delimiter, start);
+        if (end < 0) {
+            end = value.length();
+        }
+        if (end - start < minGroupLength) {
+            return -1;
+        }
+        return end;
+    }
+
+    /**
+     * Delimiter capture : end of the whole match, given the end of the group, or -1 if there is no match
+     */
+    private int matchEnd(final String value, final int groupEnd) {
+
+        int end = groupEnd;
+        if (delimiterFollows) {
+            if (end == value.length()) {
+                return -1;
+            }
+            end++;
+        }
+        if (trailingAny) {
+            end = value.length();
+        }
+        if (endAnchor && (end != value.length())) {
+            return -1;
+        }
+        return end;
+    }
+
+    /**
+     * Same as <code>pattern.matcher(value).matches()</code>
+     */
+    public boolean matches(final String value) {
+
+        if (needsPattern(value, false)) {
+            return pattern.matcher(value).matches();
+        }
+        switch (shape) {
+            case LITERAL:
+                if (leadingAny && trailingAny) {
+                    return indexOf(value, 0) >= 0;
+                } else if (leadingAny) {
+                    return (value.length() >= literal.length())
+                            && regionMatches(value, value.length() - literal.length(), literal);
+                } else if (trailingAny) {
+                    return (value.length() >= literal.length()) && regionMatches(value, 0, literal);
+                }
+                return (value.length() == literal.length()) && regionMatches(value, 0, literal);
+            case DELIMITER_CAPTURE:
+                final int groupEnd = captureEnd(value);
+                return (groupEnd >= 0) && (matchEnd(value, groupEnd) == value.length());
+            default:
+                return literals.contains(value);
+        }
+    }
+
+    /**
+     * Same as <code>pattern.matcher(value).find()</code>
+     */
+    public boolean find(final String value) {
+
+        if (needsPattern(value, true)) {
+            return pattern.matcher(value).find();
+        }
+        switch (shape) {
+            case LITERAL:
+                final boolean anchoredStart = startAnchor && !leadingAny;
+                final boolean anchoredEnd = endAnchor && !trailingAny;
+                if (value.length() < literal.length()) {
+                    return false;
+                }
+                if (anchoredStart && anchoredEnd) {
+                    return (value.length() == literal.length()) && regionMatches(value, 0, literal);
+                } else if (anchoredStart) {
+                    return regionMatches(value, 0, literal);
+                } else if (anchoredEnd) {
+                    return regionMatches(value, value.length() - literal.length(), literal);
+                }
+                return indexOf(value, 0) >= 0;
+            case DELIMITER_CAPTURE:
+                final int groupEnd = captureEnd(value);
+                return (groupEnd >= 0) && (matchEnd(value, groupEnd) >= 0);
+            default:
+                return literals.contains(value);
+        }
+    }
+
+    /**
+     * Compile a replacement for replaceAll
+     *
+     * @param replacement
+     *            replacement string, as accepted by Matcher.replaceAll
+     * @return compiled replacement
+     */
+    public Replacement replacement(final String replacement) {
+
+        return new Replacement(replacement);
+    }
+
+    public Pattern getPattern() {
+
+        return pattern;
+    }
+
+    public Shape getShape() {
+
+        return shape;
+    }
+
+    @Override
+    public String toString() {
+
+        return pattern.pattern() + " (" + shape + ")";
+    }
+
+    /**
+     * Replacement string of a SpecializedPattern. Only literal text and references to the delimiter capture group ($1) are
+     * specialized, other replacements being run by Pattern.
+     */
+    public final class Replacement {
+
+        private final String   replacement;
+
+        /**
+         * Literal segments, a group reference standing between two segments (null if the replacement is not specialized)
+         */
+        private final String[] segments;
+
+        private final boolean  specialized;
+
+        private Replacement(final String replacement) {
+
+            this.replacement = replacement;
+            final List<String> parts = new ArrayList<String>();
+            boolean valid = (replacement.indexOf('\\') < 0);
+            int start = 0;
+            int dollar;
+            while (valid && ((dollar = replacement.indexOf('$', start)) >= 0)) {
+                // Only a $1 group reference, not followed by another digit, is accepted
+                valid = (shape == Shape.DELIMITER_CAPTURE) && (dollar + 1 < replacement.length())
+                        && (replacement.charAt(dollar + 1) == '1')
+                        && ((dollar + 2 == replacement.length()) || !Character.isDigit(replacement.charAt(dollar + 2)));
+                parts.add(replacement.substring(start, dollar));
+                start = dollar + 2;
+            }
+            if (valid) {
+                parts.add(replacement.substring(Math.min(start, replacement.length())));
+            }
+            this.segments = (valid ? parts.toArray(new String[parts.size()]) : null);
+            this.specialized = valid && (shape != Shape.GENERAL) && (shape != Shape.LITERAL_SET)
+                    && ((shape != Shape.LITERAL) || (!leadingAny && !trailingAny));
+        }
+
+        private void appendReplacement(final StringBuilder sb, final String value, final int groupStart, final int groupEnd) {
+
+            sb.append(segments[0]);
+            for (int i = 1; i < segments.length; i++) {
+                sb.append(value, groupStart, groupEnd).append(segments[i]);
+            }
+        }
+
+        /**
+         * Same as <code>pattern.matcher(value).replaceAll(replacement)</code>, value itself being returned if nothing matches
+         */
+        public String replaceAll(final String value) {
+
+            if (!specialized || needsPattern(value, true)) {
+                return pattern.matcher(value).replaceAll(replacement);
+            }
+            if (shape == Shape.DELIMITER_CAPTURE) {
+                final int groupEnd = captureEnd(value);
+                final int end = (groupEnd < 0 ? -1 : matchEnd(value, groupEnd));
+                if (end < 0) {
+                    return value;
+                }
+                final StringBuilder sb = new StringBuilder(replacement.length() + groupEnd + value.length() - end);
+                appendReplacement(sb, value, literal.length(), groupEnd);
+                sb.append(value, end, value.length());
+                return sb.toString();
+            }
+
+            // Literal
+            final int length = literal.length();
+            if (startAnchor || endAnchor) {
+                final int start = (startAnchor ? 0 : value.length() - length);
+                if ((start < 0) || (endAnchor && (start + length != value.length())) || !regionMatches(value, start, literal)) {
+                    return value;
+                }
+                final StringBuilder sb = new StringBuilder(value.length() - length + replacement.length());
+                sb.append(value, 0, start).append(replacement).append(value, start + length, value.length());
+                return sb.toString();
+            }
+            int index = indexOf(value, 0);
+            if (index < 0) {
+                return value;
+            }
+            final StringBuilder sb = new StringBuilder(value.length() + replacement.length());
+            int start = 0;
+            while (index >= 0) {
+                sb.append(value, start, index).append(replacement);
+                start = index + length;
+                index = indexOf(value, start);
+            }
+            sb.append(value, start, value.length());
+            return sb.toString();
+        }
+
+        /**
+         * @return true if replaceAll runs without Pattern (for values without line terminators)
+         */
+        public boolean isSpecialized() {
+
+            return specialized;
+        }
+    }
+
+    /**
+     * Minimal reader of the expression shapes handled here
+     */
+    private static final class Parser {
+
+        private final String regex;
+
+        private int          position;
+
+        public Parser(final String regex) {
+
+            this.regex = regex;
+        }
+
+        public boolean atEnd() {
+
+            return position == regex.length();
+        }
+
+        public boolean atGroup() {
+
+            return (position < regex.length()) && (regex.charAt(position) == '(');
+        }
+
+        public boolean consume(final char c) {
+
+            if ((position < regex.length()) && (regex.charAt(position) == c)) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        public boolean consumeAny() {
+
+            if (regex.startsWith(".*", position) && !regex.startsWith(".*?", position) && !regex.startsWith(".*+", position)) {
+                position += 2;
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Read a literal character : a plain character, or a backslash followed by a character which is neither a letter nor a
+         * digit
+         *
+         * @return character, or -1 (position unchanged) if the next character is not a literal
+         */
+        public int literalChar() {
+
+            if (position >= regex.length()) {
+                return -1;
+            }
+            final char c = regex.charAt(position);
+            if (c == '\\') {
+                if ((position + 1 < regex.length()) && !Character.isLetterOrDigit(regex.charAt(position + 1))
+                        && !Character.isSurrogate(regex.charAt(position + 1))) {
+                    position += 2;
+                    return regex.charAt(position - 1);
+                }
+                return -1;
+            }
+            if ((METACHARACTERS.indexOf(c) >= 0) || Character.isSurrogate(c)) {
+                return -1;
+            }
+            position++;
+            return c;
+        }
+
+        /**
+         * Read a literal, up to a metacharacter. A literal followed by a quantifier is not read.
+         *
+         * @return literal (may be empty), or null if the last character read is quantified
+         */
+        public String literal() {
+
+            final StringBuilder sb = new StringBuilder();
+            int c;
+            while ((c = literalChar()) >= 0) {
+                sb.append((char) c);
+            }
+            if ((position < regex.length()) && ("?*+{".indexOf(regex.charAt(position)) >= 0) && (sb.length() > 0)) {
+                return null;
+            }
+            return sb.toString();
+        }
+
+        /**
+         * Read a group of literal alternatives : (A|B) or (?:A|B)
+         *
+         * @return alternatives, or null if the group is not an alternation of literals
+         */
+        public Set<String> alternation(final boolean ignoreCase) {
+
+            if (!consume('(')) {
+                return null;
+            }
+            if (consume('?') && !consume(':')) {
+                return null;
+            }
+            final Set<String> alternatives = (ignoreCase ? new TreeSet<String>(String.CASE_INSENSITIVE_ORDER)
+                    : new HashSet<String>());
+            do {
+                final String alternative = literal();
+                if ((alternative == null) || (alternative.length() == 0)) {
+                    return null;
+                }
+                alternatives.add(alternative);
+            } while (consume('|'));
+            if (!consume(')')) {
+                return null;
+            }
+            return alternatives;
+        }
+    }
+
+}
@@ -1,5 +1,6 @@
 package net.archigny.cas.persondir.processors;
 
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
@@ -11,7 +12,12 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.BeanCreationException;
 import org.springframework.beans.factory.InitializingBean;
 
-public class UuidBinaryToStringProcessor implements IAttributesProcessor, InitializingBean {
+/**
+ * Converts binary UUIDs (eg : Active Directory objectGUID) to their string form, with UuidCodec.
+ */
+public class UuidBinaryToStringProcessor implements ITargetedAttributesProcessor, InitializingBean {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
 
     private Logger    log                         = LoggerFactory.getLogger(UuidBinaryToStringProcessor.class);
 
@@ -35,6 +41,11 @@ public class UuidBinaryToStringProcessor implements IAttributesProcessor, Initia
      */
     private boolean   deleteSourceAttribute       = true;
 
+    /**
+     * True if UUIDs are laid out as Active Directory objectGUID (first three fields little endian), false for RFC 4122 order
+     */
+    private boolean   activeDirectoryByteOrder    = false;
+
     /**
      * UUID length in bytes
      */
@@ -58,8 +69,22 @@ public class UuidBinaryToStringProcessor implements IAttributesProcessor, Initia
     public void processAttributes(final Map<String, List<Object>> attributes) {
 
         final List<Object> source = attributes.get(sourceAttribute);
+        if (source != null) {
+            processAttribute(attributes, sourceAttribute, source);
+        }
+    }
 
-        if ((source == null) || (source.isEmpty())) {
+    @Override
+    public boolean isTargetAttribute(final String attributeName) {
+
+        return sourceAttribute.equalsIgnoreCase(attributeName);
+    }
+
+    @Override
+    public void processAttribute(final Map<String, List<Object>> attributes, final String attributeName,
+            final List<Object> source) {
+
+        if (source.isEmpty()) {
             return;
         }
 
@@ -68,7 +93,19 @@ public class UuidBinaryToStringProcessor implements IAttributesProcessor, Initia
         for (final Object object : source) {
             try {
                 if (object instanceof String) {
-                    target.add(UuidToString(((String) object).getBytes()));
+                    // Binary value decoded as UTF-8 by JNDI (attribute not declared in java.naming.ldap.attributes.binary) :
+                    // only UUIDs whose bytes form valid UTF-8 survive
+                    final String value = (String) object;
+                    if (value.indexOf('\uFFFD') >= 0) {
+                        log.error("UUID value was corrupted while decoded as a String, declare {} as a binary attribute",
+                                sourceAttribute);
+                        if (raiseIllegalFormatException) {
+                            throw new IllegalArgumentException("UUID value was decoded as a String and cannot be restored");
+                        }
+                        target.add("Error");
+                    } else {
+                        target.add(UuidToString(value.getBytes(UTF8)));
+                    }
                 } else {
                     target.add(UuidToString((byte[]) object));
                 }
@@ -109,16 +146,7 @@ public class UuidBinaryToStringProcessor implements IAttributesProcessor, Initia
             return "Error";
         }
 
-        // Prepare the buffer
-        final StringBuilder UuidString = new StringBuilder(UUID_LENGTH * 2 + 4);
-        for (int i = 0; i < UUID_LENGTH; i++) {
-            if (i == 4 || i == 6 || i == 8 || i == 10) {
-                UuidString.append("-");
-            }
-            UuidString.append(String.format("%02x", UuidBytes[i]));
-        }
-
-        return UuidString.toString().toUpperCase();
+        return UuidCodec.toString(UuidBytes, activeDirectoryByteOrder);
 
     }
 
@@ -154,6 +182,16 @@ public class UuidBinaryToStringProcessor implements IAttributesProcessor, Initia
         this.raiseIllegalFormatException = raiseIllegalFormatException;
     }
 
+    public boolean isActiveDirectoryByteOrder() {
+
+        return activeDirectoryByteOrder;
+    }
+
+    public void setActiveDirectoryByteOrder(final boolean activeDirectoryByteOrder) {
+
+        this.activeDirectoryByteOrder = activeDirectoryByteOrder;
+    }
+
     public boolean isDeleteSourceAttribute() {
 
         return deleteSourceAttribute;
@@ -0,0 +1,152 @@
+package net.archigny.cas.persondir.processors;
+
+/**
+ * Table driven conversions between binary UUIDs and their 36 characters string form (8-4-4-4-12 upper case hex digits).<br />
+ * Two byte orders are supported : RFC 4122 order, where bytes are written as they are stored, and Active Directory objectGUID
+ * order, where the first three fields are stored little endian (bytes 3 2 1 0 - 5 4 - 7 6 - 8 9 - 10 to 15 are displayed).
+ */
+public final class UuidCodec {
+
+    /**
+     * UUID length in bytes
+     */
+    public static final int     LENGTH        = 16;
+
+    /**
+     * UUID string length
+     */
+    public static final int     STRING_LENGTH = 36;
+
+    private static final char[] HEX_DIGITS    = "0123456789ABCDEF".toCharArray();
+
+    /**
+     * Byte displayed at each position, RFC 4122 order
+     */
+    private static final int[]  RFC_4122      = { 0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15 };
+
+    /**
+     * Byte displayed at each position, Active Directory order
+     */
+    private static final int[]  AD_GUID       = { 3, 2, 1, 0, 5, 4, 7, 6, 8, 9, 10, 11, 12, 13, 14, 15 };
+
+    /**
+     * Value of each hex digit character, -1 for other characters
+     */
+    private static final byte[] HEX_VALUES    = new byte[128];
+
+    static {
+        for (int i = 0; i < HEX_VALUES.length; i++) {
+            HEX_VALUES[i] = -1;
+        }
+        for (int i = 0; i < 10; i++) {
+            HEX_VALUES['0' + i] = (byte) i;
+        }
+        for (int i = 0; i < 6; i++) {
+            HEX_VALUES['a' + i] = (byte) (10 + i);
+            HEX_VALUES['A' + i] = (byte) (10 + i);
+        }
+    }
+
+    private UuidCodec() {
+
+    }
+
+    private static boolean isDash(final int position) {
+
+        return (position == 8) || (position == 13) || (position == 18) || (position == 23);
+    }
+
+    /**
+     * Convert a binary UUID to its string form, in one pass
+     *
+     * @param uuid
+     *            16 bytes UUID
+     * @param activeDirectoryOrder
+     *            true if bytes are laid out as an Active Directory objectGUID
+     * @return UUID string (upper case)
+     * @throws IllegalArgumentException
+     *             if uuid is not 16 bytes long
+     */
+    public static String toString(final byte[] uuid, final boolean activeDirectoryOrder) {
+
+        if (uuid.length != LENGTH) {
+            throw new IllegalArgumentException("Uuid passed is not " + LENGTH + " bytes long !");
+        }
+        final int[] order = (activeDirectoryOrder ? AD_GUID : RFC_4122);
+        final char[] chars = new char[STRING_LENGTH];
+        int position = 0;
+        for (int i = 0; i < LENGTH; i++) {
+            if (isDash(position)) {
+                chars[position++] = '-';
+            }
+            final int b = uuid[order[i]];
+            chars[position++] = HEX_DIGITS[(b >> 4) & 0x0F];
+            chars[position++] = HEX_DIGITS[b & 0x0F];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Convert a UUID string to its binary form
+     *
+     * @param uuid
+     *            UUID string (8-4-4-4-12 hex digits, any case)
+     * @param activeDirectoryOrder
+     *            true to lay out bytes as an Active Directory objectGUID
+     * @return 16 bytes UUID
+     * @throws IllegalArgumentException
+     *             if uuid is not a valid UUID string
+     */
+    public static byte[] toBytes(final String uuid, final boolean activeDirectoryOrder) {
+
+        if (uuid.length() != STRING_LENGTH) {
+            throw new IllegalArgumentException("Invalid UUID string : " + uuid);
+        }
+        final int[] order = (activeDirectoryOrder ? AD_GUID : RFC_4122);
+        final byte[] bytes = new byte[LENGTH];
+        int position = 0;
+        for (int i = 0; i < LENGTH; i++) {
+            if (isDash(position)) {
+                if (uuid.charAt(position++) != '-') {
+                    throw new IllegalArgumentException("Invalid UUID string : " + uuid);
+                }
+            }
+            final int high = hexValue(uuid.charAt(position++));
+            final int low = hexValue(uuid.charAt(position++));
+            if ((high < 0) || (low < 0)) {
+                throw new IllegalArgumentException("Invalid UUID string : " + uuid);
+            }
+            bytes[order[i]] = (byte) ((high << 4) | low);
+        }
+        return bytes;
+    }
+
+    private static int hexValue(final char c) {
+
+        return (c < HEX_VALUES.length ? HEX_VALUES[c] : -1);
+    }
+
+    /**
+     * Build the LDAP filter assertion value matching a binary UUID attribute (eg : <code>(objectGUID=\bb\ae...)</code>)
+     *
+     * @param uuid
+     *            UUID string
+     * @param activeDirectoryOrder
+     *            true if the directory stores the UUID as an Active Directory objectGUID
+     * @return escaped assertion value (RFC 4515), each byte written as a backslash and two hex digits
+     * @throws IllegalArgumentException
+     *             if uuid is not a valid UUID string
+     */
+    public static String toFilterValue(final String uuid, final boolean activeDirectoryOrder) {
+
+        final byte[] bytes = toBytes(uuid, activeDirectoryOrder);
+        final char[] chars = new char[LENGTH * 3];
+        for (int i = 0; i < LENGTH; i++) {
+            chars[i * 3] = '\\';
+            chars[i * 3 + 1] = HEX_DIGITS[(bytes[i] >> 4) & 0x0F];
+            chars[i * 3 + 2] = HEX_DIGITS[bytes[i] & 0x0F];
+        }
+        return new String(chars);
+    }
+
+}
@@ -0,0 +1,166 @@
+package net.archigny.cas.persondir.processors;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded memo of a value transform (regex replacement result, delete decision...), keyed by input value. Used by regex
+ * processors when their memoSize is set, as most values (eg : group DNs in memberOf) are shared by many users.<br />
+ * The cache is a direct mapped table : each input value has a single slot, chosen by its hash, and a new value overwrites the
+ * previous occupant of its slot. Lookups and updates are lock free, and a hit allocates nothing. Hits and misses are counted
+ * in per thread stripes, so that concurrent lookups of shared values do not contend on a single counter.
+ *
+ * @param <V>
+ *            type of transform results
+ */
+public class ValueTransformCache<V> {
+
+    /** Counters of a stripe are spaced by a cache line (8 longs), to avoid false sharing between stripes */
+    private static final int                     STRIPE_SPACING = 8;
+
+    private static final int                     STRIPES        = stripeCount(Runtime.getRuntime().availableProcessors());
+
+    private final AtomicReferenceArray<Entry<V>> slots;
+
+    private final int                            mask;
+
+    private final AtomicLongArray                hits           = new AtomicLongArray(STRIPES * STRIPE_SPACING);
+
+    private final AtomicLongArray                misses         = new AtomicLongArray(STRIPES * STRIPE_SPACING);
+
+    /**
+     * @param size
+     *            number of slots, rounded up to a power of two
+     */
+    public ValueTransformCache(final int size) {
+
+        if (size <= 0) {
+            throw new IllegalArgumentException("size must be greater than 0");
+        }
+        final int capacity = (size == 1 ? 1 : Integer.highestOneBit(size - 1) << 1);
+        slots = new AtomicReferenceArray<Entry<V>>(capacity);
+        mask = capacity - 1;
+    }
+
+    /**
+     * @param processors
+     *            number of available processors
+     * @return number of counter stripes : a power of two, at least twice the processors count (up to 64)
+     */
+    static int stripeCount(final int processors) {
+
+        return Integer.highestOneBit(Math.max(1, Math.min(processors, 32))) << 1;
+    }
+
+    /**
+     * @return index of the counter of the current thread stripe
+     */
+    private static int stripe() {
+
+        return ((int) Thread.currentThread().getId() & (STRIPES - 1)) * STRIPE_SPACING;
+    }
+
+    private static long sum(final AtomicLongArray counters) {
+
+        long sum = 0;
+        for (int i = 0; i < counters.length(); i += STRIPE_SPACING) {
+            sum += counters.get(i);
+        }
+        return sum;
+    }
+
+    private int slot(final String value) {
+
+        final int h = value.hashCode();
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    /**
+     * @param value
+     *            input value
+     * @return memoized result, or null if the value is not cached
+     */
+    public V get(final String value) {
+
+        final Entry<V> entry = slots.get(slot(value));
+        if ((entry != null) && entry.value.equals(value)) {
+            hits.incrementAndGet(stripe());
+            return entry.result;
+        }
+        misses.incrementAndGet(stripe());
+        return null;
+    }
+
+    /**
+     * Memoize a result, evicting the value sharing its slot
+     *
+     * @param value
+     *            input value
+     * @param result
+     *            transform result (not null)
+     */
+    public void put(final String value, final V result) {
+
+        slots.set(slot(value), new Entry<V>(value, result));
+    }
+
+    /**
+     * Forget every memoized result (and statistics)
+     */
+    public void clear() {
+
+        for (int i = 0; i < slots.length(); i++) {
+            slots.set(i, null);
+        }
+        for (int i = 0; i < hits.length(); i += STRIPE_SPACING) {
+            hits.set(i, 0);
+            misses.set(i, 0);
+        }
+    }
+
+    public int getSize() {
+
+        return slots.length();
+    }
+
+    public long getHitCount() {
+
+        return sum(hits);
+    }
+
+    public long getMissCount() {
+
+        return sum(misses);
+    }
+
+    /**
+     * @return ratio of lookups served from the cache, 0 if no lookup was done
+     */
+    public double getHitRate() {
+
+        final long hitCount = getHitCount();
+        final long total = hitCount + getMissCount();
+        return (total == 0 ? 0.0 : (double) hitCount / total);
+    }
+
+    @Override
+    public String toString() {
+
+        return "ValueTransformCache [size=" + getSize() + ", hits=" + getHitCount() + ", misses=" + getMissCount()
+                + ", hitRate=" + getHitRate() + "]";
+    }
+
+    private static final class Entry<V> {
+
+        private final String value;
+
+        private final V      result;
+
+        public Entry(final String value, final V result) {
+
+            this.value = value;
+            this.result = result;
+        }
+    }
+
+}
@@ -0,0 +1,134 @@
+package net.archigny.cas.persondir.ldap;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import net.archigny.cas.persondir.processors.PersonAttributesSetup;
+
+import org.junit.Test;
+
+public class CaseInsensitiveAttributeMapTest {
+
+    private static List<Object> values(final Object... values) {
+
+        return new ArrayList<Object>(Arrays.asList(values));
+    }
+
+    @Test
+    public void testCaseInsensitiveGet() {
+
+        final CaseInsensitiveAttributeMap map = new CaseInsensitiveAttributeMap();
+        map.put("memberOf", values("cn=groupe"));
+
+        assertEquals(values("cn=groupe"), map.get("MemberOf"));
+        assertEquals(values("cn=groupe"), map.get("MEMBEROF"));
+        assertTrue(map.containsKey("memberof"));
+        assertNull(map.get("member"));
+        assertNull(map.get(null));
+        assertEquals("memberOf", map.getStoredKey("MEMBEROF"));
+    }
+
+    @Test
+    public void testPutKeepsOriginalCase() {
+
+        final CaseInsensitiveAttributeMap map = new CaseInsensitiveAttributeMap();
+        map.put("givenName", values("Jean"));
+        final List<Object> previous = map.put("GIVENNAME", values("Paul"));
+
+        assertEquals(values("Jean"), previous);
+        assertEquals(1, map.size());
+        assertEquals("givenName", map.keySet().iterator().next());
+        assertEquals(values("Paul"), map.get("givenname"));
+    }
+
+    @Test
+    public void testInsertionOrderAndGrowth() {
+
+        final CaseInsensitiveAttributeMap map = new CaseInsensitiveAttributeMap(2);
+        for (int i = 0; i < 100; i++) {
+            map.put("attr" + i, values(i));
+        }
+        assertEquals(100, map.size());
+        int i = 0;
+        for (final Map.Entry<String, List<Object>> entry : map.entrySet()) {
+            assertEquals("attr" + i, entry.getKey());
+            assertEquals(values(i), entry.getValue());
+            i++;
+        }
+        assertEquals(values(42), map.get("ATTR42"));
+    }
+
+    @Test
+    public void testRemove() {
+
+        final CaseInsensitiveAttributeMap map = new CaseInsensitiveAttributeMap(4);
+        map.put("cn", values("Jean Dupont"));
+        map.put("sn", values("Dupont"));
+        map.put("mail", values("jdupont@archigny.net"));
+
+        assertEquals(values("Dupont"), map.remove("SN"));
+        assertNull(map.remove("sn"));
+        assertEquals(2, map.size());
+        assertNull(map.get("sn"));
+        assertEquals(values("jdupont@archigny.net"), map.get("mail"));
+
+        // Holes left by removals are reclaimed
+        for (int i = 0; i < 50; i++) {
+            map.put("sn", values(i));
+            map.remove("sn");
+        }
+        assertEquals(2, map.size());
+        assertEquals(values("Jean Dupont"), map.get("CN"));
+
+        final Iterator<String> it = map.keySet().iterator();
+        it.next();
+        it.remove();
+        assertEquals(1, map.size());
+        assertFalse(map.containsKey("cn"));
+    }
+
+    @Test
+    public void testMapContract() throws Exception {
+
+        final Map<String, List<Object>> reference = PersonAttributesSetup.getPersonAttributes();
+        final CaseInsensitiveAttributeMap map = new CaseInsensitiveAttributeMap(reference);
+
+        assertEquals(reference, map);
+        assertEquals(map, reference);
+        assertEquals(reference.hashCode(), map.hashCode());
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(map);
+        out.close();
+        final ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        final CaseInsensitiveAttributeMap copy = (CaseInsensitiveAttributeMap) in.readObject();
+        assertEquals(map, copy);
+        assertNotNull(copy.get("MEMBEROF"));
+
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertNull(map.get("sn"));
+    }
+
+    @Test
+    public void testPersonAttributesLookup() {
+
+        final PersonAttributesImpl person = new PersonAttributesImpl("jdupont", new CaseInsensitiveAttributeMap(
+                PersonAttributesSetup.getPersonAttributes()));
+        person.lock();
+
+        assertEquals("Marasse", person.getAttributeValue("SN"));
+        assertEquals(5, person.getAttributeValues("MemberOf").size());
+    }
+
+}
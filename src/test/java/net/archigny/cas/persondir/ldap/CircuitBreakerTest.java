@@ -0,0 +1,134 @@
+package net.archigny.cas.persondir.ldap;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+
+import net.archigny.cas.persondir.ldap.CircuitBreaker.State;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class CircuitBreakerTest {
+
+    private long           now;
+
+    private CircuitBreaker breaker;
+
+    @Before
+    public void setUp() {
+
+        now = 1000000;
+        breaker = new CircuitBreaker() {
+
+            @Override
+            protected long currentTimeMillis() {
+
+                return now;
+            }
+        };
+        breaker.setFailureThreshold(3);
+        breaker.setOpenDuration(10000);
+    }
+
+    private void fail(final int count) {
+
+        for (int i = 0; i < count; i++) {
+            assertTrue(breaker.allowRequest());
+            breaker.onFailure();
+        }
+    }
+
+    @Test
+    public void testOpensAfterConsecutiveFailures() {
+
+        fail(2);
+        breaker.onSuccess(0);
+        fail(2);
+        assertEquals(State.CLOSED, breaker.getState());
+        fail(1);
+        assertEquals(State.OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+        assertEquals(1, breaker.getRejectedCount());
+        assertEquals(1, breaker.getOpenCount());
+    }
+
+    @Test
+    public void testHalfOpenProbeCloses() {
+
+        fail(3);
+        now += 10000;
+        assertTrue(breaker.allowRequest());
+        assertEquals(State.HALF_OPEN, breaker.getState());
+        // Only one probe at a time
+        assertFalse(breaker.allowRequest());
+        breaker.onSuccess(0);
+        assertEquals(State.CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest());
+    }
+
+    @Test
+    public void testOperationStartedBeforeOpeningDoesNotClose() {
+
+        assertTrue(breaker.allowRequest());
+        now += 1000;
+        fail(3);
+        assertEquals(State.OPEN, breaker.getState());
+
+        // Slow operation allowed while closed, completing after the breaker opened
+        breaker.onSuccess(TimeUnit.MILLISECONDS.toNanos(1000));
+        assertEquals(State.OPEN, breaker.getState());
+        now += 10000;
+        assertTrue(breaker.allowRequest());
+        breaker.onSuccess(TimeUnit.MILLISECONDS.toNanos(11000));
+        assertEquals(State.HALF_OPEN, breaker.getState());
+
+        // Probe
+        breaker.onSuccess(0);
+        assertEquals(State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void testHalfOpenProbeFailureReopens() {
+
+        fail(3);
+        now += 10000;
+        assertTrue(breaker.allowRequest());
+        breaker.onFailure();
+        assertEquals(State.OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+        now += 10000;
+        assertTrue(breaker.allowRequest());
+    }
+
+    @Test
+    public void testCancelledOperations() {
+
+        // Neither a success nor a failure
+        fail(2);
+        assertTrue(breaker.allowRequest());
+        breaker.onCancel();
+        fail(1);
+        assertEquals(State.OPEN, breaker.getState());
+
+        // A cancelled probe lets another probe through
+        now += 10000;
+        assertTrue(breaker.allowRequest());
+        breaker.onCancel();
+        assertEquals(State.OPEN, breaker.getState());
+        assertTrue(breaker.allowRequest());
+        assertEquals(State.HALF_OPEN, breaker.getState());
+    }
+
+    @Test
+    public void testSlowCallsCountAsFailures() {
+
+        breaker.setSlowCallThreshold(100);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(breaker.allowRequest());
+            breaker.onSuccess(TimeUnit.MILLISECONDS.toNanos(150));
+        }
+        assertEquals(State.OPEN, breaker.getState());
+    }
+
+}
@@ -0,0 +1,92 @@
+package net.archigny.cas.persondir.ldap;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.archigny.cas.persondir.processors.PersonAttributesSetup;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class CompactPersonAttributesTest {
+
+    private AttributeSchema schema;
+
+    @Before
+    public void setUp() {
+
+        schema = new AttributeSchema(Arrays.asList("givenName", "sn", "cn", "mail", "ssn", "memberOf", "MEMBEROF", "title"));
+    }
+
+    @Test
+    public void testSchema() {
+
+        assertEquals(7, schema.size());
+        assertEquals(5, schema.indexOf("memberof"));
+        assertEquals("memberOf", schema.getName(5));
+        assertEquals(-1, schema.indexOf("unknown"));
+        assertEquals(-1, schema.indexOf(null));
+    }
+
+    @Test
+    public void testFreeze() {
+
+        final Map<String, List<Object>> attributes = PersonAttributesSetup.getPersonAttributes();
+        final CompactPersonAttributes person = CompactPersonAttributes.freeze("pmarasse", schema, attributes);
+
+        assertTrue(person.isLocked());
+        assertEquals("pmarasse", person.getName());
+        assertEquals("Marasse", person.getAttributeValue("SN"));
+        assertEquals(5, person.getAttributeValues("MemberOf").size());
+        assertNull(person.getAttributeValue("title"));
+        assertEquals(attributes, person.getAttributes());
+        assertEquals(attributes.size(), person.getAttributes().size());
+    }
+
+    @Test
+    public void testAttributesOutsideSchema() {
+
+        final Map<String, List<Object>> attributes = new HashMap<String, List<Object>>();
+        attributes.put("sn", new ArrayList<Object>(Arrays.asList("Dupont")));
+        attributes.put("drupal", new ArrayList<Object>(Arrays.asList("web-A", "web-B")));
+        attributes.put("empty", new ArrayList<Object>());
+        final CompactPersonAttributes person = CompactPersonAttributes.freeze("jdupont", schema, attributes);
+
+        assertEquals(Arrays.asList("web-A", "web-B"), person.getAttributeValues("DRUPAL"));
+        assertTrue(person.getAttributeValues("empty").isEmpty());
+        assertEquals(attributes, person.getAttributes());
+    }
+
+    @Test
+    public void testImmutable() {
+
+        final CompactPersonAttributes person = CompactPersonAttributes.freeze("pmarasse", schema,
+                PersonAttributesSetup.getPersonAttributes());
+        person.lock();
+
+        try {
+            person.getAttributes().put("test", new ArrayList<Object>());
+            fail("Adding an attribute should throw an exception");
+        } catch (UnsupportedOperationException e) {
+            // Exception attendue
+        }
+        try {
+            person.getAttributeValues("memberOf").add("cn=Groupe 6");
+            fail("Adding a value to an attribute should throw an exception");
+        } catch (UnsupportedOperationException e) {
+            // Exception attendue
+        }
+        try {
+            person.getAttributeValues("sn").set(0, "Dupont");
+            fail("Changing a value should throw an exception");
+        } catch (UnsupportedOperationException e) {
+            // Exception attendue
+        }
+    }
+
+}
@@ -0,0 +1,92 @@
+package net.archigny.cas.persondir.ldap;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Test;
+
+public class DeadlineFutureTaskTest {
+
+    @Test
+    public void testCompletesNormally() throws Exception {
+
+        DeadlineFutureTask<String> task = new DeadlineFutureTask<String>(new Callable<String>() {
+
+            @Override
+            public String call() throws Exception {
+
+                return "ghouse";
+            }
+        }, "test");
+        task.run();
+        task.expire();
+        assertEquals("ghouse", task.get());
+    }
+
+    @Test
+    public void testExpireInterruptsRunner() throws Exception {
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch interrupted = new CountDownLatch(1);
+
+        final DeadlineFutureTask<String> task = new DeadlineFutureTask<String>(new Callable<String>() {
+
+            @Override
+            public String call() throws Exception {
+
+                started.countDown();
+                try {
+                    Thread.sleep(10000);
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                    throw e;
+                }
+                return "too late";
+            }
+        }, "slow lookup");
+
+        Thread runner = new Thread(task);
+        runner.start();
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        task.expire();
+        try {
+            task.get(5, TimeUnit.SECONDS);
+            fail("Expired task must fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+        runner.join(5000);
+        assertFalse(runner.isAlive());
+    }
+
+    @Test
+    public void testExpireBeforeRun() throws Exception {
+
+        DeadlineFutureTask<String> task = new DeadlineFutureTask<String>(new Callable<String>() {
+
+            @Override
+            public String call() throws Exception {
+
+                fail("Expired task must not run");
+                return null;
+            }
+        }, "queued lookup");
+        task.expire();
+        task.run();
+        assertTrue(task.isDone());
+        try {
+            task.get();
+            fail("Expired task must fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+    }
+
+}
@@ -0,0 +1,109 @@
+package net.archigny.cas.persondir.ldap;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.ldap.core.support.LdapContextSource;
+
+import com.unboundid.ldap.listener.InMemoryDirectoryServer;
+import com.unboundid.ldap.listener.InMemoryDirectoryServerConfig;
+import com.unboundid.ldap.listener.InMemoryListenerConfig;
+import com.unboundid.ldap.listener.interceptor.InMemoryInterceptedSearchRequest;
+import com.unboundid.ldap.listener.interceptor.InMemoryOperationInterceptor;
+import com.unboundid.ldap.sdk.Attribute;
+import com.unboundid.ldap.sdk.Entry;
+import com.unboundid.ldap.sdk.SearchScope;
+import com.unboundid.ldap.sdk.schema.Schema;
+
+/**
+ * In-process LDAP server holding a few fixed users, so that DAO tests run without a directory host. memberOf is stored as a
+ * plain attribute, allowed by extensibleObject.
+ */
+public class InMemoryDirectory {
+
+    public static final String            BASE_DN     = "dc=archigny,dc=net";
+
+    public static final String            PEOPLE_DN   = "ou=people," + BASE_DN;
+
+    public static final String            GROUPS_DN   = "ou=groups," + BASE_DN;
+
+    private final InMemoryDirectoryServer server;
+
+    private final AtomicLong              searchCount = new AtomicLong();
+
+    public InMemoryDirectory() throws Exception {
+
+        final InMemoryDirectoryServerConfig config = new InMemoryDirectoryServerConfig(BASE_DN);
+        config.setListenerConfigs(InMemoryListenerConfig.createLDAPConfig("ldap", 0));
+        config.setSchema(Schema.mergeSchemas(Schema.getDefaultStandardSchema(), new Schema(new Entry("cn=schema",
+                new Attribute("attributeTypes",
+                        "( 1.2.840.113556.1.2.102 NAME 'memberOf' SYNTAX 1.3.6.1.4.1.1466.115.121.1.12 )")))));
+        config.addInMemoryOperationInterceptor(new InMemoryOperationInterceptor() {
+
+            @Override
+            public void processSearchRequest(final InMemoryInterceptedSearchRequest request) {
+
+                // Base scope searches are DN lookups
+                if (!SearchScope.BASE.equals(request.getRequest().getScope())) {
+                    searchCount.incrementAndGet();
+                }
+            }
+        });
+        server = new InMemoryDirectoryServer(config);
+
+        server.add(new Entry(BASE_DN, new Attribute("objectClass", "top", "domain"), new Attribute("dc", "archigny")));
+        server.add(new Entry(PEOPLE_DN, new Attribute("objectClass", "top", "organizationalUnit"), new Attribute("ou", "people")));
+        server.add(new Entry(GROUPS_DN, new Attribute("objectClass", "top", "organizationalUnit"), new Attribute("ou", "groups")));
+        addUser("ghouse", "Gregory House", "House", "Head of diagnostics", "cn=Diagnostics," + GROUPS_DN, "cn=Staff\\, MD,"
+                + GROUPS_DN);
+        addUser("jwilson", "James Wilson", "Wilson", null, "cn=Oncology," + GROUPS_DN);
+        addUser("lcuddy", "Lisa Cuddy", "Cuddy", "Dean of medicine");
+        server.startListening();
+    }
+
+    private void addUser(final String uid, final String cn, final String sn, final String description, final String... groups)
+            throws Exception {
+
+        final Entry entry = new Entry("uid=" + uid + "," + PEOPLE_DN, new Attribute("objectClass", "top", "person",
+                "organizationalPerson", "inetOrgPerson", "extensibleObject"), new Attribute("uid", uid), new Attribute("cn", cn),
+                new Attribute("sn", sn), new Attribute("mail", uid + "@archigny.net"));
+        if (description != null) {
+            entry.addAttribute("description", description);
+        }
+        if (groups.length > 0) {
+            entry.addAttribute("memberOf", groups);
+        }
+        server.add(entry);
+    }
+
+    /**
+     * @return anonymous context source, based on BASE_DN
+     */
+    public LdapContextSource createContextSource() throws Exception {
+
+        final LdapContextSource contextSource = new LdapContextSource();
+        contextSource.setUrl("ldap://localhost:" + server.getListenPort());
+        contextSource.setBase(BASE_DN);
+        contextSource.setAnonymousReadOnly(true);
+        contextSource.afterPropertiesSet();
+        return contextSource;
+    }
+
+    /**
+     * @return number of one level or subtree searches served so far
+     */
+    public long getSearchCount() {
+
+        return searchCount.get();
+    }
+
+    public InMemoryDirectoryServer getServer() {
+
+        return server;
+    }
+
+    public void stop() {
+
+        server.shutDown(true);
+    }
+
+}
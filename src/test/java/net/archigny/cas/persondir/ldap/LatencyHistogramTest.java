@@ -0,0 +1,47 @@
+package net.archigny.cas.persondir.ldap;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testBucketBounds() {
+
+        for (long value = 0; value < 100000; value++) {
+            final int index = LatencyHistogram.bucketIndex(value);
+            assertTrue(LatencyHistogram.bucketLowerBound(index) <= value);
+            assertTrue(LatencyHistogram.bucketLowerBound(index + 1) > value);
+        }
+        // Highest bucket of the histogram
+        assertEquals(487, LatencyHistogram.bucketIndex(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testPercentiles() {
+
+        final LatencyHistogram histogram = new LatencyHistogram("test");
+        assertEquals(0, histogram.getPercentile(0.5));
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000000, histogram.getMax());
+        assertEquals(500500, histogram.getMean(), 0.001);
+        assertWithinPrecision(500000, histogram.getPercentile(0.5));
+        assertWithinPrecision(950000, histogram.getPercentile(0.95));
+        assertWithinPrecision(999000, histogram.getPercentile(0.999));
+        assertEquals(1000000, histogram.getPercentile(1.0));
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+    }
+
+    private static void assertWithinPrecision(final long expected, final long actual) {
+
+        assertTrue("Expected about " + expected + ", got " + actual, (actual >= expected) && (actual <= expected * 1.125));
+    }
+
+}
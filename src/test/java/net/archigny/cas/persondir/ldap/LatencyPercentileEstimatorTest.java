@@ -0,0 +1,52 @@
+package net.archigny.cas.persondir.ldap;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class LatencyPercentileEstimatorTest {
+
+    @Test
+    public void testNoEstimateBeforeMinSamples() {
+
+        final LatencyPercentileEstimator estimator = new LatencyPercentileEstimator(64, 0.95, 10);
+        for (int i = 0; i < 9; i++) {
+            estimator.record(1000);
+        }
+        assertEquals(-1, estimator.getEstimate());
+        estimator.record(1000);
+        assertEquals(1000, estimator.getEstimate());
+    }
+
+    @Test
+    public void testPercentile() {
+
+        final LatencyPercentileEstimator estimator = new LatencyPercentileEstimator(100, 0.95, 100);
+        for (int i = 1; i <= 100; i++) {
+            estimator.record(i);
+        }
+        assertEquals(95, estimator.getEstimate());
+        assertEquals(100, estimator.getCount());
+    }
+
+    @Test
+    public void testWindowSlides() {
+
+        final LatencyPercentileEstimator estimator = new LatencyPercentileEstimator(64, 0.5, 64);
+        for (int i = 0; i < 64; i++) {
+            estimator.record(10);
+        }
+        assertEquals(10, estimator.getEstimate());
+        for (int i = 0; i < 64; i++) {
+            estimator.record(500);
+        }
+        assertEquals(500, estimator.getEstimate());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidPercentile() {
+
+        new LatencyPercentileEstimator(64, 1.0, 10);
+    }
+
+}
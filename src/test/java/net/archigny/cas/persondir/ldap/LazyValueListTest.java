@@ -0,0 +1,147 @@
+package net.archigny.cas.persondir.ldap;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class LazyValueListTest {
+
+    private int                loadCount;
+
+    private boolean            failing;
+
+    private LazyEntry          entry;
+
+    private final LazyEntry.Loader loader = new LazyEntry.Loader() {
+
+        @Override
+        public Object[][] load(final String dn, final String[] attributes) {
+
+            loadCount++;
+            if (failing) {
+                throw new IllegalStateException("Directory down");
+            }
+            assertEquals("uid=jdupont,ou=people", dn);
+            return new Object[][] { { "photo".getBytes() }, null };
+        }
+    };
+
+    @Before
+    public void setUp() {
+
+        loadCount = 0;
+        failing = false;
+        entry = new LazyEntry(loader, "uid=jdupont,ou=people", new String[] { "jpegPhoto", "userCertificate" });
+    }
+
+    @Test
+    public void testLoadedOnFirstRead() {
+
+        final LazyValueList photo = new LazyValueList(entry, 0);
+        final LazyValueList certificate = new LazyValueList(entry, 1);
+        assertEquals(0, loadCount);
+        assertFalse(photo.isLoaded());
+
+        assertEquals(1, photo.size());
+        assertTrue(certificate.isEmpty());
+        assertTrue(photo.isLoaded());
+        // Every lazy attribute of the entry is loaded by a single lookup
+        assertEquals(1, loadCount);
+    }
+
+    @Test
+    public void testFailureRetried() {
+
+        final LazyValueList photo = new LazyValueList(entry, 0);
+        failing = true;
+        try {
+            photo.isEmpty();
+            fail("Load failure must be propagated, not read as an absent attribute");
+        } catch (IllegalStateException e) {
+            assertEquals("Directory down", e.getMessage());
+        }
+        assertFalse(photo.isLoaded());
+        failing = false;
+        assertEquals(1, photo.size());
+        assertEquals(2, loadCount);
+    }
+
+    @Test
+    public void testLockDoesNotLoad() {
+
+        final CaseInsensitiveAttributeMap attributes = new CaseInsensitiveAttributeMap();
+        attributes.put("jpegPhoto", new LazyValueList(entry, 0));
+        final PersonAttributesImpl person = new PersonAttributesImpl("jdupont", attributes);
+        person.lock();
+        final CompactPersonAttributes compact = CompactPersonAttributes.freeze("jdupont",
+                new AttributeSchema(Arrays.asList("jpegPhoto")), attributes);
+        assertEquals(0, loadCount);
+
+        assertEquals(1, person.getAttributeValues("jpegPhoto").size());
+        assertEquals(1, compact.getAttributeValues("JPEGPHOTO").size());
+        assertEquals(1, loadCount);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testSerializedLoaded() throws Exception {
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(new LazyValueList(entry, 0));
+        out.close();
+        final ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        final List<Object> copy = (List<Object>) in.readObject();
+
+        assertFalse(copy instanceof LazyValueList);
+        assertArrayEquals("photo".getBytes(), (byte[]) copy.get(0));
+    }
+
+    @Test
+    public void testAbsentAttributeLeftOut() throws Exception {
+
+        final CaseInsensitiveAttributeMap attributes = new CaseInsensitiveAttributeMap();
+        attributes.put("cn", Arrays.<Object> asList("Jean Dupont"));
+        attributes.put("jpegPhoto", new LazyValueList(entry, 0));
+        attributes.put("userCertificate", new LazyValueList(entry, 1));
+        final CompactPersonAttributes compact = CompactPersonAttributes.freeze("jdupont",
+                new AttributeSchema(Arrays.asList("cn", "jpegPhoto", "userCertificate")), attributes);
+        final PersonAttributesImpl person = new PersonAttributesImpl("jdupont", attributes);
+        person.lock();
+
+        for (final ILockablePersonAttributes locked : Arrays.<ILockablePersonAttributes> asList(person, compact)) {
+            final Map<String, List<Object>> lockedAttributes = locked.getAttributes();
+            assertEquals(2, lockedAttributes.size());
+            assertEquals(2, lockedAttributes.keySet().size());
+            assertTrue(lockedAttributes.containsKey("JPEGPHOTO"));
+            assertFalse(lockedAttributes.containsKey("userCertificate"));
+            assertNull(lockedAttributes.get("userCertificate"));
+            assertNull(locked.getAttributeValues("userCertificate"));
+            assertNull(locked.getAttributeValue("userCertificate"));
+
+            // Serialized copies are plain
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final ObjectOutputStream out = new ObjectOutputStream(bytes);
+            out.writeObject(locked);
+            out.close();
+            final ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+            final ILockablePersonAttributes copy = (ILockablePersonAttributes) in.readObject();
+            assertEquals(2, copy.getAttributes().size());
+            assertNull(copy.getAttributeValues("userCertificate"));
+            assertArrayEquals("photo".getBytes(), (byte[]) copy.getAttributeValue("jpegPhoto"));
+            assertEquals(Collections.singletonList("Jean Dupont"), copy.getAttributeValues("cn"));
+        }
+        assertEquals(1, loadCount);
+    }
+
+}
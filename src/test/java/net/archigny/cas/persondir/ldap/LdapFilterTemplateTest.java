@@ -0,0 +1,98 @@
+package net.archigny.cas.persondir.ldap;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class LdapFilterTemplateTest {
+
+    @Test
+    public void testPositionalAndNamed() {
+
+        LdapFilterTemplate template = LdapFilterTemplate.compile("(&(objectClass=person)(|(uid={0})(mail={mail})))", "uid",
+                "mail");
+        assertEquals(2, template.getParameterCount());
+        assertEquals(2, template.getPlaceholderCount());
+        assertEquals("(&(objectClass=person)(|(uid=ghouse)(mail=ghouse@test.archigny.net)))",
+                template.format("ghouse", "ghouse@test.archigny.net"));
+
+        template = LdapFilterTemplate.compile("(uid={uid})", "uid");
+        assertEquals("(uid=lcuddy)", template.format("lcuddy"));
+
+        template = LdapFilterTemplate.compile("mail={0}");
+        assertEquals("mail=scroche@test.archigny.net", template.format("scroche@test.archigny.net"));
+
+        // Braces that are not placeholders are kept as literals
+        template = LdapFilterTemplate.compile("(description={ a b }{0})");
+        assertEquals("(description={ a b }x)", template.format("x"));
+    }
+
+    @Test
+    public void testEscaping() {
+
+        LdapFilterTemplate template = LdapFilterTemplate.compile("(uid={0})", "uid");
+
+        assertEquals("(uid=\\2a)", template.format("*"));
+        assertEquals("(uid=a\\29\\28|\\28uid=\\2a\\29)", template.format("a)(|(uid=*)"));
+        assertEquals("(uid=\\5c$1\\00)", template.format("\\$1\0"));
+        assertEquals("(uid=Rédacteur)", template.format("Rédacteur"));
+        assertEquals("\\28\\2a\\29", LdapFilterTemplate.escape("(*)"));
+    }
+
+    @Test
+    public void testAssertionAttribute() {
+
+        assertEquals("uid", LdapFilterTemplate.compile("(uid={0})").getAssertionAttribute(0));
+        assertEquals("sAMAccountName", LdapFilterTemplate.compile("(&(objectClass=user)(sAMAccountName={0}))")
+                .getAssertionAttribute(0));
+        assertEquals("mail", LdapFilterTemplate.compile("mail={0}").getAssertionAttribute(0));
+        assertFalse(LdapFilterTemplate.compile("mail={0}").isParenthesized());
+
+        assertNull(LdapFilterTemplate.compile("(cn={0}*)").getAssertionAttribute(0));
+        assertNull(LdapFilterTemplate.compile("(cn~={0})").getAssertionAttribute(0));
+        assertNull(LdapFilterTemplate.compile("(uid>={0})").getAssertionAttribute(0));
+        assertNull(LdapFilterTemplate.compile("(uid={0})").getAssertionAttribute(1));
+
+        // Entries may match without satisfying the assertion
+        assertNull(LdapFilterTemplate.compile("(|(uid={0})(mail={0}))").getAssertionAttribute(0));
+        assertNull(LdapFilterTemplate.compile("(|(uid={0})(objectClass=admin))").getAssertionAttribute(0));
+        assertNull(LdapFilterTemplate.compile("(!(uid={0}))").getAssertionAttribute(0));
+        assertNull(LdapFilterTemplate.compile("(&(objectClass=user)(!(uid={0})))").getAssertionAttribute(0));
+        assertNull(LdapFilterTemplate.compile("(&(uid={0})(!(mail={0})))").getAssertionAttribute(0));
+        assertEquals("uid", LdapFilterTemplate.compile("(&(!(objectClass=admin))(&(uid={0})(mail=*)))").getAssertionAttribute(0));
+    }
+
+    @Test
+    public void testDnTemplate() {
+
+        LdapFilterTemplate template = LdapFilterTemplate.compileDn("uid={uid},ou=comptes,dc=test,dc=archigny,dc=net", "uid");
+        assertEquals("uid=ghouse,ou=comptes,dc=test,dc=archigny,dc=net", template.format("ghouse"));
+        // RFC 4514 escaping, filter special characters are left as is
+        assertEquals("uid=House\\, Gregory\\+1*,ou=comptes,dc=test,dc=archigny,dc=net", template.format("House, Gregory+1*"));
+        assertEquals("uid=\\#1\\ ,ou=comptes,dc=test,dc=archigny,dc=net", template.format("#1 "));
+    }
+
+    @Test
+    public void testInvalidTemplates() {
+
+        try {
+            LdapFilterTemplate.compile("(uid={1})", "uid");
+            fail("Out of range placeholder must be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            LdapFilterTemplate.compile("(uid={login})", "uid");
+            fail("Unknown named placeholder must be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            LdapFilterTemplate.compile("(uid={0})").format();
+            fail("Missing value must be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+}
@@ -0,0 +1,516 @@
+package net.archigny.cas.persondir.ldap;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.naming.directory.DirContext;
+
+import net.archigny.cas.persondir.ldap.CircuitBreaker.State;
+import net.archigny.cas.persondir.ldap.LookupStatistics.Phase;
+import net.archigny.cas.persondir.processors.IAttributesProcessor;
+import net.archigny.cas.persondir.processors.RegexValueReplace;
+
+import org.apereo.services.persondir.IPersonAttributes;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.ldap.InterruptedNamingException;
+import org.springframework.ldap.NamingException;
+import org.springframework.ldap.core.ContextSource;
+import org.springframework.ldap.core.support.LdapContextSource;
+
+/**
+ * LdapPersonAttributeDao tests against an in-process directory (see InMemoryDirectory)
+ */
+public class LdapPersonAttributeDaoEmbeddedTest {
+
+    private static InMemoryDirectory directory;
+
+    private LdapPersonAttributeDao   dao;
+
+    /**
+     * Delegates to the directory, the first context asked to any instance sharing the same flag being slow
+     */
+    private static class SlowFirstContextSource implements ContextSource {
+
+        private final ContextSource delegate;
+
+        private final AtomicBoolean slow;
+
+        public SlowFirstContextSource(final ContextSource delegate, final AtomicBoolean slow) {
+
+            this.delegate = delegate;
+            this.slow = slow;
+        }
+
+        private void delay() {
+
+            if (slow.compareAndSet(true, false)) {
+                try {
+                    Thread.sleep(5000);
+                } catch (InterruptedException e) {
+                    throw new InterruptedNamingException(new javax.naming.InterruptedNamingException("Interrupted"));
+                }
+            }
+        }
+
+        @Override
+        public DirContext getReadOnlyContext() throws NamingException {
+
+            delay();
+            return delegate.getReadOnlyContext();
+        }
+
+        @Override
+        public DirContext getReadWriteContext() throws NamingException {
+
+            delay();
+            return delegate.getReadWriteContext();
+        }
+
+        @Override
+        public DirContext getContext(final String principal, final String credentials) throws NamingException {
+
+            delay();
+            return delegate.getContext(principal, credentials);
+        }
+    }
+
+    @BeforeClass
+    public static void startDirectory() throws Exception {
+
+        directory = new InMemoryDirectory();
+    }
+
+    @AfterClass
+    public static void stopDirectory() {
+
+        directory.stop();
+    }
+
+    /**
+     * Delegates to the directory until it is made unavailable, then fails as PoolingContextSource does
+     */
+    private static class FailingContextSource implements ContextSource {
+
+        private final ContextSource delegate;
+
+        private volatile boolean    unavailable;
+
+        public FailingContextSource(final ContextSource delegate) {
+
+            this.delegate = delegate;
+        }
+
+        private void check() {
+
+            if (unavailable) {
+                throw new DataAccessResourceFailureException("Failed to borrow DirContext from pool.");
+            }
+        }
+
+        @Override
+        public DirContext getReadOnlyContext() throws NamingException {
+
+            check();
+            return delegate.getReadOnlyContext();
+        }
+
+        @Override
+        public DirContext getReadWriteContext() throws NamingException {
+
+            check();
+            return delegate.getReadWriteContext();
+        }
+
+        @Override
+        public DirContext getContext(final String principal, final String credentials) throws NamingException {
+
+            check();
+            return delegate.getContext(principal, credentials);
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+
+        dao = new LdapPersonAttributeDao();
+        dao.setContextSource(directory.createContextSource());
+        dao.setBaseDN("ou=people");
+        dao.setQueriedAttributes(Arrays.asList("uid", "cn", "mail", "description", "memberOf"));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+
+        dao.destroy();
+    }
+
+    private static PersonAttributesCache newCache() throws Exception {
+
+        final PersonAttributesCache cache = new PersonAttributesCache();
+        cache.afterPropertiesSet();
+        return cache;
+    }
+
+    @Test
+    public void testBatchUnknownUidNotCached() throws Exception {
+
+        final PersonAttributesCache cache = newCache();
+        dao.setCache(cache);
+        dao.afterPropertiesSet();
+
+        final long searches = directory.getSearchCount();
+        final Map<String, ILockablePersonAttributes> people = dao.getPeople(Arrays.asList("ghouse", "JWilson", "nobody"));
+        assertEquals("Uids are queried in one batch", 1, directory.getSearchCount() - searches);
+        assertEquals(2, people.size());
+        assertEquals("Gregory House", people.get("ghouse").getAttributeValue("cn"));
+        assertEquals("James Wilson", people.get("JWilson").getAttributeValue("cn"));
+        assertFalse(people.containsKey("nobody"));
+
+        assertNotNull(cache.get("ghouse"));
+        assertNull("Unmatched uid must not be cached as not found", cache.get("nobody"));
+    }
+
+    @Test
+    public void testNoBatchOnDisjunctiveFilter() throws Exception {
+
+        dao.setLdapFilter("(|(uid={0})(mail={0}))");
+        dao.setCache(newCache());
+        dao.afterPropertiesSet();
+
+        // Entries matched by their mail cannot be matched back to their uid in a batch : uids are queried one by one
+        final long searches = directory.getSearchCount();
+        final Map<String, ILockablePersonAttributes> people = dao.getPeople(Arrays.asList("ghouse@archigny.net", "jwilson"));
+        assertEquals(2, directory.getSearchCount() - searches);
+        assertEquals(2, people.size());
+        assertEquals("Gregory House", people.get("ghouse@archigny.net").getAttributeValue("cn"));
+        assertEquals("James Wilson", people.get("jwilson").getAttributeValue("cn"));
+    }
+
+    private static Set<String> names(final Set<IPersonAttributes> people) {
+
+        final Set<String> names = new HashSet<String>();
+        for (final IPersonAttributes person : people) {
+            names.add(person.getName());
+        }
+        return names;
+    }
+
+    @Test
+    public void testAttributeQueries() throws Exception {
+
+        dao.setResultAttributeMapping(Collections.singletonMap("cn", "displayName"));
+        assertEquals("Available before afterPropertiesSet", new HashSet<String>(Arrays.asList("username", "uid", "displayName",
+                "mail", "description", "memberOf")), dao.getAvailableQueryAttributes());
+        dao.afterPropertiesSet();
+
+        // Values of one attribute are OR-combined, attributes are AND-combined
+        final Map<String, List<Object>> query = new HashMap<String, List<Object>>();
+        query.put("displayName", Arrays.<Object> asList("Gregory House", "James Wilson", "Lisa Cuddy"));
+        query.put("description", Arrays.<Object> asList("Head of diagnostics", "Dean of medicine"));
+        assertEquals(new HashSet<String>(Arrays.asList("ghouse", "lcuddy")), names(dao.getPeopleWithMultivaluedAttributes(query)));
+
+        // usernameAttribute goes through ldapFilter, and values are escaped
+        final Map<String, Object> usernameQuery = new HashMap<String, Object>();
+        usernameQuery.put("username", "jwilson");
+        final Set<IPersonAttributes> people = dao.getPeople(usernameQuery);
+        assertEquals(Collections.singleton("jwilson"), names(people));
+        assertEquals("James Wilson", people.iterator().next().getAttributeValue("displayName"));
+        usernameQuery.put("username", "*");
+        assertTrue(dao.getPeople(usernameQuery).isEmpty());
+
+        // Unknown attributes are ignored
+        assertNull(dao.getPeople(Collections.<String, Object> singletonMap("cn", "Gregory House")));
+        usernameQuery.put("unknown", "value");
+        usernameQuery.put("username", "lcuddy");
+        assertEquals(Collections.singleton("lcuddy"), names(dao.getPeople(usernameQuery)));
+    }
+
+    @Test
+    public void testAttributeQueryDoesNotBypassFilter() throws Exception {
+
+        final PersonAttributesCache cache = newCache();
+        dao.setLdapFilter("(&(uid={0})(description=*))");
+        dao.setCache(cache);
+        dao.afterPropertiesSet();
+
+        // jwilson has no description : matched by the query, but excluded by ldapFilter
+        final Map<String, Object> query = new HashMap<String, Object>();
+        query.put("mail", "jwilson@archigny.net");
+        assertEquals(Collections.singleton("jwilson"), names(dao.getPeople(query)));
+        assertNull(cache.get("jwilson"));
+        assertNull(dao.getPerson("jwilson"));
+        assertNotNull(dao.getPerson("ghouse"));
+    }
+
+    @Test
+    public void testDnTemplate() throws Exception {
+
+        dao.setDnTemplate("uid={0},ou=people");
+        dao.afterPropertiesSet();
+
+        // Read directly from the DN, without search
+        final long searches = directory.getSearchCount();
+        final ILockablePersonAttributes person = dao.getPerson("ghouse");
+        assertEquals(0, directory.getSearchCount() - searches);
+        assertEquals("ghouse", person.getName());
+        assertEquals("Head of diagnostics", person.getAttributeValue("description"));
+
+        // Unknown DN : falls back to ldapFilter
+        assertNull(dao.getPerson("nobody"));
+        assertEquals(1, directory.getSearchCount() - searches);
+
+        // uid is escaped in the DN, and in the filter
+        assertNull(dao.getPerson("ghouse,ou=people"));
+        assertNull(dao.getPerson("*"));
+        assertEquals(3, directory.getSearchCount() - searches);
+    }
+
+    @Test
+    public void testCoalescedLoadRechecksCache() throws Exception {
+
+        // The first cache miss is followed by a complete load of the same uid, as if run by another thread
+        final PersonAttributesCache cache = new PersonAttributesCache() {
+
+            private boolean raced;
+
+            @Override
+            public CacheEntry get(final String uid) {
+
+                final CacheEntry entry = super.get(uid);
+                if (!raced) {
+                    raced = true;
+                    dao.getPerson(uid);
+                }
+                return entry;
+            }
+        };
+        cache.afterPropertiesSet();
+        dao.setCache(cache);
+        dao.setCoalesceRequests(true);
+        dao.afterPropertiesSet();
+
+        final long searches = directory.getSearchCount();
+        assertEquals("Lisa Cuddy", dao.getPerson("lcuddy").getAttributeValue("cn"));
+        assertEquals("Result of the completed load is reused", 1, directory.getSearchCount() - searches);
+    }
+
+    @Test
+    public void testAsyncDeadlineDoesNotFailOtherCallers() throws Exception {
+
+        final AtomicBoolean slow = new AtomicBoolean(true);
+        dao.setContextSource(new SlowFirstContextSource(directory.createContextSource(), slow));
+        dao.setCache(newCache());
+        dao.setCoalesceRequests(true);
+        dao.afterPropertiesSet();
+
+        // The asynchronous lookup is stuck on the slow context when getPerson is called for the same uid
+        final Future<ILockablePersonAttributes> future = dao.getPersonAsync("ghouse", 200, TimeUnit.MILLISECONDS);
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (slow.get() && (System.currentTimeMillis() < deadline)) {
+            Thread.sleep(5);
+        }
+        assertEquals("Gregory House", dao.getPerson("ghouse").getAttributeValue("cn"));
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("Deadline must be reached");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+
+        // Cache hits complete immediately
+        final Future<ILockablePersonAttributes> hit = dao.getPersonAsync("ghouse", 200, TimeUnit.MILLISECONDS);
+        assertTrue(hit.isDone());
+        assertEquals("Gregory House", hit.get().getAttributeValue("cn"));
+    }
+
+    @Test
+    public void testReplicaNames() throws Exception {
+
+        final LdapContextSource contextSource = directory.createContextSource();
+        dao.setContextSources(Arrays.<ContextSource> asList(contextSource, new LdapContextSource()));
+        dao.afterPropertiesSet();
+
+        // A context source without URL cannot be named after them
+        assertEquals(Arrays.toString(contextSource.getUrls()), dao.getReplicas().get(0).getName());
+        assertEquals("replica-1", dao.getReplicas().get(1).getName());
+    }
+
+    @Test
+    public void testHedgedLookupRecordedOnce() throws Exception {
+
+        final ContextSource contextSource = directory.createContextSource();
+        final AtomicBoolean slow = new AtomicBoolean(true);
+        dao.setContextSources(Arrays.<ContextSource> asList(new SlowFirstContextSource(contextSource, slow),
+                new SlowFirstContextSource(contextSource, slow)));
+        dao.setHedgeRequests(true);
+        dao.setHedgeDelay(50);
+        final CircuitBreaker breaker = new CircuitBreaker();
+        breaker.setFailureThreshold(1);
+        dao.setCircuitBreaker(breaker);
+        dao.afterPropertiesSet();
+
+        // The replica queried first is slow : the lookup is hedged on the other one, which answers first
+        assertEquals("Gregory House", dao.getPerson("ghouse").getAttributeValue("cn"));
+        assertEquals(1, dao.getHedgedRequestCount());
+        assertEquals(1, dao.getHedgeWinCount());
+        final LookupStatistics statistics = dao.getStatistics();
+        assertEquals(1, statistics.getResultCount());
+        assertEquals(1, statistics.getHistogram(Phase.TOTAL).getCount());
+
+        // The slow lookup is cancelled, which is not a failure
+        final long deadline = System.currentTimeMillis() + 5000;
+        for (final LdapReplica replica : dao.getReplicas()) {
+            while ((replica.getInFlight() > 0) && (System.currentTimeMillis() < deadline)) {
+                Thread.sleep(5);
+            }
+            assertEquals(0, replica.getInFlight());
+            assertEquals(0, replica.getErrorCount());
+        }
+        assertEquals(0, statistics.getErrorCount());
+        assertEquals(State.CLOSED, breaker.getState());
+
+        // Only the phases of the lookup which answered are recorded
+        for (final Phase phase : new Phase[] { Phase.FILTER, Phase.SEARCH, Phase.MAPPING }) {
+            assertEquals(phase.name(), 1, statistics.getHistogram(phase).getCount());
+        }
+    }
+
+    @Test
+    public void testStalePersonServed() throws Exception {
+
+        final FailingContextSource contextSource = new FailingContextSource(directory.createContextSource());
+        dao.setContextSource(contextSource);
+        final StalePersonStore staleStore = new StalePersonStore();
+        staleStore.afterPropertiesSet();
+        dao.setStaleStore(staleStore);
+        dao.afterPropertiesSet();
+
+        assertEquals("Gregory House", dao.getPerson("ghouse").getAttributeValue("cn"));
+        contextSource.unavailable = true;
+
+        assertEquals("Gregory House", dao.getPerson("ghouse").getAttributeValue("cn"));
+        assertEquals(1, dao.getStaleServedCount());
+        final Map<String, ILockablePersonAttributes> people = dao.getPeople(Arrays.asList("ghouse", "jwilson"));
+        assertEquals(Collections.singleton("ghouse"), people.keySet());
+        assertEquals(2, dao.getStaleServedCount());
+
+        // No last known attributes
+        try {
+            dao.getPerson("jwilson");
+            fail("Directory failure must be propagated");
+        } catch (DataAccessResourceFailureException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testProcessorErrorNotHiddenByStalePerson() throws Exception {
+
+        final AtomicBoolean broken = new AtomicBoolean();
+        dao.setProcessors(Collections.<IAttributesProcessor> singletonList(new IAttributesProcessor() {
+
+            @Override
+            public void processAttributes(final Map<String, List<Object>> attributes) {
+
+                if (broken.get()) {
+                    throw new IllegalStateException("Processor bug");
+                }
+            }
+
+            @Override
+            public Set<String> getPossibleUserAttributeNames() {
+
+                return null;
+            }
+        }));
+        final StalePersonStore staleStore = new StalePersonStore();
+        staleStore.afterPropertiesSet();
+        dao.setStaleStore(staleStore);
+        dao.afterPropertiesSet();
+
+        assertEquals("Gregory House", dao.getPerson("ghouse").getAttributeValue("cn"));
+        broken.set(true);
+        try {
+            dao.getPerson("ghouse");
+            fail("Processor errors must be propagated");
+        } catch (IllegalStateException e) {
+            assertEquals("Processor bug", e.getMessage());
+        }
+        assertEquals(0, dao.getStaleServedCount());
+    }
+
+    @Test
+    public void testLazyAttributeReadByProcessor() throws Exception {
+
+        final RegexValueReplace processor = new RegexValueReplace();
+        processor.setKey("description");
+        processor.setValueMatch("^Head of (.*)$");
+        processor.setValueReplace("$1");
+        processor.afterPropertiesSet();
+        dao.setProcessors(Arrays.<IAttributesProcessor> asList(processor));
+        dao.setLazyAttributes(Arrays.asList("description", "memberOf"));
+        dao.afterPropertiesSet();
+
+        // description is modified in place by the processor : it is fetched with the other attributes
+        final ILockablePersonAttributes person = dao.getPerson("ghouse");
+        assertEquals("diagnostics", person.getAttributeValue("description"));
+        assertEquals(0, dao.getLazyLoadCount());
+
+        // memberOf stays lazy
+        assertEquals(2, person.getAttributeValues("memberOf").size());
+        assertEquals(1, dao.getLazyLoadCount());
+        assertEquals(1, dao.getStatistics().getHistogram(Phase.LAZY_LOAD).getCount());
+        assertEquals(0, dao.getStatistics().getHistogram(Phase.LOOKUP).getCount());
+    }
+
+    @Test
+    public void testStalePersonWithoutLazyValues() throws Exception {
+
+        for (final boolean compact : new boolean[] { false, true }) {
+            final FailingContextSource contextSource = new FailingContextSource(directory.createContextSource());
+            dao = new LdapPersonAttributeDao();
+            dao.setContextSource(contextSource);
+            dao.setBaseDN("ou=people");
+            dao.setQueriedAttributes(Arrays.asList("uid", "cn", "memberOf"));
+            dao.setLazyAttributes(Arrays.asList("memberOf"));
+            dao.setCompactAttributes(compact);
+            final StalePersonStore staleStore = new StalePersonStore();
+            staleStore.afterPropertiesSet();
+            dao.setStaleStore(staleStore);
+            dao.afterPropertiesSet();
+
+            assertEquals("Gregory House", dao.getPerson("ghouse").getAttributeValue("cn"));
+            contextSource.unavailable = true;
+
+            // The stale copy never reaches the directory : lazy attributes not loaded yet are left out
+            final ILockablePersonAttributes stale = dao.getPerson("ghouse");
+            assertEquals(1, dao.getStaleServedCount());
+            assertEquals(new HashSet<String>(Arrays.asList("uid", "cn")), stale.getAttributes().keySet());
+            assertNull(stale.getAttributeValues("memberOf"));
+            assertTrue(stale.isLocked());
+            new ObjectOutputStream(new ByteArrayOutputStream()).writeObject(stale);
+            assertEquals(0, dao.getLazyLoadCount());
+            dao.destroy();
+        }
+    }
+
+}
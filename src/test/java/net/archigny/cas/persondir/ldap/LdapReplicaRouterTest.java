@@ -0,0 +1,103 @@
+package net.archigny.cas.persondir.ldap;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class LdapReplicaRouterTest {
+
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void testSlowReplicaGetsLessTraffic() {
+
+        final LdapReplica fast = new LdapReplica("fast", null, 0.5);
+        final LdapReplica slow = new LdapReplica("slow", null, 0.5);
+        fast.begin();
+        fast.end(2 * MS, false);
+        slow.begin();
+        slow.end(200 * MS, false);
+
+        final LdapReplicaRouter router = new LdapReplicaRouter(Arrays.asList(fast, slow), 0.5, 30000);
+        for (int i = 0; i < 100; i++) {
+            assertSame(fast, router.select());
+        }
+    }
+
+    @Test
+    public void testInFlightOperationsSpreadLoad() {
+
+        final LdapReplica first = new LdapReplica("first", null, 0.5);
+        final LdapReplica second = new LdapReplica("second", null, 0.5);
+        final LdapReplicaRouter router = new LdapReplicaRouter(Arrays.asList(first, second), 0.5, 30000);
+
+        first.begin();
+        first.begin();
+        assertSame(second, router.select());
+    }
+
+    @Test
+    public void testSelectExcluding() {
+
+        final LdapReplica fast = new LdapReplica("fast", null, 0.5);
+        final LdapReplica slow = new LdapReplica("slow", null, 0.5);
+        fast.begin();
+        fast.end(2 * MS, false);
+        slow.begin();
+        slow.end(200 * MS, false);
+
+        final LdapReplicaRouter router = new LdapReplicaRouter(Arrays.asList(fast, slow), 0.5, 30000);
+        assertSame(slow, router.selectExcluding(fast));
+
+        final LdapReplicaRouter single = new LdapReplicaRouter(Arrays.asList(fast), 0.5, 30000);
+        assertSame(fast, single.selectExcluding(fast));
+    }
+
+    @Test
+    public void testUnhealthyReplicaSkipped() {
+
+        final LdapReplica failing = new LdapReplica("failing", null, 1.0);
+        final LdapReplica healthy = new LdapReplica("healthy", null, 1.0);
+        failing.begin();
+        failing.end(MS, true);
+        healthy.begin();
+        healthy.end(500 * MS, false);
+
+        assertEquals(1.0, failing.getErrorRate(), 0.0001);
+        assertFalse(failing.isHealthy(0.5, 30000, System.currentTimeMillis()));
+        assertTrue(failing.isHealthy(0.5, 30000, System.currentTimeMillis() + 30000));
+
+        final LdapReplicaRouter router = new LdapReplicaRouter(Arrays.asList(failing, healthy), 0.5, 30000);
+        for (int i = 0; i < 20; i++) {
+            assertSame(healthy, router.select());
+        }
+        assertEquals(1, failing.getErrorCount());
+        assertEquals(0, failing.getInFlight());
+    }
+
+    @Test
+    public void testNoHealthyReplicaFallsBackToLowestErrorRate() {
+
+        final LdapReplica worst = new LdapReplica("worst", null, 0.5);
+        final LdapReplica bad = new LdapReplica("bad", null, 0.5);
+        worst.begin();
+        worst.end(MS, true);
+        worst.begin();
+        worst.end(MS, true);
+        bad.begin();
+        bad.end(MS, true);
+
+        final LdapReplicaRouter router = new LdapReplicaRouter(Arrays.asList(worst, bad), 0.1, 30000);
+        assertSame(bad, router.select());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidWeight() {
+
+        new LdapReplica("invalid", null, 0);
+    }
+
+}
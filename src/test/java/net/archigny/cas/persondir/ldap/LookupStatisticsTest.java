@@ -0,0 +1,89 @@
+package net.archigny.cas.persondir.ldap;
+
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.AttributeNotFoundException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import net.archigny.cas.persondir.ldap.LookupStatistics.Phase;
+
+import org.junit.Test;
+
+public class LookupStatisticsTest {
+
+    @Test
+    public void testAttributes() throws Exception {
+
+        final LookupStatistics statistics = new LookupStatistics();
+        statistics.setProcessorNames(Arrays.asList("RegexReplace"));
+        statistics.record(Phase.SEARCH, TimeUnit.MILLISECONDS.toNanos(10));
+        statistics.recordProcessor(0, TimeUnit.MILLISECONDS.toNanos(2));
+        statistics.recordProcessor(1, TimeUnit.MILLISECONDS.toNanos(2));
+        statistics.recordResult(true);
+        statistics.recordResult(false);
+        statistics.recordError();
+
+        assertEquals(1L, statistics.getAttribute("search.count"));
+        assertEquals(10.0, (Double) statistics.getAttribute("search.p50"), 10.0 * 0.125);
+        assertEquals(10.0, (Double) statistics.getAttribute("search.max"), 0.001);
+        assertEquals(1L, statistics.getAttribute("processor.0.RegexReplace.count"));
+        assertEquals(1L, statistics.getAttribute("resultCount"));
+        assertEquals(1L, statistics.getAttribute("notFoundCount"));
+        assertEquals(1L, statistics.getAttribute("errorCount"));
+
+        try {
+            statistics.getAttribute("search.p42");
+            fail("Unknown statistic must be rejected");
+        } catch (AttributeNotFoundException e) {
+            // Expected
+        }
+
+        statistics.invoke("reset", null, null);
+        assertEquals(0L, statistics.getAttribute("search.count"));
+        assertEquals(0L, statistics.getAttribute("resultCount"));
+    }
+
+    @Test
+    public void testAttempts() {
+
+        final LookupStatistics statistics = new LookupStatistics();
+        final LookupStatistics.Attempt answered = statistics.newAttempt();
+        final LookupStatistics.Attempt abandoned = statistics.newAttempt();
+        for (int i = 0; i < 6; i++) {
+            answered.record(Phase.LOOKUP, 1000);
+            abandoned.record(Phase.LOOKUP, 1000);
+        }
+        answered.record(Phase.SEARCH, 1000);
+        assertEquals(0, statistics.getHistogram(Phase.LOOKUP).getCount());
+
+        answered.commit();
+        assertEquals(6, statistics.getHistogram(Phase.LOOKUP).getCount());
+        assertEquals(1, statistics.getHistogram(Phase.SEARCH).getCount());
+
+        // Committed phases are not recorded twice
+        answered.commit();
+        assertEquals(6, statistics.getHistogram(Phase.LOOKUP).getCount());
+    }
+
+    @Test
+    public void testRegistration() throws Exception {
+
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName name = new ObjectName("net.archigny.cas.persondir.ldap:type=LookupStatisticsTest");
+        final LookupStatistics statistics = new LookupStatistics();
+        server.registerMBean(statistics, name);
+        try {
+            statistics.record(Phase.LOCK, 1000);
+            assertEquals(1L, server.getAttribute(name, "lock.count"));
+            assertTrue(server.getMBeanInfo(name).getAttributes().length > 3);
+        } finally {
+            server.unregisterMBean(name);
+        }
+    }
+
+}
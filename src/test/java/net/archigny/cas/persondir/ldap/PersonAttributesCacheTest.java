@@ -0,0 +1,125 @@
+package net.archigny.cas.persondir.ldap;
+
+import static org.junit.Assert.*;
+
+import net.archigny.cas.persondir.processors.PersonAttributesSetup;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class PersonAttributesCacheTest {
+
+    private long                  now;
+
+    private PersonAttributesCache cache;
+
+    private PersonAttributesImpl  person;
+
+    @Before
+    public void setUp() throws Exception {
+
+        now = 1000;
+        cache = new PersonAttributesCache() {
+
+            @Override
+            protected long currentTimeMillis() {
+
+                return now;
+            }
+        };
+        cache.setMaxSize(4);
+        cache.setConcurrencyLevel(1);
+        cache.setTimeToLive(100);
+        cache.setNegativeTimeToLive(10);
+        cache.afterPropertiesSet();
+
+        person = new PersonAttributesImpl("pmarasse", PersonAttributesSetup.getPersonAttributes());
+        person.lock();
+    }
+
+    @Test
+    public void testValidation() {
+
+        PersonAttributesCache invalid = new PersonAttributesCache();
+        invalid.setMaxSize(0);
+        try {
+            invalid.afterPropertiesSet();
+            fail("maxSize 0 must be rejected");
+        } catch (Exception e) {
+            // expected
+        }
+        try {
+            invalid.get("pmarasse");
+            fail("Uninitialized cache must not be usable");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        try {
+            cache.put("unlocked", new PersonAttributesImpl("unlocked", PersonAttributesSetup.getPersonAttributes()));
+            fail("Unlocked attributes must be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testHitAndExpiration() {
+
+        assertNull(cache.get("pmarasse"));
+        cache.put("pmarasse", person);
+
+        PersonAttributesCache.CacheEntry entry = cache.get("pmarasse");
+        assertNotNull(entry);
+        assertFalse(entry.isNegative());
+        assertSame(person, entry.getPerson());
+
+        now += 100;
+        assertNull(cache.get("pmarasse"));
+        assertEquals(0, cache.size());
+
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+        assertEquals(1, cache.getExpirationCount());
+    }
+
+    @Test
+    public void testNegativeCaching() {
+
+        cache.put("unknown", null);
+        PersonAttributesCache.CacheEntry entry = cache.get("unknown");
+        assertNotNull(entry);
+        assertTrue(entry.isNegative());
+        assertNull(entry.getPerson());
+        assertEquals(1, cache.getNegativeHitCount());
+
+        // Negative entries expire sooner than positive ones
+        now += 10;
+        assertNull(cache.get("unknown"));
+
+        cache.setNegativeTimeToLive(0);
+        cache.put("unknown", null);
+        assertNull(cache.get("unknown"));
+    }
+
+    @Test
+    public void testEviction() {
+
+        for (int i = 0; i < 4; i++) {
+            cache.put("user" + i, person);
+        }
+        // Touch user0 so that user1 becomes the eldest entry
+        assertNotNull(cache.get("user0"));
+        cache.put("user4", person);
+
+        assertEquals(4, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+        assertNotNull(cache.get("user0"));
+        assertNull(cache.get("user1"));
+
+        cache.invalidate("user0");
+        assertNull(cache.get("user0"));
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+
+}
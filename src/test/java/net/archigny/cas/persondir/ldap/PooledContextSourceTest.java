@@ -0,0 +1,140 @@
+package net.archigny.cas.persondir.ldap;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.naming.directory.DirContext;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.ldap.CommunicationException;
+import org.springframework.ldap.NamingException;
+import org.springframework.ldap.core.ContextSource;
+
+public class PooledContextSourceTest {
+
+    private final AtomicInteger opened = new AtomicInteger();
+
+    private final AtomicInteger closed = new AtomicInteger();
+
+    private boolean             down;
+
+    private long                now;
+
+    private PooledContextSource pool;
+
+    /**
+     * Stub ContextSource, handing out contexts which only count close calls
+     */
+    private class StubContextSource implements ContextSource {
+
+        private DirContext newContext() {
+
+            if (down) {
+                throw new CommunicationException(new javax.naming.CommunicationException("Directory is down"));
+            }
+            opened.incrementAndGet();
+            return (DirContext) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { DirContext.class },
+                    new InvocationHandler() {
+
+                        @Override
+                        public Object invoke(final Object proxy, final Method method, final Object[] args) {
+
+                            if ("close".equals(method.getName())) {
+                                closed.incrementAndGet();
+                            } else if ("equals".equals(method.getName())) {
+                                return proxy == args[0];
+                            } else if ("hashCode".equals(method.getName())) {
+                                return System.identityHashCode(proxy);
+                            }
+                            return null;
+                        }
+                    });
+        }
+
+        @Override
+        public DirContext getReadOnlyContext() {
+
+            return newContext();
+        }
+
+        @Override
+        public DirContext getReadWriteContext() {
+
+            return newContext();
+        }
+
+        @Override
+        public DirContext getContext(final String principal, final String credentials) {
+
+            return newContext();
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+
+        now = 1000000;
+        pool = new PooledContextSource() {
+
+            @Override
+            protected long currentTimeMillis() {
+
+                return now;
+            }
+        };
+        pool.setContextSource(new StubContextSource());
+        pool.setTimeBetweenEvictionRunsMillis(-1);
+        pool.afterPropertiesSet();
+    }
+
+    @Test
+    public void testConnectionsAreReused() throws Exception {
+
+        for (int i = 0; i < 10; i++) {
+            final DirContext context = pool.getReadOnlyContext();
+            assertEquals(1, pool.getNumActive());
+            context.close();
+        }
+        assertEquals(1, opened.get());
+        assertEquals(0, closed.get());
+        assertEquals(1, pool.getNumIdle());
+        assertEquals(10, pool.getBorrowCount());
+        assertEquals(1, pool.getCreatedCount());
+        assertTrue(pool.getCreationsPerSecond() > 0);
+    }
+
+    @Test
+    public void testOldConnectionsAreReplaced() throws Exception {
+
+        pool.setMaxAge(200);
+        pool.getReadOnlyContext().close();
+        now += 199;
+        pool.getReadOnlyContext().close();
+        assertEquals(1, opened.get());
+        now += 1;
+        pool.getReadOnlyContext().close();
+        assertEquals(2, opened.get());
+        assertEquals(1, closed.get());
+        assertEquals(1, pool.getExpiredCount());
+        assertEquals(1, pool.getDestroyedCount());
+    }
+
+    @Test
+    public void testBorrowFailureIsAnLdapException() throws Exception {
+
+        down = true;
+        try {
+            pool.getReadOnlyContext();
+            fail("Borrowing from a pool whose directory is down must fail");
+        } catch (NamingException e) {
+            assertTrue(e instanceof CommunicationException);
+        }
+        assertEquals(1, pool.getBorrowFailureCount());
+    }
+
+}
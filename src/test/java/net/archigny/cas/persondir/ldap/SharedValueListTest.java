@@ -0,0 +1,70 @@
+package net.archigny.cas.persondir.ldap;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class SharedValueListTest {
+
+    @Test
+    public void testReadWithoutCopy() {
+
+        final Object[] values = { "cn=Groupe 1", "cn=Groupe 2", "cn=Groupe 3" };
+        final SharedValueList list = new SharedValueList(values);
+
+        assertEquals(3, list.size());
+        assertEquals("cn=Groupe 2", list.get(1));
+        assertEquals(Arrays.asList(values), list);
+        // Setting the same value keeps sharing
+        list.set(0, values[0]);
+        assertSame(values, list.getSharedValues());
+
+        final List<Object> frozen = FrozenValueList.freeze(list);
+        assertEquals(Arrays.asList(values), frozen);
+        try {
+            frozen.add("cn=Groupe 4");
+            fail("Frozen list should not be modifiable");
+        } catch (UnsupportedOperationException e) {
+            // Exception attendue
+        }
+    }
+
+    @Test
+    public void testCopyOnWrite() {
+
+        final Object[] values = { "cn=Groupe 1", "cn=Groupe 2", "cn=Groupe 3" };
+        final SharedValueList list = new SharedValueList(values);
+
+        list.set(0, "Groupe 1");
+        assertNull(list.getSharedValues());
+        assertEquals("cn=Groupe 1", values[0]);
+        assertEquals("Groupe 1", list.get(0));
+
+        list.removeAll(Arrays.asList("cn=Groupe 2"));
+        list.add("cn=Groupe 4");
+        assertEquals(Arrays.<Object> asList("Groupe 1", "cn=Groupe 3", "cn=Groupe 4"), list);
+        assertEquals(Arrays.<Object> asList("cn=Groupe 1", "cn=Groupe 2", "cn=Groupe 3"), Arrays.asList(values));
+    }
+
+    @Test
+    public void testLockAdoptsSharedValues() {
+
+        final CaseInsensitiveAttributeMap attributes = new CaseInsensitiveAttributeMap();
+        attributes.put("memberOf", new SharedValueList(new Object[] { "cn=Groupe 1", "cn=Groupe 2" }));
+        final PersonAttributesImpl person = new PersonAttributesImpl("jdupont", attributes);
+        person.lock();
+
+        final List<Object> groups = person.getAttributeValues("memberOf");
+        assertEquals(2, groups.size());
+        try {
+            groups.remove(0);
+            fail("Locked values should not be modifiable");
+        } catch (UnsupportedOperationException e) {
+            // Exception attendue
+        }
+    }
+
+}
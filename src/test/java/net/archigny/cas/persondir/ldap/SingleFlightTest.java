@@ -0,0 +1,172 @@
+package net.archigny.cas.persondir.ldap;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class SingleFlightTest {
+
+    private static final int THREADS = 8;
+
+    @Test
+    public void testConcurrentCallersShareOneLoad() throws Exception {
+
+        final SingleFlight<String> singleFlight = new SingleFlight<String>();
+        final AtomicInteger loads = new AtomicInteger();
+        final CountDownLatch loaderStarted = new CountDownLatch(1);
+        final CountDownLatch releaseLoader = new CountDownLatch(1);
+
+        final Callable<String> loader = new Callable<String>() {
+
+            @Override
+            public String call() throws Exception {
+
+                loads.incrementAndGet();
+                loaderStarted.countDown();
+                releaseLoader.await(5, TimeUnit.SECONDS);
+                return "value";
+            }
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<String>> results = new ArrayList<Future<String>>();
+            results.add(executor.submit(new Callable<String>() {
+
+                @Override
+                public String call() throws Exception {
+
+                    return singleFlight.execute("ghouse", loader);
+                }
+            }));
+            assertTrue(loaderStarted.await(5, TimeUnit.SECONDS));
+
+            for (int i = 1; i < THREADS; i++) {
+                results.add(executor.submit(new Callable<String>() {
+
+                    @Override
+                    public String call() throws Exception {
+
+                        return singleFlight.execute("ghouse", loader);
+                    }
+                }));
+            }
+            // Wait for followers to join the in-flight load
+            long deadline = System.currentTimeMillis() + 5000;
+            while (singleFlight.getCoalescedCount() < THREADS - 1 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            releaseLoader.countDown();
+
+            for (Future<String> result : results) {
+                assertEquals("value", result.get(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(1, loads.get());
+        assertEquals(THREADS - 1, singleFlight.getCoalescedCount());
+        assertEquals(0, singleFlight.getInFlightCount());
+
+        // Once the load is over, a new call loads again
+        assertEquals("value", singleFlight.execute("ghouse", loader));
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void testJoinDoesNotPublishItsLoad() throws Exception {
+
+        final SingleFlight<String> singleFlight = new SingleFlight<String>();
+        final AtomicInteger loads = new AtomicInteger();
+        final Callable<String> loader = new Callable<String>() {
+
+            @Override
+            public String call() throws Exception {
+
+                loads.incrementAndGet();
+                assertEquals("Other callers do not wait for a joining caller's load", 0, singleFlight.getInFlightCount());
+                return "value";
+            }
+        };
+
+        assertEquals("value", singleFlight.join("ghouse", loader));
+        assertEquals(1, loads.get());
+        assertEquals(0, singleFlight.getCoalescedCount());
+
+        // A joining caller waits for the load in flight
+        final CountDownLatch loaderStarted = new CountDownLatch(1);
+        final CountDownLatch releaseLoader = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final Future<String> first = executor.submit(new Callable<String>() {
+
+                @Override
+                public String call() throws Exception {
+
+                    return singleFlight.execute("ghouse", new Callable<String>() {
+
+                        @Override
+                        public String call() throws Exception {
+
+                            loaderStarted.countDown();
+                            releaseLoader.await(5, TimeUnit.SECONDS);
+                            return "in flight";
+                        }
+                    });
+                }
+            });
+            assertTrue(loaderStarted.await(5, TimeUnit.SECONDS));
+            final Future<String> joined = executor.submit(new Callable<String>() {
+
+                @Override
+                public String call() throws Exception {
+
+                    return singleFlight.join("ghouse", loader);
+                }
+            });
+            final long deadline = System.currentTimeMillis() + 5000;
+            while ((singleFlight.getCoalescedCount() < 1) && (System.currentTimeMillis() < deadline)) {
+                Thread.sleep(5);
+            }
+            releaseLoader.countDown();
+            assertEquals("in flight", joined.get(5, TimeUnit.SECONDS));
+            assertEquals("in flight", first.get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, loads.get());
+        assertEquals(1, singleFlight.getCoalescedCount());
+    }
+
+    @Test
+    public void testExceptionIsPropagated() {
+
+        SingleFlight<String> singleFlight = new SingleFlight<String>();
+        try {
+            singleFlight.execute("ghouse", new Callable<String>() {
+
+                @Override
+                public String call() throws Exception {
+
+                    throw new IllegalStateException("directory down");
+                }
+            });
+            fail("Loader exception must be propagated");
+        } catch (IllegalStateException e) {
+            assertEquals("directory down", e.getMessage());
+        }
+        assertEquals(0, singleFlight.getInFlightCount());
+    }
+
+}
@@ -0,0 +1,31 @@
+package net.archigny.cas.persondir.ldap;
+
+import static org.junit.Assert.*;
+
+import net.archigny.cas.persondir.processors.PersonAttributesSetup;
+
+import org.junit.Test;
+
+public class StalePersonStoreTest {
+
+    @Test
+    public void testPutGet() throws Exception {
+
+        final StalePersonStore store = new StalePersonStore();
+        store.afterPropertiesSet();
+        final PersonAttributesImpl person = new PersonAttributesImpl("jdupont", PersonAttributesSetup.getPersonAttributes());
+        person.lock();
+        store.putPerson("jdupont", person);
+        assertSame(person, store.getPerson("jdupont"));
+        assertNull(store.getPerson("unknown"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnlockedPersonRejected() throws Exception {
+
+        final StalePersonStore store = new StalePersonStore();
+        store.afterPropertiesSet();
+        store.putPerson("jdupont", new PersonAttributesImpl("jdupont", PersonAttributesSetup.getPersonAttributes()));
+    }
+
+}
@@ -0,0 +1,83 @@
+package net.archigny.cas.persondir.ldap;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class UidDnCacheTest {
+
+    public final static String DN = "cn=Gregory House,ou=Comptes,dc=test,dc=archigny,dc=net";
+
+    private long               now;
+
+    private UidDnCache         dnCache;
+
+    @Before
+    public void setUp() throws Exception {
+
+        now = 0;
+        dnCache = new UidDnCache() {
+
+            @Override
+            protected long currentTimeMillis() {
+
+                return now;
+            }
+        };
+        dnCache.setMaxSize(2);
+        dnCache.setConcurrencyLevel(1);
+        dnCache.afterPropertiesSet();
+    }
+
+    @Test
+    public void testLongLivedEntries() {
+
+        assertEquals(86400000, dnCache.getTimeToLive());
+        assertNull(dnCache.getDn("ghouse"));
+
+        dnCache.putDn("ghouse", DN);
+        now += 3600000;
+        assertEquals(DN, dnCache.getDn("ghouse"));
+
+        now += 86400000;
+        assertNull(dnCache.getDn("ghouse"));
+        assertEquals(1, dnCache.getExpirationCount());
+    }
+
+    @Test
+    public void testInvalidateAndBound() {
+
+        dnCache.putDn("ghouse", DN);
+        dnCache.invalidate("ghouse");
+        assertNull(dnCache.getDn("ghouse"));
+
+        dnCache.putDn("user1", "uid=user1");
+        dnCache.putDn("user2", "uid=user2");
+        dnCache.putDn("user3", "uid=user3");
+        assertEquals(2, dnCache.size());
+        assertEquals(1, dnCache.getEvictionCount());
+
+        try {
+            dnCache.putDn("user4", null);
+            fail("null DN must be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testSegmentsAddUpToMaxSize() throws Exception {
+
+        final UidDnCache striped = new UidDnCache();
+        striped.setMaxSize(10);
+        striped.setConcurrencyLevel(4);
+        striped.afterPropertiesSet();
+        for (int i = 0; i < 1000; i++) {
+            striped.putDn("user" + i, "uid=user" + i);
+        }
+        assertEquals(10, striped.size());
+        assertEquals(990, striped.getEvictionCount());
+    }
+
+}
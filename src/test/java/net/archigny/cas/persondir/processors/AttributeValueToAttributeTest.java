@@ -116,4 +116,33 @@ public class AttributeValueToAttributeTest {
 		assertTrue(possibleAttrs.contains("drupal2"));
 	}
 	
+	@Test
+	public void nestedPrefixesTest() throws Exception {
+		AttributeValueToAttribute processor = new AttributeValueToAttribute();
+		processor.setAttributeName(GROUPE_ATTR);
+		Map<String,String> prefixToAttrs = new HashMap<String, String>();
+		prefixToAttrs.put(PREFIX,"drupal");
+		prefixToAttrs.put("web-Rédacteur ","redacteur");
+		prefixToAttrs.put("web-Rédacteur Pôle B","drupal");
+		processor.setPrefixToAttributeName(prefixToAttrs);
+		processor.afterPropertiesSet();
+
+		processor.processAttributes(personAttributes.getAttributes());
+
+		// Une valeur est ajoutée à chaque attribut dont un préfixe correspond
+		List<Object> redacteur = personAttributes.getAttributeValues("redacteur");
+		assertEquals(2, redacteur.size());
+		assertTrue(redacteur.contains("Pôle A"));
+		assertTrue(redacteur.contains("Pôle B"));
+		List<Object> drupal = personAttributes.getAttributeValues("drupal");
+		assertEquals(3, drupal.size());
+		assertTrue(drupal.contains(""));
+
+		// Les valeurs déplacées sont retirées, l'ordre des autres est conservé
+		List<Object> groupes = personAttributes.getAttributeValues(GROUPE_ATTR);
+		assertEquals(2, groupes.size());
+		assertEquals(GROUP1, groupes.get(0));
+		assertEquals(GROUP4, groupes.get(1));
+	}
+
 }
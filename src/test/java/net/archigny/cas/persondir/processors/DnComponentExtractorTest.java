@@ -0,0 +1,148 @@
+package net.archigny.cas.persondir.processors;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import javax.naming.ldap.Rdn;
+
+import org.junit.Test;
+import org.springframework.beans.factory.BeanCreationException;
+
+public class DnComponentExtractorTest {
+
+    private static DnComponentExtractor extractor(final String rdnType, final int rdnPosition, final String suffix)
+            throws Exception {
+
+        final DnComponentExtractor extractor = new DnComponentExtractor();
+        extractor.setKey("memberOf");
+        extractor.setRdnType(rdnType);
+        extractor.setRdnPosition(rdnPosition);
+        extractor.setSuffix(suffix);
+        extractor.afterPropertiesSet();
+        return extractor;
+    }
+
+    private static List<Object> process(final DnComponentExtractor extractor, final Object... values) {
+
+        final List<Object> list = new ArrayList<Object>(Arrays.asList(values));
+        extractor.processAttribute(null, "memberOf", list);
+        return list;
+    }
+
+    @Test
+    public void testProcessAttributes() throws Exception {
+
+        final Map<String, List<Object>> attrs = PersonAttributesSetup.getPersonAttributes();
+        final DnComponentExtractor test = new DnComponentExtractor();
+        test.setKey("MEMBEROF");
+        test.setRdnType("cn");
+        test.afterPropertiesSet();
+
+        test.processAttributes(attrs);
+
+        // "cn=Groupe, deux" holds an unescaped comma : " deux" is not an RDN, so the value is not a DN
+        final List<Object> expected = Arrays.<Object> asList("Groupe 1", "Groupe \u00E0 accents", "Groupe 4", "Groupe 5");
+        assertEquals(expected, attrs.get("memberOf"));
+        assertEquals(Arrays.<Object> asList("Philippe Marasse"), attrs.get("cn"));
+    }
+
+    @Test
+    public void testEscapes() throws Exception {
+
+        final DnComponentExtractor test = extractor("cn", 0, null);
+        assertEquals(Arrays.<Object> asList("Groupe, deux", "Groupe \u00E0 accents", "Doe, John", "a,b", "#hash ", "#04024869",
+                "spaced", "a \"quoted\" ;+<>=\\", "\uD83D\uDE00"), process(test, "cn=Groupe\\, deux,ou=groupes,dc=archigny,dc=net",
+                "cn=Groupe \\C3\\A0 accents,ou=groupes", "cn=\"Doe, John\",ou=people", "cn=a\\2Cb", "cn=\\#hash\\ ,ou=x",
+                "cn=#04024869,ou=x", "  CN = spaced  , OU=x", "cn=a \\\"quoted\\\" \\;\\+\\<\\>\\=\\\\",
+                "cn=\\F0\\9F\\98\\80"));
+
+        // Multi valued RDN
+        assertEquals(Arrays.<Object> asList("b"), process(extractor("sn", 0, null), "cn=a+sn=b,ou=x"));
+
+        // Invalid hex pair sequences, values without the RDN, and malformed DN after the RDN
+        assertEquals(Arrays.<Object> asList("ok"), process(test, "cn=\\C3,ou=x", "cn=\\80", "ou=groupes", "not a DN", "", "cn=ok",
+                "cn=foo,garbage", "cn=foo,ou=x,", "cn=foo,ou=\"unterminated"));
+    }
+
+    @Test
+    public void testPosition() throws Exception {
+
+        final DnComponentExtractor test = extractor(null, 1, null);
+        assertEquals(Arrays.<Object> asList("groupes", "x", "c"), process(test, "cn=Groupe\\, 1,ou=groupes,dc=net",
+                "cn=a+sn=b;ou=x+l=y", "a=b,c=c", "cn=single"));
+        assertEquals(Arrays.<Object> asList("a"), process(extractor(null, 0, null), "cn=a+sn=b", "cn=a,b"));
+    }
+
+    @Test
+    public void testSuffix() throws Exception {
+
+        final byte[] binary = { 1, 2 };
+        final DnComponentExtractor test = extractor("cn", 0, "OU=Group\\65s, dc=archigny,dc=NET");
+        assertEquals(Arrays.<Object> asList("Groupe 1", binary, "Groupe, deux", "app"), process(test,
+                "cn=Groupe 1,ou=groupes,dc=archigny,dc=net", "cn=Liste,ou=listes,dc=archigny,dc=net", binary,
+                "cn=Groupe\\, deux, ou=Groupes, dc=archigny, dc=net", "ou=groupes,dc=archigny,dc=net",
+                "cn=x,ou=groupes,dc=archigny,dc=net,", "cn=x,ou=groupes,dc=archigny,dc=net+l=y",
+                "cn=x,ou=groupes,dc=archigny,dc=org", "cn=x,ou=groupes+l=y,dc=archigny,dc=net",
+                "cn=app,ou=applis,ou=groupes,dc=archigny,dc=net", "dc=archigny,dc=net"));
+
+        // The component may be part of the suffix itself
+        assertEquals(Arrays.<Object> asList("archigny"), process(extractor("dc", 0, "dc=archigny,dc=net"),
+                "dc=archigny,dc=net"));
+    }
+
+    @Test
+    public void testRandomValues() throws Exception {
+
+        final DnComponentExtractor test = extractor("cn", 0, "ou=groupes,dc=archigny,dc=net");
+        final Random random = new Random(42);
+        final char[] alphabet = " ,;+=<>#\"\\aZ\u00E0\u20AC".toCharArray();
+        for (int i = 0; i < 2000; i++) {
+            final StringBuilder sb = new StringBuilder();
+            final int length = 1 + random.nextInt(10);
+            for (int j = 0; j < length; j++) {
+                sb.append(alphabet[random.nextInt(alphabet.length)]);
+            }
+            final String value = sb.toString();
+
+            // Escaped as JNDI does, then as hex pairs only
+            final StringBuilder hex = new StringBuilder();
+            for (final byte b : value.getBytes("UTF-8")) {
+                hex.append('\\').append(String.format("%02x", b & 0xFF));
+            }
+            final List<Object> result = process(test, "cn=" + Rdn.escapeValue(value) + ",ou=groupes,dc=archigny,dc=net",
+                    "CN=" + hex + " , OU=GROUPES , DC=archigny , DC=net");
+            assertEquals(value, Arrays.<Object> asList(value, value), result);
+        }
+    }
+
+    @Test
+    public void testConfiguration() throws Exception {
+
+        try {
+            new DnComponentExtractor().afterPropertiesSet();
+            fail("key is mandatory");
+        } catch (BeanCreationException e) {
+            // Expected
+        }
+        try {
+            extractor(null, -1, null);
+            fail("rdnPosition cannot be negative");
+        } catch (BeanCreationException e) {
+            // Expected
+        }
+        for (final String suffix : new String[] { "", "ou=groupes,", "ou", "cn=\\C3", "cn=\"unterminated" }) {
+            try {
+                extractor("cn", 0, suffix);
+                fail("Invalid suffix accepted : " + suffix);
+            } catch (BeanCreationException e) {
+                // Expected
+            }
+        }
+    }
+
+}
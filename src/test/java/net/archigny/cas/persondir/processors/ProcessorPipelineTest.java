@@ -0,0 +1,146 @@
+package net.archigny.cas.persondir.processors;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class ProcessorPipelineTest {
+
+    private List<IAttributesProcessor> buildProcessors() throws Exception {
+
+        final RegexValueReplace groupName = new RegexValueReplace();
+        groupName.setKey("MEMBEROF");
+        groupName.setValueMatch("^cn=([^,]+),.+$");
+        groupName.setValueReplace("$1");
+        groupName.afterPropertiesSet();
+
+        final Map<String, String> prefixes = new HashMap<String, String>();
+        prefixes.put("Groupe ", "groupNumbers");
+        final AttributeValueToAttribute dispatch = new AttributeValueToAttribute();
+        dispatch.setAttributeName("memberOf");
+        dispatch.setPrefixToAttributeName(prefixes);
+        dispatch.afterPropertiesSet();
+
+        // Only reads an attribute added by the previous processor
+        final RegexReplace numbers = new RegexReplace();
+        numbers.setKeyMatch("^group");
+        numbers.setValueMatch("^");
+        numbers.setValueReplace("#");
+        numbers.afterPropertiesSet();
+
+        final List<IAttributesProcessor> processors = new ArrayList<IAttributesProcessor>();
+        processors.add(groupName);
+        processors.add(dispatch);
+        processors.add(numbers);
+        processors.add(new AddTodayDateProcessor());
+        return processors;
+    }
+
+    @Test
+    public void testSameResultAsProcessors() throws Exception {
+
+        final List<IAttributesProcessor> processors = buildProcessors();
+        final Map<String, List<Object>> expected = PersonAttributesSetup.getPersonAttributes();
+        for (final IAttributesProcessor processor : processors) {
+            processor.processAttributes(expected);
+        }
+
+        final Map<String, List<Object>> attributes = PersonAttributesSetup.getPersonAttributes();
+        final ProcessorPipeline pipeline = new ProcessorPipeline(processors, attributes.keySet());
+        pipeline.process(attributes);
+
+        assertEquals(expected.keySet(), attributes.keySet());
+        for (final String name : expected.keySet()) {
+            if (!AddTodayDateProcessor.DATE_ATTRIBUTE_NAME.equals(name)) {
+                assertEquals(expected.get(name), attributes.get(name));
+            }
+        }
+        assertEquals(Arrays.asList((Object) "#1", "#à accents", "#4", "#5"), attributes.get("groupNumbers"));
+    }
+
+    @Test
+    public void testTargets() throws Exception {
+
+        final ProcessorPipeline pipeline = new ProcessorPipeline(buildProcessors(), PersonAttributesSetup
+                .getPersonAttributes().keySet());
+
+        assertEquals(4, pipeline.size());
+        assertArrayEquals(new String[] { "memberOf" }, pipeline.getTargets(0));
+        assertArrayEquals(new String[] { "memberOf" }, pipeline.getTargets(1));
+        assertArrayEquals(new String[] { "groupNumbers" }, pipeline.getTargets(2));
+        assertNull(pipeline.getTargets(3));
+    }
+
+    @Test
+    public void testTargetsIgnoreCase() throws Exception {
+
+        final AttributeValueToAttribute dispatch = new AttributeValueToAttribute();
+        dispatch.setAttributeName("memberOf");
+        dispatch.setPrefixToAttributeName(Collections.singletonMap("cn=", "groups"));
+        dispatch.afterPropertiesSet();
+        final UuidBinaryToStringProcessor uuid = new UuidBinaryToStringProcessor();
+        uuid.setSourceAttribute("objectGUID");
+        uuid.setTargetAttribute("uuid");
+        uuid.afterPropertiesSet();
+
+        final ProcessorPipeline pipeline = new ProcessorPipeline(Arrays.<IAttributesProcessor> asList(dispatch, uuid),
+                Arrays.asList("memberof", "OBJECTGUID"));
+        assertArrayEquals(new String[] { "memberof" }, pipeline.getTargets(0));
+        assertArrayEquals(new String[] { "OBJECTGUID" }, pipeline.getTargets(1));
+    }
+
+    @Test
+    public void testUndeclaredAttributesAreProcessed() throws Exception {
+
+        // Renames memberOf, without declaring the new name
+        final IAttributesProcessor rename = new IAttributesProcessor() {
+
+            @Override
+            public void processAttributes(final Map<String, List<Object>> attributes) {
+
+                attributes.put("groupList", attributes.remove("memberOf"));
+            }
+
+            @Override
+            public Set<String> getPossibleUserAttributeNames() {
+
+                return null;
+            }
+        };
+        final RegexReplace groups = new RegexReplace();
+        groups.setKeyMatch("^group");
+        groups.setValueMatch("^cn=");
+        groups.setValueReplace("");
+        groups.afterPropertiesSet();
+
+        final Map<String, List<Object>> attributes = PersonAttributesSetup.getPersonAttributes();
+        final ProcessorPipeline pipeline = new ProcessorPipeline(Arrays.<IAttributesProcessor> asList(rename, groups),
+                attributes.keySet());
+        pipeline.process(attributes);
+
+        assertFalse(attributes.containsKey("memberOf"));
+        assertEquals("Groupe 1, ou=Groupes, dc=archigny, dc=net", attributes.get("groupList").get(0));
+    }
+
+    @Test
+    public void testMissingTargetIsSkipped() throws Exception {
+
+        final ProcessorPipeline pipeline = new ProcessorPipeline(buildProcessors(), PersonAttributesSetup
+                .getPersonAttributes().keySet());
+        final Map<String, List<Object>> attributes = PersonAttributesSetup.getPersonAttributes();
+        attributes.remove("memberOf");
+        pipeline.process(attributes);
+
+        assertFalse(attributes.containsKey("groupNumbers"));
+        assertTrue(attributes.containsKey(AddTodayDateProcessor.DATE_ATTRIBUTE_NAME));
+    }
+
+}
@@ -0,0 +1,100 @@
+package net.archigny.cas.persondir.processors;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import net.archigny.cas.persondir.processors.SpecializedPattern.Shape;
+
+import org.junit.Test;
+
+public class SpecializedPatternTest {
+
+    private static final String[] PATTERNS = { "^cn=([^,]+),.*$", "^cn=([^,]+),.*", "^cn=([^,]*),", "^cn=([^,]+)",
+            "^cn=([^,]+)$", "^([^,]+)", "^uid=([^\\,]+)\\,.*$", "^cn=list-", "cn=list-", "^cn=list-.*$", ".*,ou=groupes$",
+            ",dc=archigny,dc=net$", ",dc=archigny,dc=net", ".*Groupe.*", "^Groupe 1$", "Groupe 1", "^(cn|sn|memberOf)$",
+            "^(?:mail|uid)$", "^(.+)sse", "cn=(.+),.+", "^cn=[^,]+,", "a+", "^cn=([^,]+);.*$", "ou=\\(test\\)", "^$",
+            ".*", "^cn=([^,]+),+.*$", "^cn=.*?,", "^\u00C9(\u00E9|x)$", "^cn=([^,]+),$",
+            "ou=groupes$" };
+
+    private static final String[] REPLACEMENTS = { "$1", "group:$1", "[$1]-$1", "", "x", "$0", "\\$1", "$12" };
+
+    private static final String[] VALUES = { "cn=Groupe 1,ou=groupes,dc=archigny,dc=net", "CN=Groupe 1,OU=Groupes",
+            "cn=Groupe\\, deux,ou=groupes", "cn=,ou=groupes", "cn=", "cn=Groupe \u00E0 accents", "cn=list-diffusion,ou=listes",
+            "CN=LIST-diffusion", "Groupe 1", "groupe 1", "xGroupe 1", "memberOf", "MEMBEROF", "mail", "uid", "", ",",
+            "cn=a,b\nc", "cn=a,b\n", "cn=a\r\n", "uid=jdupont,ou=people", "ou=(test),ou=(test)", "\u00C9\u00C9", "\u00E9x",
+            "Philippe Marasse", "cn=\u212A,ou=groupes", "cn=\u017F,dc=archigny,dc=net", "cn=a,\n", "cn=a,\r\n", "memberOf\n",
+            "cn=list-\u2028", "Groupe 1\r", "\nGroupe 1", ",dc=archigny,dc=net\u0085" };
+
+    private static void check(final String regex, final int flags, final String value) {
+
+        final Pattern pattern = Pattern.compile(regex, flags);
+        final SpecializedPattern specialized = SpecializedPattern.compile(regex, flags);
+        final String context = regex + " / " + flags + " / [" + value + "]";
+        assertEquals(context, pattern.matcher(value).matches(), specialized.matches(value));
+        assertEquals(context, pattern.matcher(value).find(), specialized.find(value));
+        for (final String replacement : REPLACEMENTS) {
+            String expected;
+            try {
+                expected = pattern.matcher(value).replaceAll(replacement);
+            } catch (RuntimeException e) {
+                expected = e.getClass().getName();
+            }
+            String actual;
+            try {
+                actual = specialized.replacement(replacement).replaceAll(value);
+            } catch (RuntimeException e) {
+                actual = e.getClass().getName();
+            }
+            assertEquals(context + " -> " + replacement, expected, actual);
+        }
+    }
+
+    @Test
+    public void testSameResultsAsPattern() {
+
+        final int[] flags = { 0, Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE, Pattern.CASE_INSENSITIVE };
+        for (final String regex : PATTERNS) {
+            for (final int flag : flags) {
+                for (final String value : VALUES) {
+                    check(regex, flag, value);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testRandomValues() {
+
+        final Random random = new Random(42);
+        final char[] alphabet = "cnCN=,;-ab\\\n\r\u2028".toCharArray();
+        final int[] flags = { 0, Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE };
+        for (int i = 0; i < 5000; i++) {
+            final StringBuilder sb = new StringBuilder();
+            final int length = random.nextInt(12);
+            for (int j = 0; j < length; j++) {
+                sb.append(alphabet[random.nextInt(alphabet.length)]);
+            }
+            final String value = (random.nextBoolean() ? "cn=" : "") + sb;
+            for (final String regex : PATTERNS) {
+                check(regex, flags[i % 2], value);
+            }
+        }
+    }
+
+    @Test
+    public void testShapes() {
+
+        assertEquals(Shape.DELIMITER_CAPTURE, SpecializedPattern.compile("^cn=([^,]+),.*$", 0).getShape());
+        assertEquals(Shape.LITERAL, SpecializedPattern.compile("^cn=list-", 0).getShape());
+        assertEquals(Shape.LITERAL, SpecializedPattern.compile(",dc=archigny,dc=net$", 0).getShape());
+        assertEquals(Shape.LITERAL_SET, SpecializedPattern.compile("^(cn|sn)$", 0).getShape());
+        assertEquals(Shape.GENERAL, SpecializedPattern.compile("^(.+)sse", 0).getShape());
+        assertEquals(Shape.GENERAL, SpecializedPattern.compile("cn=list-", Pattern.CASE_INSENSITIVE).getShape());
+
+        assertTrue(SpecializedPattern.compile("^cn=([^,]+),.*$", 0).replacement("$1").isSpecialized());
+        assertFalse(SpecializedPattern.compile("^cn=([^,]+),.*$", 0).replacement("$0").isSpecialized());
+    }
+
+}
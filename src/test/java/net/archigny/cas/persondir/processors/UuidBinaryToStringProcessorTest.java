@@ -132,6 +132,22 @@ public class UuidBinaryToStringProcessorTest {
         
     }
 
+    @Test
+    public void activeDirectoryOrderTest() throws Exception {
+
+        processor.setSourceAttribute(SOURCE_ATTR);
+        processor.setTargetAttribute(TARGET_ATTR);
+        processor.setActiveDirectoryByteOrder(true);
+        processor.afterPropertiesSet();
+
+        processor.processAttributes(attributes);
+
+        final List<Object> values = attributes.get(TARGET_ATTR);
+        assertEquals("BBAE8AA0-AD40-46A0-96CA-7214DC28DF28", values.get(0));
+        assertEquals("0D8FEA02-958D-41D4-9CA1-3AE7E291CB26", values.get(1));
+        assertFalse(attributes.containsKey(SOURCE_ATTR));
+    }
+
     @Test
     public void noProcessingTest() throws Exception {
         log.info("no Processing Test");
@@ -0,0 +1,58 @@
+package net.archigny.cas.persondir.processors;
+
+import static org.junit.Assert.*;
+
+import java.util.UUID;
+
+import org.junit.Test;
+
+public class UuidCodecTest {
+
+    @Test
+    public void testRfc4122Order() {
+
+        final UUID uuid = UUID.fromString("a08aaebb-40ad-a046-96ca-7214dc28df28");
+        final byte[] bytes = UuidCodec.toBytes("a08aaebb-40ad-a046-96ca-7214dc28df28", false);
+
+        long high = 0;
+        for (int i = 0; i < 8; i++) {
+            high = (high << 8) | (bytes[i] & 0xFF);
+        }
+        assertEquals(uuid.getMostSignificantBits(), high);
+        assertEquals("A08AAEBB-40AD-A046-96CA-7214DC28DF28", UuidCodec.toString(bytes, false));
+    }
+
+    @Test
+    public void testActiveDirectoryOrder() {
+
+        final byte[] bytes = UuidBinaryToStringProcessorTest.TOKEN_1;
+        final String guid = UuidCodec.toString(bytes, true);
+
+        assertEquals("BBAE8AA0-AD40-46A0-96CA-7214DC28DF28", guid);
+        assertArrayEquals(bytes, UuidCodec.toBytes(guid, true));
+        assertArrayEquals(bytes, UuidCodec.toBytes(guid.toLowerCase(), true));
+    }
+
+    @Test
+    public void testFilterValue() {
+
+        assertEquals("\\A0\\8A\\AE\\BB\\40\\AD\\A0\\46\\96\\CA\\72\\14\\DC\\28\\DF\\28",
+                UuidCodec.toFilterValue("BBAE8AA0-AD40-46A0-96CA-7214DC28DF28", true));
+    }
+
+    @Test
+    public void testInvalidStrings() {
+
+        final String[] invalid = { "", "BBAE8AA0AD4046A096CA7214DC28DF28", "BBAE8AA0-AD40-46A0-96CA-7214DC28DF2G",
+                "BBAE8AA0+AD40-46A0-96CA-7214DC28DF28", "BBAE8AA0-AD40-46A0-96CA-7214DC28DF2é" };
+        for (final String uuid : invalid) {
+            try {
+                UuidCodec.toBytes(uuid, false);
+                fail("Should reject " + uuid);
+            } catch (IllegalArgumentException e) {
+                // expected behaviour
+            }
+        }
+    }
+
+}
@@ -0,0 +1,115 @@
+package net.archigny.cas.persondir.processors;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class ValueTransformCacheTest {
+
+    @Test
+    public void testGetPut() {
+
+        final ValueTransformCache<String> cache = new ValueTransformCache<String>(100);
+        assertEquals(128, cache.getSize());
+
+        assertNull(cache.get("cn=Groupe 1,ou=groupes"));
+        cache.put("cn=Groupe 1,ou=groupes", "Groupe 1");
+        assertEquals("Groupe 1", cache.get(new String("cn=Groupe 1,ou=groupes")));
+
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(0.5, cache.getHitRate(), 0.0001);
+
+        cache.clear();
+        assertNull(cache.get("cn=Groupe 1,ou=groupes"));
+        assertEquals(0, cache.getHitCount());
+    }
+
+    @Test
+    public void testConcurrentCounts() throws Exception {
+
+        final ValueTransformCache<String> cache = new ValueTransformCache<String>(16);
+        cache.put("cn=Groupe 1,ou=groupes", "Groupe 1");
+        final Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread() {
+
+                @Override
+                public void run() {
+
+                    for (int i = 0; i < 10000; i++) {
+                        cache.get("cn=Groupe 1,ou=groupes");
+                        cache.get("cn=Groupe 2,ou=groupes");
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(80000, cache.getHitCount());
+        assertEquals(80000, cache.getMissCount());
+
+        assertEquals(2, ValueTransformCache.stripeCount(1));
+        assertEquals(16, ValueTransformCache.stripeCount(12));
+        assertEquals(64, ValueTransformCache.stripeCount(256));
+    }
+
+    @Test
+    public void testBounded() {
+
+        final ValueTransformCache<Integer> cache = new ValueTransformCache<Integer>(16);
+        for (int i = 0; i < 1000; i++) {
+            cache.put("value" + i, i);
+        }
+        int cached = 0;
+        for (int i = 0; i < 1000; i++) {
+            final Integer result = cache.get("value" + i);
+            if (result != null) {
+                assertEquals(i, result.intValue());
+                cached++;
+            }
+        }
+        assertTrue(cached <= 16);
+    }
+
+    @Test
+    public void testProcessorsMemo() throws Exception {
+
+        final RegexValueReplace replace = new RegexValueReplace();
+        replace.setKey("memberOf");
+        replace.setValueMatch("^cn=([^,]+),.*$");
+        replace.setValueReplace("$1");
+        replace.setMemoSize(64);
+        replace.afterPropertiesSet();
+
+        final RegexValueDelete delete = new RegexValueDelete();
+        delete.setKey("memberOf");
+        delete.setValueMatch("^Groupe [45]$");
+        delete.setMemoSize(64);
+        delete.afterPropertiesSet();
+
+        for (int i = 0; i < 3; i++) {
+            final Map<String, List<Object>> attrs = PersonAttributesSetup.getPersonAttributes();
+            replace.processAttributes(attrs);
+            delete.processAttributes(attrs);
+            assertEquals(Arrays.asList("Groupe 1", "Groupe", "Groupe à accents"), attrs.get("memberOf"));
+        }
+        assertEquals(10, replace.getMemoCache().getHitCount());
+        assertEquals(2.0 / 3.0, delete.getMemoCache().getHitRate(), 0.0001);
+
+        // Unchanged values are returned as is
+        final String unchanged = new String("Groupe 1");
+        final List<Object> values = new ArrayList<Object>(Arrays.asList(unchanged));
+        replace.processAttribute(null, "memberOf", values);
+        replace.processAttribute(null, "memberOf", values);
+        assertSame(unchanged, values.get(0));
+    }
+
+}